@@ -0,0 +1,50 @@
+package org.threadly.examples.fractals;
+
+/**
+ * <p>Base for algorithms which only need to provide how a single point is iterated.  Rows are 
+ * computed one point at a time, and the default view is provided at construction.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public abstract class AbstractEscapeTimeAlgorithm implements FractalAlgorithm {
+  private final double defaultCenterReal;
+  private final double defaultCenterImaginary;
+  private final double defaultViewWidth;
+  
+  /**
+   * Constructs a new algorithm.
+   * 
+   * @param defaultCenterReal Real component at the center of the default view
+   * @param defaultCenterImaginary Imaginary component at the center of the default view
+   * @param defaultViewWidth Width of the default view on the complex plane
+   */
+  protected AbstractEscapeTimeAlgorithm(double defaultCenterReal, double defaultCenterImaginary, 
+                                        double defaultViewWidth) {
+    this.defaultCenterReal = defaultCenterReal;
+    this.defaultCenterImaginary = defaultCenterImaginary;
+    this.defaultViewWidth = defaultViewWidth;
+  }
+  
+  @Override
+  public double getDefaultCenterReal() {
+    return defaultCenterReal;
+  }
+  
+  @Override
+  public double getDefaultCenterImaginary() {
+    return defaultCenterImaginary;
+  }
+  
+  @Override
+  public double getDefaultViewWidth() {
+    return defaultViewWidth;
+  }
+  
+  @Override
+  public void iterationsRow(double[] reals, int count, double imaginary, int maxIterations, 
+                            int[] result, int resultOffset) {
+    for (int i = 0; i < count; i++) {
+      result[resultOffset + i] = iterations(reals[i], imaginary, maxIterations);
+    }
+  }
+}
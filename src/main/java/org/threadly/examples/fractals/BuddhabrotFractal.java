@@ -0,0 +1,103 @@
+package org.threadly.examples.fractals;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Deflater;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Renders the Buddhabrot to a PNG file with a {@link BuddhabrotRenderer}.  The image is 
+ * built from random samples, so more samples produce a smoother image, and the same seed always 
+ * produces the same image for the same thread count.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class BuddhabrotFractal {
+  private static final int DEFAULT_MILLION_SAMPLES = 10;
+  private static final int DEFAULT_MAX_ITERATIONS = 1000;
+  private static final double DEFAULT_CENTER_REAL = -0.5;
+  private static final double DEFAULT_VIEW_WIDTH = 3;
+  
+  @SuppressWarnings("javadoc")
+  public static void main(String[] args) throws InterruptedException, IOException {
+    double millionSamples = DEFAULT_MILLION_SAMPLES;
+    int maxIterations = DEFAULT_MAX_ITERATIONS;
+    long seed = 0;
+    int argIndex = 0;
+    try {
+      while (argIndex + 1 < args.length && args[argIndex].startsWith("-")) {
+        if (args[argIndex].equals("-samples")) {
+          millionSamples = Double.parseDouble(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-iterations")) {
+          maxIterations = Integer.parseInt(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-seed")) {
+          seed = Long.parseLong(args[argIndex + 1]);
+        } else {
+          break;
+        }
+        argIndex += 2;
+      }
+    } catch (NumberFormatException e) {
+      argIndex = args.length;
+    }
+    int remaining = args.length - argIndex;
+    if ((remaining != 3 && remaining != 6) || ! (millionSamples > 0) || maxIterations < 1) {
+      System.err.println("Usage: java -cp threadly_examples.jar " + 
+                           BuddhabrotFractal.class.getName() + 
+                           " [-samples millions] [-iterations count] [-seed seed] " + 
+                           "width height output.png [centerReal centerImaginary viewWidth]");
+      System.err.println("\t-samples: Millions of random points to sample, default " + 
+                           DEFAULT_MILLION_SAMPLES);
+      System.err.println("\t-iterations: Maximum iterations per sample, default " + 
+                           DEFAULT_MAX_ITERATIONS);
+      System.err.println("\t-seed: Seed for the random samples, default 0");
+      System.exit(1);
+    }
+    int width = Integer.parseInt(args[argIndex]);
+    int height = Integer.parseInt(args[argIndex + 1]);
+    String output = args[argIndex + 2];
+    Viewport viewport;
+    if (remaining == 6) {
+      viewport = Viewport.centered(width, height, Double.parseDouble(args[argIndex + 3]), 
+                                   Double.parseDouble(args[argIndex + 4]), 
+                                   Double.parseDouble(args[argIndex + 5]));
+    } else {
+      viewport = Viewport.centered(width, height, DEFAULT_CENTER_REAL, 0, DEFAULT_VIEW_WIDTH);
+    }
+    long samples = (long)(millionSamples * 1_000_000);
+    
+    PriorityScheduler scheduler = 
+        new PriorityScheduler(Runtime.getRuntime().availableProcessors(), true);
+    scheduler.prestartAllThreads();
+    System.out.println("Sampling " + samples + " orbits of " + viewport + " with " + 
+                         maxIterations + " iterations on " + scheduler.getMaxPoolSize() + 
+                         " threads");
+    long start = Clock.accurateForwardProgressingMillis();
+    try {
+      int[] pixels = 
+          new BuddhabrotRenderer(scheduler).render(viewport, samples, maxIterations, seed).get();
+      long elapsed = Math.max(1, Clock.accurateForwardProgressingMillis() - start);
+      System.out.println("Sampled in " + elapsed + "ms, " + 
+                           (samples * 1000 / elapsed) + " samples/sec");
+      BuddhabrotRenderer.toPixels(pixels);
+      try (PngStreamWriter png = 
+               new PngStreamWriter(new BufferedOutputStream(new FileOutputStream(output), 
+                                                            1024 * 1024), 
+                                   width, height, Deflater.BEST_SPEED)) {
+        for (int y = 0; y < height; y++) {
+          png.writeRow(pixels, y * width);
+        }
+      }
+      System.out.println("Wrote " + output);
+    } catch (ExecutionException e) {
+      throw ExceptionUtils.makeRuntime(e.getCause());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+}
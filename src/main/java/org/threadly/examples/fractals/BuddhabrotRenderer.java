@@ -0,0 +1,175 @@
+package org.threadly.examples.fractals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+
+/**
+ * <p>Renders the Buddhabrot, the density of the orbits of points which escape the Mandelbrot 
+ * set.  Random points are sampled across the set, and every position visited by an escaping 
+ * point's orbit increments the pixel it lands on.  Unlike escape time rendering any sample can 
+ * touch any pixel, so the image can not be split into independent areas.</p>
+ * 
+ * <p>Instead each worker accumulates into its own {@code int[]} histogram of the whole image, 
+ * so sampling needs no locks, atomics or shared writes.  Once every worker is done the 
+ * histograms are summed by a parallel reduction, with each task summing one range of pixels 
+ * across every histogram.  Since workers never share state while sampling, throughput scales with 
+ * the number of threads, at the cost of one histogram of memory per worker.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class BuddhabrotRenderer {
+  // area samples are taken from, the escape radius so the first orbit position is uniform
+  private static final double SAMPLE_MIN_REAL = -2;
+  private static final double SAMPLE_MAX_REAL = 2;
+  private static final double SAMPLE_MIN_IMAGINARY = -2;
+  private static final double SAMPLE_MAX_IMAGINARY = 2;
+  // samples between checks for cancellation
+  private static final int SAMPLES_PER_CHECK = 16 * 1024;
+  private static final int REDUCTION_CHUNKS_PER_WORKER = 4;
+  
+  private final PriorityScheduler scheduler;
+  private final int workerCount;
+  
+  /**
+   * Constructs a new renderer which uses one worker per thread in the scheduler's pool.
+   * 
+   * @param scheduler Scheduler to render on
+   */
+  public BuddhabrotRenderer(PriorityScheduler scheduler) {
+    this.scheduler = scheduler;
+    this.workerCount = scheduler.getMaxPoolSize();
+  }
+  
+  /**
+   * Starts sampling orbits into a histogram of the viewport.
+   * 
+   * @param viewport Area of the complex plane to accumulate orbits for
+   * @param samples Total points to sample, split evenly between workers
+   * @param maxIterations Maximum iterations per sample, orbits which do not escape are ignored
+   * @param seed Seed for the random samples, the same seed produces the same image
+   * @return Future which completes with the count of orbit positions in each pixel
+   */
+  public ListenableFuture<int[]> render(final Viewport viewport, long samples, 
+                                        final int maxIterations, long seed) {
+    // split on this thread, so each worker's sequence does not depend on scheduling
+    SplittableRandom seedRandom = new SplittableRandom(seed);
+    final List<ListenableFuture<int[]>> workers = new ArrayList<ListenableFuture<int[]>>();
+    for (int i = 0; i < workerCount; i++) {
+      long workerSamples = (samples / workerCount) + (i < samples % workerCount ? 1 : 0);
+      workers.add(submitWorker(viewport, workerSamples, maxIterations, seedRandom.split()));
+    }
+    final ListenableFuture<int[]> result = 
+        FutureUtils.makeResultListFuture(workers, false) 
+                   .flatMap(new Function<List<int[]>, ListenableFuture<int[]>>() {
+                     @Override
+                     public ListenableFuture<int[]> apply(List<int[]> histograms) {
+                       return reduce(histograms);
+                     }
+                   });
+    result.listener(new Runnable() {
+      @Override
+      public void run() {
+        if (result.isCancelled()) {
+          FutureUtils.cancelIncompleteFutures(workers, true);
+        }
+      }
+    });
+    return result;
+  }
+  
+  private ListenableFuture<int[]> submitWorker(final Viewport viewport, final long samples, 
+                                               final int maxIterations, 
+                                               final SplittableRandom random) {
+    return scheduler.submit(new Callable<int[]>() {
+      @Override
+      public int[] call() throws InterruptedException {
+        int width = viewport.getWidth();
+        int height = viewport.getHeight();
+        double minReal = viewport.getMinReal();
+        double minImaginary = viewport.getMinImaginary();
+        double inversePixelSize = 1 / viewport.getPixelSize();
+        int[] histogram = new int[width * height];
+        double[] orbitReal = new double[maxIterations];
+        double[] orbitImaginary = new double[maxIterations];
+        for (long sample = 0; sample < samples; sample++) {
+          if (sample % SAMPLES_PER_CHECK == 0 && Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          double real = SAMPLE_MIN_REAL + 
+                          (random.nextDouble() * (SAMPLE_MAX_REAL - SAMPLE_MIN_REAL));
+          double imaginary = 
+              SAMPLE_MIN_IMAGINARY + 
+                (random.nextDouble() * (SAMPLE_MAX_IMAGINARY - SAMPLE_MIN_IMAGINARY));
+          int length = MandelbrotFractal.orbit(real, imaginary, maxIterations, 
+                                               orbitReal, orbitImaginary);
+          if (length >= maxIterations) {
+            continue;
+          }
+          for (int i = 0; i < length; i++) {
+            double x = (orbitReal[i] - minReal) * inversePixelSize;
+            double y = (orbitImaginary[i] - minImaginary) * inversePixelSize;
+            if (x >= 0 && x < width && y >= 0 && y < height) {
+              histogram[(((int)y) * width) + (int)x]++;
+            }
+          }
+        }
+        return histogram;
+      }
+    }, TaskPriority.High);
+  }
+  
+  /**
+   * Sums every histogram into the first one, with each task summing a range of pixels.
+   */
+  private ListenableFuture<int[]> reduce(final List<int[]> histograms) {
+    final int[] total = histograms.get(0);
+    int chunkCount = Math.min(total.length, workerCount * REDUCTION_CHUNKS_PER_WORKER);
+    List<ListenableFuture<?>> chunks = new ArrayList<ListenableFuture<?>>(chunkCount);
+    for (int i = 0; i < chunkCount; i++) {
+      final int start = (int)(((long)total.length * i) / chunkCount);
+      final int end = (int)(((long)total.length * (i + 1)) / chunkCount);
+      chunks.add(scheduler.submit(new Runnable() {
+        @Override
+        public void run() {
+          for (int h = 1; h < histograms.size(); h++) {
+            int[] histogram = histograms.get(h);
+            for (int p = start; p < end; p++) {
+              total[p] += histogram[p];
+            }
+          }
+        }
+      }, TaskPriority.High));
+    }
+    return FutureUtils.makeFailurePropagatingCompleteFuture(chunks, total);
+  }
+  
+  /**
+   * Converts a histogram to colors in place.  Counts are scaled by the square root of their 
+   * fraction of the largest count, since a few pixels are far denser than the rest.
+   * 
+   * @param histogram Counts from {@link #render(Viewport, long, int, long)}, replaced with RGB 
+   *                    values
+   */
+  public static void toPixels(int[] histogram) {
+    int max = 1;
+    for (int count : histogram) {
+      max = Math.max(max, count);
+    }
+    for (int i = 0; i < histogram.length; i++) {
+      int level = (int)Math.round(255 * Math.sqrt(((double)histogram[i]) / max));
+      // warm tint, so the dense center is white and faint orbits are a dim orange
+      int red = Math.min(255, level + (level / 4));
+      int green = level;
+      int blue = (level * 3) / 4;
+      histogram[i] = (red << 16) | (green << 8) | blue;
+    }
+  }
+}
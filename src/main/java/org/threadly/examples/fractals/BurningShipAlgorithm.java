@@ -0,0 +1,36 @@
+package org.threadly.examples.fractals;
+
+/**
+ * <p>The Burning Ship fractal, which is the Mandelbrot iteration with the absolute value of both 
+ * components taken before squaring.  Since the imaginary axis increases down the image the ship 
+ * is shown upright.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class BurningShipAlgorithm extends AbstractEscapeTimeAlgorithm {
+  /**
+   * Constructs a new algorithm.
+   */
+  public BurningShipAlgorithm() {
+    super(-0.4, -0.5, 3.5);
+  }
+  
+  @Override
+  public int iterations(double real, double imaginary, int maxIterations) {
+    double zr = 0;
+    double zi = 0;
+    int iteration = 0;
+    while (zr * zr + zi * zi <= (2 * 2) && iteration < maxIterations) {
+      double temp = zr * zr - zi * zi + real;
+      zi = Math.abs(2 * zr * zi) + imaginary;
+      zr = temp;
+      iteration++;
+    }
+    return iteration;
+  }
+  
+  @Override
+  public String toString() {
+    return "burningship";
+  }
+}
@@ -0,0 +1,208 @@
+package org.threadly.examples.fractals;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * <p>Viewport whose center is held with arbitrary precision, so that it can be zoomed far past 
+ * the point where neighboring pixels can be told apart as {@code double} values.  The pixel size 
+ * is still a {@code double}, since it only needs to be precise relative to itself, which allows 
+ * zooming to roughly {@code 10^-300}.</p>
+ * 
+ * <p>Once {@link #needsPerturbation()} returns {@code true} the view must be rendered with a 
+ * {@link PerturbationRenderer}, before that it can be converted with {@link #toViewport()}.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class DeepViewport {
+  // pixel sizes smaller than this (relative to the center) lose precision as doubles
+  private static final double DOUBLE_PIXEL_LIMIT = 1e-12;
+  private static final int EXTRA_DIGITS = 20;
+  
+  /**
+   * Constructs a viewport showing the entire fractal.
+   * 
+   * @param width Image width in pixels
+   * @param height Image height in pixels
+   * @param algorithm Algorithm to use the default view of
+   * @return A new viewport
+   */
+  public static DeepViewport makeDefault(int width, int height, FractalAlgorithm algorithm) {
+    return new DeepViewport(width, height, BigDecimal.valueOf(algorithm.getDefaultCenterReal()), 
+                            BigDecimal.valueOf(algorithm.getDefaultCenterImaginary()), 
+                            algorithm.getDefaultViewWidth() / width);
+  }
+  
+  private final int width;
+  private final int height;
+  private final BigDecimal centerReal;
+  private final BigDecimal centerImaginary;
+  private final double pixelSize;
+  
+  /**
+   * Constructs a new viewport.
+   * 
+   * @param width Image width in pixels
+   * @param height Image height in pixels
+   * @param centerReal Real component at pixel {@code (width / 2, height / 2)}
+   * @param centerImaginary Imaginary component at pixel {@code (width / 2, height / 2)}
+   * @param pixelSize Distance on the complex plane between neighboring pixels
+   */
+  public DeepViewport(int width, int height, BigDecimal centerReal, BigDecimal centerImaginary, 
+                      double pixelSize) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+    } else if (! (pixelSize >= Double.MIN_NORMAL && pixelSize < Double.POSITIVE_INFINITY)) {
+      throw new IllegalArgumentException("Invalid pixel size: " + pixelSize);
+    }
+    this.width = width;
+    this.height = height;
+    this.centerReal = centerReal;
+    this.centerImaginary = centerImaginary;
+    this.pixelSize = pixelSize;
+  }
+  
+  /**
+   * Returns the image width.
+   * 
+   * @return Width in pixels
+   */
+  public int getWidth() {
+    return width;
+  }
+  
+  /**
+   * Returns the image height.
+   * 
+   * @return Height in pixels
+   */
+  public int getHeight() {
+    return height;
+  }
+  
+  /**
+   * Returns the real component at the center pixel.
+   * 
+   * @return Center real value
+   */
+  public BigDecimal getCenterReal() {
+    return centerReal;
+  }
+  
+  /**
+   * Returns the imaginary component at the center pixel.
+   * 
+   * @return Center imaginary value
+   */
+  public BigDecimal getCenterImaginary() {
+    return centerImaginary;
+  }
+  
+  /**
+   * Returns the distance on the complex plane between neighboring pixels.
+   * 
+   * @return Size of a single pixel
+   */
+  public double getPixelSize() {
+    return pixelSize;
+  }
+  
+  /**
+   * Returns the precision needed to tell neighboring pixels apart, with extra digits so that 
+   * rounding while iterating does not reach the pixel level.
+   * 
+   * @return Context to do arbitrary precision math for this view with
+   */
+  public MathContext getMathContext() {
+    int digits = (int)Math.ceil(-Math.log10(pixelSize));
+    return new MathContext(Math.max(0, digits) + EXTRA_DIGITS);
+  }
+  
+  /**
+   * Checks if this view is zoomed too far to be rendered with {@code double} coordinates.
+   * 
+   * @return {@code true} if a {@link PerturbationRenderer} is needed
+   */
+  public boolean needsPerturbation() {
+    double magnitude = Math.max(1, Math.max(Math.abs(centerReal.doubleValue()), 
+                                            Math.abs(centerImaginary.doubleValue())));
+    return pixelSize / magnitude < DOUBLE_PIXEL_LIMIT;
+  }
+  
+  /**
+   * Converts to a viewport with {@code double} coordinates.  This loses precision if 
+   * {@link #needsPerturbation()} returns {@code true}.
+   * 
+   * @return A viewport covering the same area
+   */
+  public Viewport toViewport() {
+    return Viewport.centered(width, height, centerReal.doubleValue(), 
+                             centerImaginary.doubleValue(), pixelSize * width);
+  }
+  
+  /**
+   * Returns the offset from the center on the real axis for a pixel column.
+   * 
+   * @param x Pixel column
+   * @return Real distance from the center column, exact for any reasonable image size
+   */
+  public double realOffset(long x) {
+    return (x - (width / 2)) * pixelSize;
+  }
+  
+  /**
+   * Returns the offset from the center on the imaginary axis for a pixel row.
+   * 
+   * @param y Pixel row
+   * @return Imaginary distance from the center row
+   */
+  public double imaginaryOffset(long y) {
+    return (y - (height / 2)) * pixelSize;
+  }
+  
+  /**
+   * Constructs a viewport of the same size, showing the selected area.  The selection is scaled 
+   * to fit, keeping this view's aspect ratio.
+   * 
+   * @param left Left pixel of the selection
+   * @param top Top pixel of the selection
+   * @param selectionWidth Width of the selection in pixels
+   * @param selectionHeight Height of the selection in pixels
+   * @return A new zoomed in viewport
+   */
+  public DeepViewport zoom(int left, int top, int selectionWidth, int selectionHeight) {
+    double scaleFactor = Math.max(((double)selectionWidth) / width, 
+                                  ((double)selectionHeight) / height);
+    MathContext mc = getMathContext();
+    BigDecimal newCenterReal = 
+        centerReal.add(new BigDecimal(realOffset(left) + (selectionWidth * pixelSize / 2)), mc);
+    BigDecimal newCenterImaginary = 
+        centerImaginary.add(new BigDecimal(imaginaryOffset(top) + 
+                                             (selectionHeight * pixelSize / 2)), mc);
+    return new DeepViewport(width, height, newCenterReal, newCenterImaginary, 
+                            pixelSize * scaleFactor);
+  }
+  
+  /**
+   * Constructs a viewport of the same size and zoom, moved by the provided amount of pixels.
+   * 
+   * @param xPixels Pixels to move the center right by, negative to move left
+   * @param yPixels Pixels to move the center down by, negative to move up
+   * @return A new viewport
+   */
+  public DeepViewport pan(int xPixels, int yPixels) {
+    MathContext mc = getMathContext();
+    return new DeepViewport(width, height, 
+                            centerReal.add(new BigDecimal(xPixels * pixelSize), mc), 
+                            centerImaginary.add(new BigDecimal(yPixels * pixelSize), mc), 
+                            pixelSize);
+  }
+  
+  @Override
+  public String toString() {
+    MathContext display = new MathContext(Math.min(40, getMathContext().getPrecision()));
+    BigDecimal imaginary = centerImaginary.round(display);
+    return width + "x" + height + " centered at " + centerReal.round(display).toString() + 
+             (imaginary.signum() < 0 ? "" : "+") + imaginary + "i, width " + (pixelSize * width);
+  }
+}
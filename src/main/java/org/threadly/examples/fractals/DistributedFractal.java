@@ -0,0 +1,179 @@
+package org.threadly.examples.fractals;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.util.Clock;
+
+/**
+ * <p>Renders a {@link FractalAlgorithm} to a PNG file across multiple processes.  The 
+ * {@code coordinator} mode runs a {@link TileCoordinator}, which splits the image into tiles 
+ * and sends them to any {@link TileWorker}s which connect, started with the {@code worker} 
+ * mode.  Workers can be started on their own, or with {@code -spawn} the coordinator starts 
+ * them as local processes.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class DistributedFractal {
+  private static final int DEFAULT_PORT = 5757;
+  
+  @SuppressWarnings("javadoc")
+  public static void main(String[] args) throws IOException {
+    if (args.length > 0 && args[0].equals("worker")) {
+      runWorker(args);
+    } else if (args.length > 0 && args[0].equals("coordinator")) {
+      runCoordinator(args);
+    } else {
+      printUsage();
+    }
+  }
+  
+  private static void printUsage() {
+    System.err.println("Usage: java -cp threadly_examples.jar " + 
+                         DistributedFractal.class.getName() + 
+                         " coordinator [-port port] [-spawn count] [-fractal name] [-tile size] " + 
+                         "[-iterations count] [-adaptive] width height output.png " + 
+                         "[centerReal centerImaginary viewWidth]");
+    System.err.println("   or: java -cp threadly_examples.jar " + 
+                         DistributedFractal.class.getName() + 
+                         " worker [-threads count] host port");
+    System.err.println("\t-port: Port for workers to connect to, default " + DEFAULT_PORT);
+    System.err.println("\t-spawn: Worker processes to start on this machine, default 0");
+    System.err.println("\t-fractal: mandelbrot (default), burningship, multibrot:power, " + 
+                         "or julia:real,imaginary");
+    System.err.println("\t-tile: Width and height of each rendered tile, default " + 
+                         TileRenderer.DEFAULT_TILE_SIZE);
+    System.err.println("\t-iterations: Maximum iterations per pixel, default " + 
+                         IterationLimit.DEFAULT_BASE_ITERATIONS);
+    System.err.println("\t-adaptive: Increase the iterations with the zoom depth");
+    System.err.println("\t-threads: Threads for the worker to compute with, default " + 
+                         Runtime.getRuntime().availableProcessors());
+    System.exit(1);
+  }
+  
+  private static void runWorker(String[] args) throws IOException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    int argIndex = 1;
+    try {
+      if (args.length > argIndex + 1 && args[argIndex].equals("-threads")) {
+        threads = Integer.parseInt(args[argIndex + 1]);
+        argIndex += 2;
+      }
+    } catch (NumberFormatException e) {
+      argIndex = args.length;
+    }
+    if (args.length - argIndex != 2 || threads < 1) {
+      printUsage();
+    }
+    InetSocketAddress address;
+    try {
+      address = new InetSocketAddress(args[argIndex], Integer.parseInt(args[argIndex + 1]));
+    } catch (IllegalArgumentException e) {
+      printUsage();
+      return;
+    }
+    
+    PriorityScheduler scheduler = new PriorityScheduler(threads, true);
+    scheduler.prestartAllThreads();
+    try {
+      new TileWorker(scheduler).run(address);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+  
+  private static void runCoordinator(String[] args) throws IOException {
+    int port = DEFAULT_PORT;
+    int spawn = 0;
+    int tileSize = TileRenderer.DEFAULT_TILE_SIZE;
+    int maxIterations = IterationLimit.DEFAULT_BASE_ITERATIONS;
+    boolean adaptive = false;
+    FractalAlgorithm algorithm = new MandelbrotAlgorithm();
+    int argIndex = 1;
+    try {
+      while (argIndex + 1 < args.length && args[argIndex].startsWith("-")) {
+        if (args[argIndex].equals("-adaptive")) {
+          adaptive = true;
+          argIndex++;
+          continue;
+        } else if (args[argIndex].equals("-port")) {
+          port = Integer.parseInt(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-spawn")) {
+          spawn = Integer.parseInt(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-fractal")) {
+          algorithm = FractalAlgorithm.fromName(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-tile")) {
+          tileSize = Integer.parseInt(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-iterations")) {
+          maxIterations = Integer.parseInt(args[argIndex + 1]);
+        } else {
+          break;
+        }
+        argIndex += 2;
+      }
+    } catch (IllegalArgumentException e) {
+      argIndex = args.length;
+    }
+    int remaining = args.length - argIndex;
+    if ((remaining != 3 && remaining != 6) || 
+        port < 0 || spawn < 0 || tileSize < 1 || maxIterations < 1) {
+      printUsage();
+    }
+    int width = Integer.parseInt(args[argIndex]);
+    int height = Integer.parseInt(args[argIndex + 1]);
+    String output = args[argIndex + 2];
+    Viewport viewport;
+    if (remaining == 6) {
+      viewport = Viewport.centered(width, height, Double.parseDouble(args[argIndex + 3]), 
+                                   Double.parseDouble(args[argIndex + 4]), 
+                                   Double.parseDouble(args[argIndex + 5]));
+    } else {
+      viewport = Viewport.centered(width, height, algorithm.getDefaultCenterReal(), 
+                                   algorithm.getDefaultCenterImaginary(), 
+                                   algorithm.getDefaultViewWidth());
+    }
+    maxIterations = new IterationLimit(maxIterations, adaptive) 
+                          .forView(algorithm, viewport.getPixelSize() * width);
+    
+    List<Process> workers = new ArrayList<Process>(spawn);
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress(port));
+      port = ((InetSocketAddress)server.getLocalAddress()).getPort();
+      System.out.println("Rendering " + algorithm + " " + viewport + " with " + maxIterations + 
+                           " iterations, workers connect to port " + port);
+      // share the cores between local workers, rather than have every worker use all of them
+      int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, spawn));
+      for (int i = 0; i < spawn; i++) {
+        workers.add(new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + 
+                                         File.separator + "java", 
+                                       "-cp", System.getProperty("java.class.path"), 
+                                       DistributedFractal.class.getName(), "worker", 
+                                       "-threads", Integer.toString(threads), 
+                                       "localhost", Integer.toString(port)) 
+                        .inheritIO().start());
+      }
+      long start = Clock.accurateForwardProgressingMillis();
+      TileCoordinator coordinator = new TileCoordinator(server, tileSize, algorithm);
+      coordinator.writePng(viewport, maxIterations, 
+                           new BufferedOutputStream(new FileOutputStream(output), 1024 * 1024));
+      System.out.println("Wrote " + output + " in " + 
+                           (Clock.accurateForwardProgressingMillis() - start) + "ms, " + 
+                           coordinator.getDispatchedCount() + " tiles dispatched, " + 
+                           coordinator.getStolenCount() + " stolen, " + 
+                           coordinator.getRedispatchedCount() + " re-dispatched, " + 
+                           (coordinator.getResultBytes() / 1024) + "KB of results");
+    } finally {
+      // workers exit once the coordinator closes their connection
+      for (Process p : workers) {
+        p.destroy();
+      }
+    }
+  }
+}
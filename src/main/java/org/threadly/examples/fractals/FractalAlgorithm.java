@@ -0,0 +1,88 @@
+package org.threadly.examples.fractals;
+
+/**
+ * <p>Escape time fractal which can be rendered by any of the renderers.  Each point of the 
+ * complex plane is iterated until it escapes or the iteration limit is reached, and the count is 
+ * then used to color the pixel.  The count also measures how expensive a point was, which 
+ * renderers use to estimate the cost of an area.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public interface FractalAlgorithm {
+  /**
+   * Constructs an algorithm from its name.  Accepted names are {@code mandelbrot}, 
+   * {@code burningship}, {@code multibrot:power} and {@code julia:real,imaginary}.
+   * 
+   * @param name Name of the algorithm, including any parameters
+   * @return A new algorithm instance
+   * @throws IllegalArgumentException Thrown if the name is not recognized
+   */
+  public static FractalAlgorithm fromName(String name) {
+    int separator = name.indexOf(':');
+    String type = separator < 0 ? name : name.substring(0, separator);
+    String parameters = separator < 0 ? null : name.substring(separator + 1);
+    try {
+      if (type.equals("mandelbrot") && parameters == null) {
+        return new MandelbrotAlgorithm();
+      } else if (type.equals("burningship") && parameters == null) {
+        return new BurningShipAlgorithm();
+      } else if (type.equals("multibrot") && parameters != null) {
+        return new MultibrotAlgorithm(Integer.parseInt(parameters));
+      } else if (type.equals("julia") && parameters != null) {
+        int comma = parameters.indexOf(',');
+        if (comma > 0) {
+          return new JuliaAlgorithm(Double.parseDouble(parameters.substring(0, comma)), 
+                                    Double.parseDouble(parameters.substring(comma + 1)));
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid parameters for fractal: " + name, e);
+    }
+    throw new IllegalArgumentException("Unknown fractal: " + name);
+  }
+  
+  /**
+   * Returns the real component at the center of a view showing the whole fractal.
+   * 
+   * @return Default center real value
+   */
+  public double getDefaultCenterReal();
+  
+  /**
+   * Returns the imaginary component at the center of a view showing the whole fractal.
+   * 
+   * @return Default center imaginary value
+   */
+  public double getDefaultCenterImaginary();
+  
+  /**
+   * Returns the width on the complex plane of a view showing the whole fractal.
+   * 
+   * @return Default view width
+   */
+  public double getDefaultViewWidth();
+  
+  /**
+   * Counts the iterations before the point escapes.
+   * 
+   * @param real Real component of the point
+   * @param imaginary Imaginary component of the point
+   * @param maxIterations Maximum iterations to attempt
+   * @return Iterations until escape, or {@code maxIterations} if the point did not escape
+   */
+  public int iterations(double real, double imaginary, int maxIterations);
+  
+  /**
+   * Counts the iterations before escape for a row of points which share an imaginary component. 
+   * Must produce the same result as {@link #iterations(double, double, int)} for each point.
+   * 
+   * @param reals Real component for each point
+   * @param count Amount of points to compute from the start of the array
+   * @param imaginary Imaginary component shared by every point
+   * @param maxIterations Maximum iterations to attempt
+   * @param result Array to store iteration counts into
+   * @param resultOffset Index in the result array for the first point
+   */
+  public void iterationsRow(double[] reals, int count, double imaginary, int maxIterations, 
+                            int[] result, int resultOffset);
+}
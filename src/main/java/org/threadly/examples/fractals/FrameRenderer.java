@@ -0,0 +1,248 @@
+package org.threadly.examples.fractals;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+
+/**
+ * <p>Renders complete frames of a fixed size into two reusable buffers, for continuous rendering 
+ * where per frame garbage adds up.  Workers write iteration counts for a row directly into the 
+ * frame, then convert them to colors in place, so no row arrays are allocated and no copy pass 
+ * is needed.  Rows are handed out from a shared counter to one task per thread, and a single 
+ * future completes once the last row is written.</p>
+ * 
+ * <p>Frames are double buffered: a frame is rendered into whichever buffer is not holding the 
+ * most recently completed frame, so the completed frame can still be shown while the next one 
+ * renders.  Starting a new frame cancels the one in progress, and the new frame does not start 
+ * writing until every worker of the cancelled frame has stopped.</p>
+ * 
+ * <p>Rows are handed out most expensive first, so the rows still running at the end of a frame 
+ * are cheap ones and no thread is left working on a slow row while the others sit idle.  The cost 
+ * of a row is the sum of its iteration counts in the previous frame, which is close for 
+ * continuous rendering where neighboring frames are similar.  Before the first frame completes 
+ * the cost is estimated by iterating a few points sampled across each row.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class FrameRenderer {
+  // points iterated per row to estimate its cost before there is a previous frame
+  private static final int COST_SAMPLES_PER_ROW = 16;
+  // row numbers are packed into the low bits of a sort key, below the row's cost
+  private static final int ROW_BITS = 24;
+  private static final long ROW_MASK = (1L << ROW_BITS) - 1;
+  private static final long MAX_SORT_COST = Long.MAX_VALUE >>> ROW_BITS;
+  
+  private final PriorityScheduler scheduler;
+  private final FractalAlgorithm algorithm;
+  private final FractalAlgorithm estimateAlgorithm;
+  private final int width;
+  private final int height;
+  private final int workerCount;
+  private final int[][] buffers;
+  private final double[] reals;
+  private final long[] rowCosts;
+  private final long[] sortKeys;
+  private final int[] rowOrder;
+  private boolean haveRowCosts;
+  private FrameJob currentJob;
+  private int frontBuffer;
+  
+  /**
+   * Constructs a new renderer.  Both frame buffers are allocated here.
+   * 
+   * @param scheduler Scheduler to render on, one task per thread in its pool is used per frame
+   * @param width Frame width in pixels
+   * @param height Frame height in pixels
+   * @param algorithm Fractal to render
+   */
+  public FrameRenderer(PriorityScheduler scheduler, int width, int height, 
+                       FractalAlgorithm algorithm) {
+    this(scheduler, width, height, algorithm, algorithm);
+  }
+  
+  /**
+   * Constructs a new renderer which estimates row costs with a separate algorithm.  The points 
+   * sampled for an estimate are never rendered, so this allows them to bypass an 
+   * {@link InstrumentedAlgorithm} rendering is recorded through.
+   * 
+   * @param scheduler Scheduler to render on, one task per thread in its pool is used per frame
+   * @param width Frame width in pixels
+   * @param height Frame height in pixels
+   * @param algorithm Fractal to render
+   * @param estimateAlgorithm Algorithm for the same fractal, only used to estimate row costs
+   */
+  public FrameRenderer(PriorityScheduler scheduler, int width, int height, 
+                       FractalAlgorithm algorithm, FractalAlgorithm estimateAlgorithm) {
+    if (width < 1 || height < 1 || height > ROW_MASK) {
+      throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+    }
+    this.scheduler = scheduler;
+    this.algorithm = algorithm;
+    this.estimateAlgorithm = estimateAlgorithm;
+    this.width = width;
+    this.height = height;
+    workerCount = Math.max(1, Math.min(height, scheduler.getMaxPoolSize()));
+    buffers = new int[][] { new int[width * height], new int[width * height] };
+    reals = new double[width];
+    rowCosts = new long[height];
+    sortKeys = new long[height];
+    rowOrder = new int[height];
+    haveRowCosts = false;
+    currentJob = null;
+    frontBuffer = 0;
+  }
+  
+  /**
+   * Returns the two buffers frames are rendered into.  Each completed frame's future provides 
+   * the buffer it was rendered into.
+   * 
+   * @return Array of the two frame buffers
+   */
+  public int[][] getBuffers() {
+    return buffers;
+  }
+  
+  /**
+   * Starts rendering a frame, cancelling any frame still in progress.  The returned array is 
+   * only valid until a frame after it completes, since its buffer is then reused.
+   * 
+   * @param viewport Viewport to render, must match the size of this renderer
+   * @param maxIterations Maximum iterations per pixel
+   * @return Future which completes with the buffer holding the frame, cancel to stop rendering
+   */
+  public synchronized ListenableFuture<int[]> render(final Viewport viewport, 
+                                                     final int maxIterations) {
+    if (viewport.getWidth() != width || viewport.getHeight() != height) {
+      throw new IllegalArgumentException("Viewport does not match frame size: " + viewport);
+    }
+    FrameJob previousJob = currentJob;
+    final FrameJob job = new FrameJob(viewport, maxIterations);
+    currentJob = job;
+    if (previousJob == null) {
+      job.start();
+    } else {
+      previousJob.result.cancel(true);
+      // the previous workers may still be writing into the back buffer, or reading reals
+      previousJob.stopped.listener(new Runnable() {
+        @Override
+        public void run() {
+          job.start();
+        }
+      });
+    }
+    return job.result;
+  }
+  
+  private synchronized void frameComplete(FrameJob job) {
+    haveRowCosts = true;
+    if (job.result.setResult(job.frame)) {
+      frontBuffer = 1 - frontBuffer;
+    }
+  }
+  
+  /**
+   * Fills {@code rowOrder} with rows from most to least expensive.  Must only be invoked while no 
+   * workers are running.
+   */
+  private void orderRows(Viewport viewport, int maxIterations) {
+    boolean estimate;
+    synchronized (this) {
+      estimate = ! haveRowCosts;
+    }
+    if (estimate) {
+      int step = Math.max(1, width / COST_SAMPLES_PER_ROW);
+      for (int y = 0; y < height; y++) {
+        double imaginary = viewport.imaginary(y);
+        long cost = 0;
+        for (int x = step / 2; x < width; x += step) {
+          cost += estimateAlgorithm.iterations(reals[x], imaginary, maxIterations);
+        }
+        rowCosts[y] = cost * step;
+      }
+    }
+    for (int y = 0; y < height; y++) {
+      sortKeys[y] = (Math.min(rowCosts[y], MAX_SORT_COST) << ROW_BITS) | y;
+    }
+    // sorting packed primitives avoids boxing each row
+    Arrays.sort(sortKeys);
+    for (int i = 0; i < height; i++) {
+      rowOrder[i] = (int)(sortKeys[height - 1 - i] & ROW_MASK);
+    }
+  }
+  
+  /**
+   * State for rendering a single frame.
+   */
+  private class FrameJob implements Runnable {
+    private final Viewport viewport;
+    private final int maxIterations;
+    private final SettableListenableFuture<int[]> result;
+    // completes once every worker has returned, even if the frame was cancelled
+    private final SettableListenableFuture<Void> stopped;
+    private final AtomicInteger nextRow;
+    private final AtomicInteger remainingRows;
+    private final AtomicInteger runningWorkers;
+    private int[] frame;
+    
+    private FrameJob(Viewport viewport, int maxIterations) {
+      this.viewport = viewport;
+      this.maxIterations = maxIterations;
+      result = new SettableListenableFuture<int[]>(false);
+      stopped = new SettableListenableFuture<Void>(false);
+      nextRow = new AtomicInteger();
+      remainingRows = new AtomicInteger(height);
+      runningWorkers = new AtomicInteger(workerCount);
+    }
+    
+    private void start() {
+      synchronized (FrameRenderer.this) {
+        if (result.isDone()) {
+          // cancelled before it could start
+          stopped.setResult(null);
+          return;
+        }
+        frame = buffers[1 - frontBuffer];
+      }
+      for (int x = 0; x < width; x++) {
+        reals[x] = viewport.real(x);
+      }
+      orderRows(viewport, maxIterations);
+      for (int i = 0; i < workerCount; i++) {
+        scheduler.execute(this, TaskPriority.High);
+      }
+    }
+    
+    @Override
+    public void run() {
+      try {
+        int index;
+        while (! result.isDone() && (index = nextRow.getAndIncrement()) < height) {
+          int y = rowOrder[index];
+          int offset = y * width;
+          algorithm.iterationsRow(reals, width, viewport.imaginary(y), maxIterations, 
+                                  frame, offset);
+          long cost = 0;
+          for (int i = offset; i < offset + width; i++) {
+            cost += frame[i];
+            frame[i] = MandelbrotFractal.color(frame[i], maxIterations);
+          }
+          // each row is only written by one worker, and read once the workers have stopped
+          rowCosts[y] = cost;
+          if (remainingRows.decrementAndGet() == 0) {
+            frameComplete(this);
+          }
+        }
+      } catch (Throwable t) {
+        result.setFailure(t);
+      } finally {
+        if (runningWorkers.decrementAndGet() == 0) {
+          stopped.setResult(null);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package org.threadly.examples.fractals;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Deflater;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Renders a {@link FractalAlgorithm}, by default the Mandelbrot set, to a PNG file without a 
+ * display.  The image is split into tiles which are rendered in parallel by a 
+ * {@link TileRenderer}, and written as they complete so that the image size is not limited by 
+ * the heap size.</p>
+ * 
+ * <p>With {@code -strategy subdivide} the image is instead rendered by a 
+ * {@link SubdivisionRenderer}, which skips areas with a uniform border but holds the whole image 
+ * in memory.</p>
+ * 
+ * <p>The center may be provided with any amount of digits.  Views zoomed in past the precision 
+ * of {@code double} are rendered with a {@link PerturbationRenderer}, which is only possible 
+ * for the Mandelbrot set.  Other algorithms are always rendered with {@code double} 
+ * coordinates.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class HeadlessFractal {
+  @SuppressWarnings("javadoc")
+  public static void main(String[] args) throws InterruptedException, IOException {
+    int tileSize = TileRenderer.DEFAULT_TILE_SIZE;
+    int maxIterations = IterationLimit.DEFAULT_BASE_ITERATIONS;
+    boolean adaptive = false;
+    FractalAlgorithm algorithm = new MandelbrotAlgorithm();
+    boolean subdivide = false;
+    int argIndex = 0;
+    try {
+      while (argIndex + 1 < args.length && args[argIndex].startsWith("-")) {
+        if (args[argIndex].equals("-adaptive")) {
+          adaptive = true;
+          argIndex++;
+          continue;
+        } else if (args[argIndex].equals("-fractal")) {
+          algorithm = FractalAlgorithm.fromName(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-tile")) {
+          tileSize = Integer.parseInt(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-iterations")) {
+          maxIterations = Integer.parseInt(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-strategy") && 
+                   (args[argIndex + 1].equals("tiles") || args[argIndex + 1].equals("subdivide"))) {
+          subdivide = args[argIndex + 1].equals("subdivide");
+        } else {
+          break;
+        }
+        argIndex += 2;
+      }
+    } catch (IllegalArgumentException e) {
+      argIndex = args.length;
+    }
+    int remaining = args.length - argIndex;
+    if ((remaining != 3 && remaining != 6) || tileSize < 1 || maxIterations < 1) {
+      System.err.println("Usage: java -cp threadly_examples.jar " + 
+                           HeadlessFractal.class.getName() + 
+                           " [-fractal name] [-tile size] [-iterations count] [-adaptive] " + 
+                           "[-strategy tiles|subdivide] width height output.png " + 
+                           "[centerReal centerImaginary viewWidth]");
+      System.err.println("\t-fractal: mandelbrot (default), burningship, multibrot:power, " + 
+                           "or julia:real,imaginary");
+      System.err.println("\t-tile: Width and height of each rendered tile, default " + 
+                           TileRenderer.DEFAULT_TILE_SIZE);
+      System.err.println("\t-iterations: Maximum iterations per pixel, default " + 
+                           IterationLimit.DEFAULT_BASE_ITERATIONS);
+      System.err.println("\t-adaptive: Increase the iterations with the zoom depth");
+      System.err.println("\t-strategy: tiles to stream every pixel (default), or subdivide to " + 
+                           "skip uniform areas in memory");
+      System.exit(1);
+    }
+    int width = Integer.parseInt(args[argIndex]);
+    int height = Integer.parseInt(args[argIndex + 1]);
+    String output = args[argIndex + 2];
+    DeepViewport viewport;
+    if (remaining == 6) {
+      // center is parsed with full precision, so deep zoom locations can be provided
+      viewport = new DeepViewport(width, height, new BigDecimal(args[argIndex + 3]), 
+                                  new BigDecimal(args[argIndex + 4]), 
+                                  Double.parseDouble(args[argIndex + 5]) / width);
+    } else {
+      viewport = DeepViewport.makeDefault(width, height, algorithm);
+    }
+    maxIterations = new IterationLimit(maxIterations, adaptive) 
+                          .forView(algorithm, viewport.getPixelSize() * width);
+    
+    PriorityScheduler scheduler = 
+        new PriorityScheduler(Runtime.getRuntime().availableProcessors(), true);
+    scheduler.prestartAllThreads();
+    System.out.println("Rendering " + algorithm + " " + viewport + " with " + maxIterations + 
+                         " iterations");
+    long start = Clock.accurateForwardProgressingMillis();
+    try {
+      if (viewport.needsPerturbation() && algorithm instanceof MandelbrotAlgorithm) {
+        // deep views are rendered completely before writing, so must fit in the heap
+        System.out.println("Using perturbation for deep zoom");
+        int[] pixels = 
+            new PerturbationRenderer(scheduler, tileSize).render(viewport, maxIterations).get();
+        writePng(pixels, width, height, output);
+      } else if (subdivide) {
+        SubdivisionRenderer renderer = 
+            new SubdivisionRenderer(scheduler, tileSize, SubdivisionRenderer.DEFAULT_MIN_SIZE, 
+                                    algorithm);
+        int[] pixels = renderer.render(viewport.toViewport(), maxIterations).get();
+        System.out.println("Computed " + renderer.getComputedPixelCount() + " of " + 
+                             ((long)width * height) + " pixels");
+        writePng(pixels, width, height, output);
+      } else {
+        // tiles are streamed as they complete, so the file is written while rendering
+        try (OutputStream out = openOutput(output)) {
+          new TileRenderer(scheduler, tileSize, algorithm).writePng(viewport.toViewport(), 
+                                                                    maxIterations, out);
+        }
+      }
+      System.out.println("Wrote " + output + " in " + 
+                           (Clock.accurateForwardProgressingMillis() - start) + "ms");
+    } catch (ExecutionException e) {
+      throw ExceptionUtils.makeRuntime(e.getCause());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+  
+  private static OutputStream openOutput(String file) throws IOException {
+    return new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024);
+  }
+  
+  // only opens the file once the pixels are computed, so a failed render leaves no partial file
+  private static void writePng(int[] pixels, int width, int height, 
+                               String file) throws IOException {
+    try (OutputStream out = openOutput(file); 
+         PngStreamWriter png = new PngStreamWriter(out, width, height, Deflater.BEST_SPEED)) {
+      for (int y = 0; y < height; y++) {
+        png.writeRow(pixels, y * width);
+      }
+    }
+  }
+}
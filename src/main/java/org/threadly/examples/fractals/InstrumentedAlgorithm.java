@@ -0,0 +1,65 @@
+package org.threadly.examples.fractals;
+
+/**
+ * <p>Wraps a {@link FractalAlgorithm} to record every row and pixel computed into 
+ * {@link RenderMetrics}.  Since every renderer computes through its algorithm, wrapping the 
+ * algorithm instruments any of them without changes.  Each row costs two reads of the clock and 
+ * a pass to sum its iterations, which is small next to computing the row.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class InstrumentedAlgorithm implements FractalAlgorithm {
+  private final FractalAlgorithm delegate;
+  private final RenderMetrics metrics;
+  
+  /**
+   * Constructs a new instrumented algorithm.
+   * 
+   * @param delegate Algorithm to compute with
+   * @param metrics Metrics to record into
+   */
+  public InstrumentedAlgorithm(FractalAlgorithm delegate, RenderMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+  
+  @Override
+  public double getDefaultCenterReal() {
+    return delegate.getDefaultCenterReal();
+  }
+  
+  @Override
+  public double getDefaultCenterImaginary() {
+    return delegate.getDefaultCenterImaginary();
+  }
+  
+  @Override
+  public double getDefaultViewWidth() {
+    return delegate.getDefaultViewWidth();
+  }
+  
+  @Override
+  public int iterations(double real, double imaginary, int maxIterations) {
+    int result = delegate.iterations(real, imaginary, maxIterations);
+    metrics.recordPixels(1, result);
+    return result;
+  }
+  
+  @Override
+  public void iterationsRow(double[] reals, int count, double imaginary, int maxIterations, 
+                            int[] result, int resultOffset) {
+    long start = System.nanoTime();
+    delegate.iterationsRow(reals, count, imaginary, maxIterations, result, resultOffset);
+    long nanos = System.nanoTime() - start;
+    long iterations = 0;
+    for (int i = resultOffset; i < resultOffset + count; i++) {
+      iterations += result[i];
+    }
+    metrics.recordRow(nanos, count, iterations);
+  }
+  
+  @Override
+  public String toString() {
+    return delegate.toString();
+  }
+}
@@ -0,0 +1,56 @@
+package org.threadly.examples.fractals;
+
+/**
+ * <p>Provides the maximum iterations to render a view with.  The limit is either fixed, or grows 
+ * with the zoom depth, since deeper views are closer to the boundary where points take longer to 
+ * escape.  An adaptive limit is multiplied by one more for each factor of ten zoomed in from the 
+ * algorithm's default view, so a view zoomed in 1000 times uses four times the base limit.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class IterationLimit {
+  /**
+   * Default iterations for the default view.
+   */
+  public static final int DEFAULT_BASE_ITERATIONS = 1000;
+  // adaptive limits stop here so a deep view can still complete in reasonable time
+  private static final int MAX_ADAPTIVE_ITERATIONS = 1000000;
+  
+  private final int baseIterations;
+  private final boolean adaptive;
+  
+  /**
+   * Constructs a new limit.
+   * 
+   * @param baseIterations Iterations for the default view, and any view if not adaptive
+   * @param adaptive {@code true} to increase the limit as views are zoomed in
+   */
+  public IterationLimit(int baseIterations, boolean adaptive) {
+    if (baseIterations < 1) {
+      throw new IllegalArgumentException("Invalid iterations: " + baseIterations);
+    }
+    this.baseIterations = baseIterations;
+    this.adaptive = adaptive;
+  }
+  
+  /**
+   * Returns the maximum iterations for a view.
+   * 
+   * @param algorithm Algorithm being rendered
+   * @param viewWidth Width of the view on the complex plane
+   * @return Maximum iterations per pixel
+   */
+  public int forView(FractalAlgorithm algorithm, double viewWidth) {
+    double zoom = algorithm.getDefaultViewWidth() / viewWidth;
+    if (! adaptive || zoom <= 1) {
+      return baseIterations;
+    }
+    double scaled = baseIterations * (1 + Math.log10(zoom));
+    return (int)Math.min(Math.max(baseIterations, MAX_ADAPTIVE_ITERATIONS), scaled);
+  }
+  
+  @Override
+  public String toString() {
+    return baseIterations + (adaptive ? " adaptive" : "");
+  }
+}
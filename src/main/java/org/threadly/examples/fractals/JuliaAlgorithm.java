@@ -0,0 +1,54 @@
+package org.threadly.examples.fractals;
+
+/**
+ * <p>A Julia set, {@code z = z^2 + c} for a fixed {@code c}, starting from {@code z} at the 
+ * point being rendered.  Each point of the Mandelbrot set is a {@code c} with a connected Julia 
+ * set, values near its boundary produce the most detail.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class JuliaAlgorithm extends AbstractEscapeTimeAlgorithm {
+  private final double constantReal;
+  private final double constantImaginary;
+  
+  /**
+   * Constructs a new algorithm.
+   * 
+   * @param constantReal Real component of the constant {@code c}
+   * @param constantImaginary Imaginary component of the constant {@code c}
+   */
+  public JuliaAlgorithm(double constantReal, double constantImaginary) {
+    super(0, 0, 3.5);
+    this.constantReal = constantReal;
+    this.constantImaginary = constantImaginary;
+  }
+  
+  @Override
+  public int iterations(double real, double imaginary, int maxIterations) {
+    double zr = real;
+    double zi = imaginary;
+    // orbit position saved at each power of two iteration, for detecting a repeating orbit
+    double savedR = zr;
+    double savedI = zi;
+    int iteration = 0;
+    while (zr * zr + zi * zi <= (2 * 2) && iteration < maxIterations) {
+      double temp = zr * zr - zi * zi + constantReal;
+      zi = 2 * zr * zi + constantImaginary;
+      zr = temp;
+      iteration++;
+      
+      if (zr == savedR && zi == savedI) {
+        return maxIterations;
+      } else if ((iteration & (iteration - 1)) == 0) {
+        savedR = zr;
+        savedI = zi;
+      }
+    }
+    return iteration;
+  }
+  
+  @Override
+  public String toString() {
+    return "julia:" + constantReal + "," + constantImaginary;
+  }
+}
@@ -0,0 +1,34 @@
+package org.threadly.examples.fractals;
+
+/**
+ * <p>The Mandelbrot set, {@code z = z^2 + c} starting from {@code z = 0}.  Uses the optimized 
+ * kernels in {@link MandelbrotFractal}, and is the only algorithm which can be rendered past 
+ * {@code double} precision with a {@link PerturbationRenderer}.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class MandelbrotAlgorithm extends AbstractEscapeTimeAlgorithm {
+  /**
+   * Constructs a new algorithm.
+   */
+  public MandelbrotAlgorithm() {
+    super(Viewport.DEFAULT_CENTER_REAL, Viewport.DEFAULT_CENTER_IMAGINARY, 
+          Viewport.DEFAULT_VIEW_WIDTH);
+  }
+  
+  @Override
+  public int iterations(double real, double imaginary, int maxIterations) {
+    return MandelbrotFractal.iterations(real, imaginary, maxIterations);
+  }
+  
+  @Override
+  public void iterationsRow(double[] reals, int count, double imaginary, int maxIterations, 
+                            int[] result, int resultOffset) {
+    MandelbrotFractal.iterationsRow(reals, count, imaginary, maxIterations, result, resultOffset);
+  }
+  
+  @Override
+  public String toString() {
+    return "mandelbrot";
+  }
+}
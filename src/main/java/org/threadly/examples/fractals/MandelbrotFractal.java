@@ -6,6 +6,300 @@ package org.threadly.examples.fractals;
  * @author jent - Mike Jensen
  */
 public class MandelbrotFractal {
+  private static final int PALETTE_SIZE = 256;
+  private static final int[] PALETTE;
+  
+  static {
+    PALETTE = new int[PALETTE_SIZE];
+    for (int i = 0; i < PALETTE_SIZE; i++) {
+      double t = (2 * Math.PI * i) / PALETTE_SIZE;
+      int r = (int)(127.5 - (127.5 * Math.cos(t)));
+      int g = (int)(127.5 - (127.5 * Math.cos(t + (Math.PI / 3))));
+      int b = (int)(127.5 + (127.5 * Math.cos(t / 2)));
+      PALETTE[i] = (r << 16) | (g << 8) | b;
+    }
+  }
+  
+  /**
+   * Counts the iterations before the point escapes the set.
+   * 
+   * @param real Real component of the point
+   * @param imaginary Imaginary component of the point
+   * @param maxIterations Maximum iterations to attempt
+   * @return Iterations until escape, or {@code maxIterations} if the point did not escape
+   */
+  public static int iterations(double real, double imaginary, int maxIterations) {
+    if (inCardioidOrBulb(real, imaginary)) {
+      return maxIterations;
+    }
+    double zr = 0;
+    double zi = 0;
+    // orbit position saved at each power of two iteration, for detecting a repeating orbit
+    double savedR = 0;
+    double savedI = 0;
+    int iteration = 0;
+    while (zr * zr + zi * zi <= (2 * 2) && iteration < maxIterations) {
+      double temp = zr * zr - zi * zi + real;
+      zi = 2 * zr * zi + imaginary;
+      zr = temp;
+      iteration++;
+      
+      if (zr == savedR && zi == savedI) {
+        // orbit has repeated exactly, so it will never escape
+        return maxIterations;
+      } else if ((iteration & (iteration - 1)) == 0) {
+        savedR = zr;
+        savedI = zi;
+      }
+    }
+    return iteration;
+  }
+  
+  /**
+   * Iterates a point the same as {@link #iterations(double, double, int)}, while recording each 
+   * position of its orbit.  Used for orbit density rendering, where the path of escaping points 
+   * is plotted rather than the iteration count.
+   * 
+   * @param real Real component of the point
+   * @param imaginary Imaginary component of the point
+   * @param maxIterations Maximum iterations to attempt
+   * @param orbitReal Array of at least {@code maxIterations} to store real positions into
+   * @param orbitImaginary Array of at least {@code maxIterations} to store imaginary positions into
+   * @return Iterations until escape, or {@code maxIterations} if the point did not escape, which 
+   *           is also the amount of positions stored
+   */
+  public static int orbit(double real, double imaginary, int maxIterations, 
+                          double[] orbitReal, double[] orbitImaginary) {
+    if (inCardioidOrBulb(real, imaginary)) {
+      return maxIterations;
+    }
+    double zr = 0;
+    double zi = 0;
+    double savedR = 0;
+    double savedI = 0;
+    int iteration = 0;
+    while (zr * zr + zi * zi <= (2 * 2) && iteration < maxIterations) {
+      double temp = zr * zr - zi * zi + real;
+      zi = 2 * zr * zi + imaginary;
+      zr = temp;
+      orbitReal[iteration] = zr;
+      orbitImaginary[iteration] = zi;
+      iteration++;
+      
+      if (zr == savedR && zi == savedI) {
+        return maxIterations;
+      } else if ((iteration & (iteration - 1)) == 0) {
+        savedR = zr;
+        savedI = zi;
+      }
+    }
+    return iteration;
+  }
+  
+  /**
+   * Checks if the point is within the main cardioid or the period 2 bulb.  Together these cover 
+   * most of the area of the set, and points within them never escape.
+   * 
+   * @param real Real component of the point
+   * @param imaginary Imaginary component of the point
+   * @return {@code true} if the point is known to be in the set
+   */
+  public static boolean inCardioidOrBulb(double real, double imaginary) {
+    double imaginarySquared = imaginary * imaginary;
+    double shifted = real - 0.25;
+    double q = shifted * shifted + imaginarySquared;
+    if (q * (q + shifted) <= imaginarySquared * 0.25) {
+      return true;
+    }
+    double bulb = real + 1;
+    return bulb * bulb + imaginarySquared <= 0.0625;
+  }
+  
+  /**
+   * Counts the iterations before escape for a row of points which share an imaginary component. 
+   * Produces the same results as {@link #iterations(double, double, int)} for each point, but 
+   * iterates four points together.  Each lane is an independent chain of dependent multiplies, 
+   * so interleaving them lets the CPU overlap their latency.  A lane which escapes (or repeats) 
+   * is masked out of the step that finds it, and the next point in the row is loaded into it so 
+   * lanes are not left idle waiting on the slowest point.
+   * 
+   * @param reals Real component for each point
+   * @param count Amount of points to compute from the start of the array
+   * @param imaginary Imaginary component shared by every point
+   * @param maxIterations Maximum iterations to attempt
+   * @param result Array to store iteration counts into, at the same index as the point
+   */
+  public static void iterationsRow(double[] reals, int count, double imaginary, 
+                                   int maxIterations, int[] result) {
+    iterationsRow(reals, count, imaginary, maxIterations, result, 0);
+  }
+  
+  /**
+   * Counts the iterations before escape for a row of points which share an imaginary component, 
+   * storing the counts at an offset so they can be written directly into a larger image.
+   * 
+   * @param reals Real component for each point
+   * @param count Amount of points to compute from the start of the array
+   * @param imaginary Imaginary component shared by every point
+   * @param maxIterations Maximum iterations to attempt
+   * @param result Array to store iteration counts into
+   * @param resultOffset Index in the result array for the first point
+   */
+  public static void iterationsRow(double[] reals, int count, double imaginary, 
+                                   int maxIterations, int[] result, int resultOffset) {
+    // lanes are held in locals so they stay in registers, a point of -1 means the lane is empty
+    int p0 = -1, p1 = -1, p2 = -1, p3 = -1;
+    double c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+    double r0 = 0, r1 = 0, r2 = 0, r3 = 0;
+    double i0 = 0, i1 = 0, i2 = 0, i3 = 0;
+    double sr0 = 0, sr1 = 0, sr2 = 0, sr3 = 0;
+    double si0 = 0, si1 = 0, si2 = 0, si3 = 0;
+    int n0 = 0, n1 = 0, n2 = 0, n3 = 0;
+    int nextPoint = skipKnownInterior(reals, 0, count, imaginary, maxIterations, 
+                                      result, resultOffset);
+    while (true) {
+      if (p0 < 0 && nextPoint < count) {
+        p0 = nextPoint;
+        c0 = reals[p0];
+        r0 = i0 = sr0 = si0 = 0;
+        n0 = 0;
+        nextPoint = skipKnownInterior(reals, nextPoint + 1, count, imaginary, maxIterations, 
+                                      result, resultOffset);
+      }
+      if (p1 < 0 && nextPoint < count) {
+        p1 = nextPoint;
+        c1 = reals[p1];
+        r1 = i1 = sr1 = si1 = 0;
+        n1 = 0;
+        nextPoint = skipKnownInterior(reals, nextPoint + 1, count, imaginary, maxIterations, 
+                                      result, resultOffset);
+      }
+      if (p2 < 0 && nextPoint < count) {
+        p2 = nextPoint;
+        c2 = reals[p2];
+        r2 = i2 = sr2 = si2 = 0;
+        n2 = 0;
+        nextPoint = skipKnownInterior(reals, nextPoint + 1, count, imaginary, maxIterations, 
+                                      result, resultOffset);
+      }
+      if (p3 < 0 && nextPoint < count) {
+        p3 = nextPoint;
+        c3 = reals[p3];
+        r3 = i3 = sr3 = si3 = 0;
+        n3 = 0;
+        nextPoint = skipKnownInterior(reals, nextPoint + 1, count, imaginary, maxIterations, 
+                                      result, resultOffset);
+      }
+      if (p0 < 0 && p1 < 0 && p2 < 0 && p3 < 0) {
+        return;
+      }
+      
+      // step every lane together until at least one lane finishes
+      while (true) {
+        double rr0 = r0 * r0, ii0 = i0 * i0;
+        double rr1 = r1 * r1, ii1 = i1 * i1;
+        double rr2 = r2 * r2, ii2 = i2 * i2;
+        double rr3 = r3 * r3, ii3 = i3 * i3;
+        boolean done0 = p0 >= 0 && (rr0 + ii0 > (2 * 2) || n0 >= maxIterations);
+        boolean done1 = p1 >= 0 && (rr1 + ii1 > (2 * 2) || n1 >= maxIterations);
+        boolean done2 = p2 >= 0 && (rr2 + ii2 > (2 * 2) || n2 >= maxIterations);
+        boolean done3 = p3 >= 0 && (rr3 + ii3 > (2 * 2) || n3 >= maxIterations);
+        if (done0 | done1 | done2 | done3) {
+          if (done0) {
+            result[resultOffset + p0] = n0;
+            p0 = -1;
+          }
+          if (done1) {
+            result[resultOffset + p1] = n1;
+            p1 = -1;
+          }
+          if (done2) {
+            result[resultOffset + p2] = n2;
+            p2 = -1;
+          }
+          if (done3) {
+            result[resultOffset + p3] = n3;
+            p3 = -1;
+          }
+          break;
+        }
+        
+        // empty lanes are stepped too, their values are ignored
+        double temp = rr0 - ii0 + c0;
+        i0 = 2 * r0 * i0 + imaginary;
+        r0 = temp;
+        temp = rr1 - ii1 + c1;
+        i1 = 2 * r1 * i1 + imaginary;
+        r1 = temp;
+        temp = rr2 - ii2 + c2;
+        i2 = 2 * r2 * i2 + imaginary;
+        r2 = temp;
+        temp = rr3 - ii3 + c3;
+        i3 = 2 * r3 * i3 + imaginary;
+        r3 = temp;
+        n0++;
+        n1++;
+        n2++;
+        n3++;
+        
+        // a repeated orbit will never escape, so jump straight to the max
+        if (r0 == sr0 && i0 == si0) {
+          n0 = maxIterations;
+        } else if ((n0 & (n0 - 1)) == 0) {
+          sr0 = r0;
+          si0 = i0;
+        }
+        if (r1 == sr1 && i1 == si1) {
+          n1 = maxIterations;
+        } else if ((n1 & (n1 - 1)) == 0) {
+          sr1 = r1;
+          si1 = i1;
+        }
+        if (r2 == sr2 && i2 == si2) {
+          n2 = maxIterations;
+        } else if ((n2 & (n2 - 1)) == 0) {
+          sr2 = r2;
+          si2 = i2;
+        }
+        if (r3 == sr3 && i3 == si3) {
+          n3 = maxIterations;
+        } else if ((n3 & (n3 - 1)) == 0) {
+          sr3 = r3;
+          si3 = i3;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Stores the result for any points inside the cardioid or bulb, starting from the provided 
+   * index.
+   * 
+   * @return Index of the next point which needs to be iterated, or {@code count} if none remain
+   */
+  private static int skipKnownInterior(double[] reals, int index, int count, double imaginary, 
+                                       int maxIterations, int[] result, int resultOffset) {
+    while (index < count && inCardioidOrBulb(reals[index], imaginary)) {
+      result[resultOffset + index++] = maxIterations;
+    }
+    return index;
+  }
+  
+  /**
+   * Produces the RGB color for an iteration count.  Points in the set are black.
+   * 
+   * @param iterations Iterations returned from {@link #iterations(double, double, int)}
+   * @param maxIterations Maximum iterations which were attempted
+   * @return RGB value with no alpha component
+   */
+  public static int color(int iterations, int maxIterations) {
+    if (iterations >= maxIterations) {
+      return 0;
+    } else {
+      return PALETTE[(iterations * 4) % PALETTE_SIZE];
+    }
+  }
+  
   /**
    * Calculates the RGB of a pixel at a given position.
    * 
@@ -0,0 +1,49 @@
+package org.threadly.examples.fractals;
+
+/**
+ * <p>A Multibrot set, {@code z = z^power + c} starting from {@code z = 0}.  A power of 2 is the 
+ * Mandelbrot set, higher powers have {@code power - 1} fold symmetry.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class MultibrotAlgorithm extends AbstractEscapeTimeAlgorithm {
+  private final int power;
+  
+  /**
+   * Constructs a new algorithm.
+   * 
+   * @param power Power to raise {@code z} to each iteration, at least {@code 2}
+   */
+  public MultibrotAlgorithm(int power) {
+    super(0, 0, 4.5);
+    if (power < 2) {
+      throw new IllegalArgumentException("Power must be at least 2: " + power);
+    }
+    this.power = power;
+  }
+  
+  @Override
+  public int iterations(double real, double imaginary, int maxIterations) {
+    double zr = 0;
+    double zi = 0;
+    int iteration = 0;
+    while (zr * zr + zi * zi <= (2 * 2) && iteration < maxIterations) {
+      double pr = zr;
+      double pi = zi;
+      for (int i = 1; i < power; i++) {
+        double temp = pr * zr - pi * zi;
+        pi = pr * zi + pi * zr;
+        pr = temp;
+      }
+      zr = pr + real;
+      zi = pi + imaginary;
+      iteration++;
+    }
+    return iteration;
+  }
+  
+  @Override
+  public String toString() {
+    return "multibrot:" + power;
+  }
+}
@@ -0,0 +1,157 @@
+package org.threadly.examples.fractals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureCallback;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+
+/**
+ * <p>Renders a {@link DeepViewport} at zoom depths beyond {@code double} precision.  A single 
+ * {@link ReferenceOrbit} is computed for the center of the view with arbitrary precision, then 
+ * every pixel is iterated as a {@code double} difference from that orbit in tiles on the 
+ * scheduler.  After the reference orbit, rendering runs at close to the speed of a shallow 
+ * view no matter how deep the zoom is.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class PerturbationRenderer {
+  private final PriorityScheduler scheduler;
+  private final int tileSize;
+  
+  /**
+   * Constructs a new renderer.
+   * 
+   * @param scheduler Scheduler to render on
+   * @param tileSize Width and height of each tile in pixels
+   */
+  public PerturbationRenderer(PriorityScheduler scheduler, int tileSize) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+    }
+    this.scheduler = scheduler;
+    this.tileSize = tileSize;
+  }
+  
+  /**
+   * Starts rendering the viewport into a new pixel array.
+   * 
+   * @param viewport Viewport to render
+   * @param maxIterations Maximum iterations per pixel
+   * @return Future which completes with the rendered RGB values, cancel to stop rendering
+   */
+  public ListenableFuture<int[]> render(DeepViewport viewport, int maxIterations) {
+    return render(viewport, maxIterations, new ProgressiveRenderer.PixelListener() {
+      @Override
+      public void renderStarted(int[] pixels) {
+        // ignored
+      }
+      
+      @Override
+      public void pixelsUpdated(int x, int y, int width, int height) {
+        // ignored
+      }
+    });
+  }
+  
+  /**
+   * Starts rendering the viewport into a new pixel array.  The array is returned immediately 
+   * through {@link ProgressiveRenderer.PixelListener#renderStarted(int[])}, and the listener is 
+   * informed as each tile completes.
+   * 
+   * @param viewport Viewport to render
+   * @param maxIterations Maximum iterations per pixel
+   * @param listener Listener to be informed as areas of the image are updated
+   * @return Future which completes once every tile is rendered, cancel to stop rendering
+   */
+  public ListenableFuture<int[]> render(final DeepViewport viewport, final int maxIterations, 
+                                        final ProgressiveRenderer.PixelListener listener) {
+    final int[] pixels = new int[viewport.getWidth() * viewport.getHeight()];
+    final SettableListenableFuture<int[]> result = new SettableListenableFuture<int[]>(false);
+    final List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>();
+    listener.renderStarted(pixels);
+    
+    ListenableFuture<ReferenceOrbit> orbitFuture = scheduler.submit(new Callable<ReferenceOrbit>() {
+      @Override
+      public ReferenceOrbit call() throws InterruptedException {
+        return ReferenceOrbit.compute(viewport, maxIterations);
+      }
+    }, TaskPriority.High);
+    synchronized (futures) {
+      futures.add(orbitFuture);
+    }
+    orbitFuture.flatMap(new Function<ReferenceOrbit, ListenableFuture<int[]>>() {
+      @Override
+      public ListenableFuture<int[]> apply(ReferenceOrbit orbit) {
+        List<ListenableFuture<?>> tiles = new ArrayList<ListenableFuture<?>>();
+        for (int startY = 0; startY < viewport.getHeight(); startY += tileSize) {
+          for (int startX = 0; startX < viewport.getWidth(); startX += tileSize) {
+            tiles.add(submitTile(viewport, orbit, maxIterations, pixels, startX, startY, 
+                                 listener));
+          }
+        }
+        synchronized (futures) {
+          futures.addAll(tiles);
+          if (result.isDone()) {
+            // cancelled while tiles were being submitted
+            FutureUtils.cancelIncompleteFutures(tiles, true);
+          }
+        }
+        return FutureUtils.makeFailurePropagatingCompleteFuture(tiles, pixels);
+      }
+    }).callback(new FutureCallback<int[]>() {
+      @Override
+      public void handleResult(int[] rendered) {
+        result.setResult(rendered);
+      }
+      
+      @Override
+      public void handleFailure(Throwable t) {
+        result.setFailure(t);
+      }
+    });
+    result.listener(new Runnable() {
+      @Override
+      public void run() {
+        // if cancelled (or failed) stop any work which has not finished
+        synchronized (futures) {
+          FutureUtils.cancelIncompleteFutures(futures, true);
+        }
+      }
+    });
+    return result;
+  }
+  
+  private ListenableFuture<?> submitTile(final DeepViewport viewport, final ReferenceOrbit orbit, 
+                                         final int maxIterations, final int[] pixels, 
+                                         final int startX, final int startY, 
+                                         final ProgressiveRenderer.PixelListener listener) {
+    return scheduler.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws InterruptedException {
+        int width = Math.min(tileSize, viewport.getWidth() - startX);
+        int height = Math.min(tileSize, viewport.getHeight() - startY);
+        for (int y = startY; y < startY + height; y++) {
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          double imaginaryOffset = viewport.imaginaryOffset(y);
+          int index = (y * viewport.getWidth()) + startX;
+          for (int x = startX; x < startX + width; x++) {
+            int iterations = orbit.iterations(viewport.realOffset(x), imaginaryOffset, 
+                                              maxIterations);
+            pixels[index++] = MandelbrotFractal.color(iterations, maxIterations);
+          }
+        }
+        listener.pixelsUpdated(startX, startY, width, height);
+        return null;
+      }
+    }, TaskPriority.High);
+  }
+}
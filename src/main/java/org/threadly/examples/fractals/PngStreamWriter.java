@@ -0,0 +1,161 @@
+package org.threadly.examples.fractals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * <p>Writes a truecolor PNG one row at a time, so that only a single row needs to be in memory 
+ * no matter how large the image is.  Unlike {@link javax.imageio.ImageIO} this does not need a 
+ * complete image to be constructed first.</p>
+ * 
+ * <p>Rows must be written from top to bottom, and exactly {@code height} rows must be written 
+ * before {@link #close()} is invoked.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class PngStreamWriter implements Closeable {
+  private static final byte[] SIGNATURE = 
+      new byte[] { (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+  private static final byte[] IHDR = "IHDR".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] IDAT = "IDAT".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] IEND = "IEND".getBytes(StandardCharsets.US_ASCII);
+  private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+  private static final byte FILTER_SUB = 1;
+  
+  private final OutputStream out;
+  private final int width;
+  private final int height;
+  private final Deflater deflater;
+  private final DeflaterOutputStream imageData;
+  private final byte[] rowBytes;
+  private int rowsWritten;
+  
+  /**
+   * Constructs a new writer, immediately writing the PNG header.  The provided stream will be 
+   * closed when this writer is closed.
+   * 
+   * @param out Stream to write the image to
+   * @param width Image width in pixels
+   * @param height Image height in pixels
+   * @param compressionLevel {@link Deflater} level from 0 to 9
+   * @throws IOException Thrown if the header could not be written
+   */
+  public PngStreamWriter(OutputStream out, int width, int height, 
+                         int compressionLevel) throws IOException {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+    } else if (width > (Integer.MAX_VALUE - 1) / 3) {
+      throw new IllegalArgumentException("Width too large: " + width);
+    }
+    this.out = out;
+    this.width = width;
+    this.height = height;
+    deflater = new Deflater(compressionLevel);
+    imageData = new DeflaterOutputStream(new IdatOutputStream(), deflater, IDAT_CHUNK_SIZE);
+    rowBytes = new byte[1 + (width * 3)];
+    rowBytes[0] = FILTER_SUB;
+    rowsWritten = 0;
+    
+    out.write(SIGNATURE);
+    byte[] header = new byte[13];
+    writeInt(header, 0, width);
+    writeInt(header, 4, height);
+    header[8] = 8;   // bit depth
+    header[9] = 2;   // color type, RGB
+    header[10] = 0;  // deflate compression
+    header[11] = 0;  // adaptive filtering
+    header[12] = 0;  // no interlace
+    writeChunk(IHDR, header, 0, header.length);
+  }
+  
+  private static void writeInt(byte[] dest, int offset, int value) {
+    dest[offset] = (byte)(value >>> 24);
+    dest[offset + 1] = (byte)(value >>> 16);
+    dest[offset + 2] = (byte)(value >>> 8);
+    dest[offset + 3] = (byte)value;
+  }
+  
+  private void writeChunk(byte[] type, byte[] data, int offset, int length) throws IOException {
+    byte[] lengthBytes = new byte[4];
+    writeInt(lengthBytes, 0, length);
+    out.write(lengthBytes);
+    out.write(type);
+    out.write(data, offset, length);
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    crc.update(data, offset, length);
+    writeInt(lengthBytes, 0, (int)crc.getValue());
+    out.write(lengthBytes);
+  }
+  
+  /**
+   * Writes the next row of the image.
+   * 
+   * @param rgb Array containing RGB values, any alpha component is ignored
+   * @param offset Index in the array of the left pixel in the row
+   * @throws IOException Thrown if the row could not be written
+   */
+  public void writeRow(int[] rgb, int offset) throws IOException {
+    if (rowsWritten == height) {
+      throw new IllegalStateException("All " + height + " rows already written");
+    }
+    // sub filter stores each byte as the difference from the pixel to its left
+    int previous = 0;
+    int index = 1;
+    for (int i = 0; i < width; i++) {
+      int pixel = rgb[offset + i];
+      rowBytes[index++] = (byte)((pixel >> 16) - (previous >> 16));
+      rowBytes[index++] = (byte)((pixel >> 8) - (previous >> 8));
+      rowBytes[index++] = (byte)(pixel - previous);
+      previous = pixel;
+    }
+    imageData.write(rowBytes);
+    rowsWritten++;
+  }
+  
+  /**
+   * Finishes the image and closes the underlying stream.
+   * 
+   * @throws IOException Thrown if the image could not be finished, or not all rows were written
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (rowsWritten != height) {
+        throw new IOException("Only " + rowsWritten + " of " + height + " rows written");
+      }
+      imageData.close();
+      writeChunk(IEND, new byte[0], 0, 0);
+    } finally {
+      deflater.end();
+      out.close();
+    }
+  }
+  
+  /**
+   * Stream which writes compressed data as {@code IDAT} chunks.
+   */
+  private class IdatOutputStream extends OutputStream {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte)b }, 0, 1);
+    }
+    
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+      if (length > 0) {
+        writeChunk(IDAT, b, offset, length);
+      }
+    }
+    
+    @Override
+    public void close() {
+      // underlying stream is closed after the final chunk
+    }
+  }
+}
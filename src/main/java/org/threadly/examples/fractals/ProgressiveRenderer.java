@@ -0,0 +1,312 @@
+package org.threadly.examples.fractals;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureCallback;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+
+/**
+ * <p>Renders a {@link Viewport} in multiple passes of increasing resolution, so that a coarse 
+ * version of the image is available quickly.  The first pass only computes one pixel in every 
+ * {@code previewStep x previewStep} block and runs at {@link TaskPriority#High}.  Each following 
+ * pass halves the step, computing only the pixels which were not computed by an earlier pass, and 
+ * runs at {@link TaskPriority#Low}.  Until a pixel is computed it shows the color of the nearest 
+ * computed pixel above and to the left, so the image sharpens in place as passes complete.</p>
+ * 
+ * <p>Passes are run per tile, with the next pass for a tile submitted once the previous one 
+ * completes, so passes for the same tile never run concurrently.  Cancelling the future returned 
+ * from {@link #render(Viewport, int, PixelListener)} cancels all work for that render, allowing 
+ * a new render to start without competing with stale work.</p>
+ * 
+ * <p>When constructed with a {@link TileCache}, tiles are positioned on a grid anchored at the 
+ * origin of the complex plane so that views at the same zoom share tiles.  Cached tiles are 
+ * shown immediately and only missing tiles are rendered, so returning to a previous view is 
+ * instant and a pan only renders the newly exposed tiles.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class ProgressiveRenderer {
+  /**
+   * Default step for the preview pass, meaning it is rendered at 1/8th resolution.
+   */
+  public static final int DEFAULT_PREVIEW_STEP = 8;
+  
+  private final PriorityScheduler scheduler;
+  private final int tileSize;
+  private final int previewStep;
+  private final TileCache cache;
+  private final FractalAlgorithm algorithm;
+  
+  /**
+   * Constructs a new renderer.
+   * 
+   * @param scheduler Scheduler to render on
+   * @param tileSize Width and height of each tile in pixels
+   * @param previewStep Power of two step between computed pixels in the preview pass
+   * @param algorithm Fractal to render
+   */
+  public ProgressiveRenderer(PriorityScheduler scheduler, int tileSize, int previewStep, 
+                             FractalAlgorithm algorithm) {
+    this(scheduler, tileSize, previewStep, null, algorithm);
+  }
+  
+  /**
+   * Constructs a new renderer which reuses tiles from the provided cache, and adds each tile to 
+   * it once the final pass is complete.  Cache keys do not include the algorithm, so a cache 
+   * must only be used for a single algorithm.
+   * 
+   * @param scheduler Scheduler to render on
+   * @param cache Cache to reuse tiles from, tiles are rendered at its tile size
+   * @param previewStep Power of two step between computed pixels in the preview pass
+   * @param algorithm Fractal to render
+   */
+  public ProgressiveRenderer(PriorityScheduler scheduler, TileCache cache, int previewStep, 
+                             FractalAlgorithm algorithm) {
+    this(scheduler, cache.getTileSize(), previewStep, cache, algorithm);
+  }
+  
+  private ProgressiveRenderer(PriorityScheduler scheduler, int tileSize, int previewStep, 
+                              TileCache cache, FractalAlgorithm algorithm) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+    } else if (previewStep < 1 || Integer.bitCount(previewStep) != 1) {
+      throw new IllegalArgumentException("Preview step must be a power of two: " + previewStep);
+    } else if (tileSize % previewStep != 0) {
+      throw new IllegalArgumentException("Tile size must be a multiple of the preview step");
+    }
+    this.scheduler = scheduler;
+    this.tileSize = tileSize;
+    this.previewStep = previewStep;
+    this.cache = cache;
+    this.algorithm = algorithm;
+  }
+  
+  /**
+   * Starts rendering the viewport into a new pixel array.  The array is returned immediately 
+   * through {@link PixelListener#renderStarted(int[])}, and updated in place as passes complete. 
+   * Any tiles found in the cache are copied into the image before this returns.
+   * 
+   * @param viewport Viewport to render
+   * @param maxIterations Maximum iterations per pixel
+   * @param listener Listener to be informed as areas of the image are updated
+   * @return Future which completes once the final pass is done, cancel to stop rendering
+   */
+  public ListenableFuture<int[]> render(Viewport viewport, int maxIterations, 
+                                        PixelListener listener) {
+    RenderJob job = new RenderJob(viewport, maxIterations, listener);
+    listener.renderStarted(job.pixels);
+    job.start();
+    return job.result;
+  }
+  
+  /**
+   * Computes the pixels for one pass over a tile.  A pixel is computed when both of its 
+   * coordinates are a multiple of the step, but skipped if they were both a multiple of the 
+   * previous pass's step.  Each computed pixel is filled across its {@code step x step} block.
+   */
+  private void renderPass(double pixelSize, int maxIterations, int[] tilePixels, 
+                          long tileX, long tileY, int step, boolean firstPass, 
+                          SettableListenableFuture<?> result) {
+    long originX = tileX * tileSize;
+    long originY = tileY * tileSize;
+    int previousStep = step * 2;
+    // rows alternate between every step, and only the odd steps where the previous pass ran
+    double[] allReals = new double[tileSize / step];
+    double[] skippingReals = new double[tileSize / previousStep];
+    for (int i = 0; i < allReals.length; i++) {
+      allReals[i] = (originX + (i * step)) * pixelSize;
+    }
+    for (int i = 0; i < skippingReals.length; i++) {
+      skippingReals[i] = (originX + (i * previousStep) + step) * pixelSize;
+    }
+    int[] iterations = new int[allReals.length];
+    for (int y = 0; y < tileSize; y += step) {
+      if (result.isDone()) {
+        return;
+      }
+      boolean skipping = ! firstPass && y % previousStep == 0;
+      double[] reals = skipping ? skippingReals : allReals;
+      int firstX = skipping ? step : 0;
+      int xStep = skipping ? previousStep : step;
+      algorithm.iterationsRow(reals, reals.length, (originY + y) * pixelSize, 
+                              maxIterations, iterations, 0);
+      for (int i = 0; i < reals.length; i++) {
+        int color = MandelbrotFractal.color(iterations[i], maxIterations);
+        int x = firstX + (i * xStep);
+        for (int by = 0; by < step; by++) {
+          int index = ((y + by) * tileSize) + x;
+          for (int bx = 0; bx < step; bx++) {
+            tilePixels[index + bx] = color;
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * State for rendering a single viewport.  Tiles are positioned on a grid starting from the 
+   * origin of the complex plane rather than the corner of the viewport, so that they line up with 
+   * cached tiles from other views.  The viewport is rounded to the nearest whole pixel on that 
+   * grid.
+   */
+  private class RenderJob {
+    private final Viewport viewport;
+    private final int maxIterations;
+    private final PixelListener listener;
+    private final double pixelSize;
+    // position of the top left pixel, in pixels from the origin
+    private final long originX;
+    private final long originY;
+    private final int[] pixels;
+    private final SettableListenableFuture<int[]> result;
+    private final Queue<ListenableFuture<?>> futures;
+    private final AtomicInteger remainingTiles;
+    
+    private RenderJob(Viewport viewport, int maxIterations, PixelListener listener) {
+      this.viewport = viewport;
+      this.maxIterations = maxIterations;
+      this.listener = listener;
+      pixelSize = viewport.getPixelSize();
+      originX = Math.round(viewport.getMinReal() / pixelSize);
+      originY = Math.round(viewport.getMinImaginary() / pixelSize);
+      pixels = new int[viewport.getWidth() * viewport.getHeight()];
+      result = new SettableListenableFuture<int[]>(false);
+      futures = new ConcurrentLinkedQueue<ListenableFuture<?>>();
+      remainingTiles = new AtomicInteger();
+    }
+    
+    private void start() {
+      result.listener(new Runnable() {
+        @Override
+        public void run() {
+          // if cancelled (or failed) stop any work which has not finished
+          for (ListenableFuture<?> f : futures) {
+            f.cancel(true);
+          }
+        }
+      });
+      long firstTileX = Math.floorDiv(originX, tileSize);
+      long lastTileX = Math.floorDiv(originX + viewport.getWidth() - 1, tileSize);
+      long firstTileY = Math.floorDiv(originY, tileSize);
+      long lastTileY = Math.floorDiv(originY + viewport.getHeight() - 1, tileSize);
+      // count every tile first, so cached tiles can not complete the render before all are started
+      long tileCount = ((lastTileX - firstTileX) + 1) * ((lastTileY - firstTileY) + 1);
+      remainingTiles.set((int)tileCount + 1);
+      for (long tileY = firstTileY; tileY <= lastTileY; tileY++) {
+        for (long tileX = firstTileX; tileX <= lastTileX; tileX++) {
+          TileCache.TileKey key = null;
+          if (cache != null) {
+            key = new TileCache.TileKey(pixelSize, tileX, tileY, maxIterations);
+            int[] cached = cache.get(key);
+            if (cached != null) {
+              tileComplete(tileX, tileY, cached);
+              continue;
+            }
+          }
+          submitPass(key, tileX, tileY, new int[tileSize * tileSize], previewStep);
+        }
+      }
+      tileDone();
+    }
+    
+    private void tileDone() {
+      if (remainingTiles.decrementAndGet() == 0) {
+        result.setResult(pixels);
+      }
+    }
+    
+    /**
+     * Copies the part of the tile which is within the viewport into the image.
+     */
+    private void copyToImage(long tileX, long tileY, int[] tilePixels) {
+      long tileLeft = (tileX * tileSize) - originX;
+      long tileTop = (tileY * tileSize) - originY;
+      int left = (int)Math.max(0, tileLeft);
+      int top = (int)Math.max(0, tileTop);
+      int right = (int)Math.min(viewport.getWidth(), tileLeft + tileSize);
+      int bottom = (int)Math.min(viewport.getHeight(), tileTop + tileSize);
+      for (int y = top; y < bottom; y++) {
+        System.arraycopy(tilePixels, (int)(((y - tileTop) * tileSize) + (left - tileLeft)), 
+                         pixels, (y * viewport.getWidth()) + left, right - left);
+      }
+      listener.pixelsUpdated(left, top, right - left, bottom - top);
+    }
+    
+    private void tileComplete(long tileX, long tileY, int[] tilePixels) {
+      copyToImage(tileX, tileY, tilePixels);
+      tileDone();
+    }
+    
+    private void submitPass(final TileCache.TileKey key, final long tileX, final long tileY, 
+                            final int[] tilePixels, final int step) {
+      final boolean firstPass = step == previewStep;
+      final ListenableFuture<?> future = scheduler.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          renderPass(pixelSize, maxIterations, tilePixels, tileX, tileY, step, firstPass, result);
+          if (result.isDone()) {
+            throw new CancellationException();
+          }
+          return null;
+        }
+      }, firstPass ? TaskPriority.High : TaskPriority.Low);
+      futures.add(future);
+      if (result.isDone()) {
+        // render was cancelled while submitting
+        future.cancel(true);
+        return;
+      }
+      future.callback(new FutureCallback<Object>() {
+        @Override
+        public void handleResult(Object ignored) {
+          futures.remove(future);
+          if (step > 1) {
+            copyToImage(tileX, tileY, tilePixels);
+            submitPass(key, tileX, tileY, tilePixels, step / 2);
+          } else {
+            if (key != null) {
+              cache.put(key, tilePixels);
+            }
+            tileComplete(tileX, tileY, tilePixels);
+          }
+        }
+        
+        @Override
+        public void handleFailure(Throwable t) {
+          if (! (t instanceof CancellationException)) {
+            result.setFailure(t);
+          }
+        }
+      });
+    }
+  }
+  
+  /**
+   * Listener which is informed as the image is rendered.  Invoked from the rendering threads.
+   */
+  public interface PixelListener {
+    /**
+     * Invoked once with the array the image will be rendered into, before any rendering starts.
+     * 
+     * @param pixels Row major RGB values, width of the viewport by height of the viewport
+     */
+    public void renderStarted(int[] pixels);
+    
+    /**
+     * Invoked when a pass has completed for an area of the image.
+     * 
+     * @param x Left pixel of the updated area
+     * @param y Top pixel of the updated area
+     * @param width Width of the updated area
+     * @param height Height of the updated area
+     */
+    public void pixelsUpdated(int x, int y, int width, int height);
+  }
+}
@@ -0,0 +1,120 @@
+package org.threadly.examples.fractals;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * <p>Orbit of a single point computed with arbitrary precision, used as a reference for 
+ * rendering nearby points with {@code double} math.  For a point {@code c + dc} near the 
+ * reference point {@code c}, only the difference from the reference orbit is iterated: 
+ * {@code d(n+1) = (2 * Z(n) + d(n)) * d(n) + dc}.  Since {@code dc} and {@code d(n)} are tiny 
+ * values rather than tiny differences between large values, they keep full {@code double} 
+ * precision at any zoom depth.</p>
+ * 
+ * <p>The difference becomes inaccurate (a glitch) once it is large compared to the full value 
+ * {@code Z(n) + d(n)}, and can not continue once the reference orbit escapes.  In either case 
+ * the point is rebased: the full value becomes the new difference and iteration continues from 
+ * the start of the reference orbit, which is always {@code 0}.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class ReferenceOrbit {
+  /**
+   * Computes the orbit for the center of the viewport.  This is single threaded, but only needs 
+   * to be done once per view.
+   * 
+   * @param viewport Viewport to compute the orbit for the center of
+   * @param maxIterations Maximum iterations to compute
+   * @return The computed orbit
+   * @throws InterruptedException Thrown if the thread is interrupted while computing
+   */
+  public static ReferenceOrbit compute(DeepViewport viewport, 
+                                       int maxIterations) throws InterruptedException {
+    MathContext mc = viewport.getMathContext();
+    BigDecimal cr = viewport.getCenterReal();
+    BigDecimal ci = viewport.getCenterImaginary();
+    BigDecimal two = BigDecimal.valueOf(2);
+    double[] real = new double[maxIterations + 1];
+    double[] imaginary = new double[maxIterations + 1];
+    BigDecimal zr = BigDecimal.ZERO;
+    BigDecimal zi = BigDecimal.ZERO;
+    int length = 1;  // Z(0) is zero
+    while (length <= maxIterations) {
+      BigDecimal temp = zr.multiply(zr, mc).subtract(zi.multiply(zi, mc), mc).add(cr, mc);
+      zi = two.multiply(zr, mc).multiply(zi, mc).add(ci, mc);
+      zr = temp;
+      double r = zr.doubleValue();
+      double i = zi.doubleValue();
+      // the escaped value is kept after the end of the orbit, so points can step on to it
+      real[length] = r;
+      imaginary[length] = i;
+      if (r * r + i * i > (2 * 2)) {
+        break;
+      }
+      length++;
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+    return new ReferenceOrbit(real, imaginary, length);
+  }
+  
+  private final double[] real;
+  private final double[] imaginary;
+  private final int length;
+  
+  private ReferenceOrbit(double[] real, double[] imaginary, int length) {
+    this.real = real;
+    this.imaginary = imaginary;
+    this.length = length;
+  }
+  
+  /**
+   * Returns the amount of iterations in the orbit before the reference escaped (or the 
+   * maximum was reached).
+   * 
+   * @return Length of the orbit, including the starting {@code 0}
+   */
+  public int getLength() {
+    return length;
+  }
+  
+  /**
+   * Counts the iterations before a point near the reference escapes the set.
+   * 
+   * @param realOffset Real distance from the reference point
+   * @param imaginaryOffset Imaginary distance from the reference point
+   * @param maxIterations Maximum iterations to attempt, no more than the orbit was computed with
+   * @return Iterations until escape, or {@code maxIterations} if the point did not escape
+   */
+  public int iterations(double realOffset, double imaginaryOffset, int maxIterations) {
+    if (maxIterations >= real.length) {
+      throw new IllegalArgumentException("Orbit only computed for " + (real.length - 1) + 
+                                           " iterations");
+    }
+    double dr = 0;
+    double di = 0;
+    int reference = 0;
+    for (int iteration = 1; iteration <= maxIterations; iteration++) {
+      double twoZr = (2 * real[reference]) + dr;
+      double twoZi = (2 * imaginary[reference]) + di;
+      double temp = twoZr * dr - twoZi * di + realOffset;
+      di = twoZr * di + twoZi * dr + imaginaryOffset;
+      dr = temp;
+      reference++;
+      
+      double zr = real[reference] + dr;
+      double zi = imaginary[reference] + di;
+      double magnitude = zr * zr + zi * zi;
+      if (magnitude > (2 * 2)) {
+        return iteration;
+      } else if (magnitude < dr * dr + di * di || reference == length) {
+        // glitch, or end of the reference orbit, continue from the start of the orbit
+        dr = zr;
+        di = zi;
+        reference = 0;
+      }
+    }
+    return maxIterations;
+  }
+}
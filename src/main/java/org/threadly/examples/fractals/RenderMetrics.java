@@ -0,0 +1,306 @@
+package org.threadly.examples.fractals;
+
+import java.lang.management.ManagementFactory;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.util.Clock;
+
+/**
+ * <p>Collects render throughput and latency.  Rows are recorded from the render threads, usually 
+ * through an {@link InstrumentedAlgorithm}, into counters owned by the recording thread.  Each 
+ * thread only writes its own counters, so recording is an uncontended ordered write with no 
+ * locks or shared atomic updates.  Row times are kept as a histogram with power of two 
+ * nanosecond buckets.</p>
+ * 
+ * <p>Counters from every thread are summed when sampled, which happens periodically on the 
+ * scheduler once {@link #startSampling(long, boolean)} is called.  Each sample computes the 
+ * rates and row time percentiles and maximum for the period, and reads the scheduler's queue 
+ * depth and active threads.  The latest sample is available through JMX once 
+ * {@link #registerMBean()} is called, and can also be logged.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class RenderMetrics implements RenderMetricsMBean {
+  /**
+   * Name the metrics are registered with in the platform MBean server.
+   */
+  public static final String OBJECT_NAME = "org.threadly.examples.fractals:type=RenderMetrics";
+  // indexes into each thread's counters, followed by the row time histogram
+  private static final int ROWS = 0;
+  private static final int PIXELS = 1;
+  private static final int ITERATIONS = 2;
+  private static final int FIRST_BUCKET = 3;
+  // bucket n counts rows taking less than 2^(n + 1) nanoseconds, the last bucket is unbounded
+  private static final int BUCKET_COUNT = 40;
+  
+  private final PriorityScheduler scheduler;
+  private final Queue<AtomicLongArray> threadCounters;
+  private final ThreadLocal<AtomicLongArray> localCounters;
+  private final AtomicBoolean firstPixelsPending;
+  private final AtomicLong framesCompleted;
+  private volatile long frameStart;
+  private volatile long timeToFirstPixel;
+  private volatile long timeToFullFrame;
+  // state of the most recent sample, only modified while synchronized
+  private long[] lastTotals;
+  private long lastSampleTime;
+  private volatile long pixelsPerSecond;
+  private volatile long iterationsPerSecond;
+  private volatile double rowMillisMedian;
+  private volatile double rowMillis99;
+  private volatile double rowMillisMax;
+  private volatile int queuedTasks;
+  private volatile int activeThreads;
+  
+  /**
+   * Constructs new metrics.
+   * 
+   * @param scheduler Scheduler renders run on, sampled for its queue and thread usage
+   */
+  public RenderMetrics(PriorityScheduler scheduler) {
+    this.scheduler = scheduler;
+    threadCounters = new ConcurrentLinkedQueue<AtomicLongArray>();
+    localCounters = new ThreadLocal<AtomicLongArray>() {
+      @Override
+      protected AtomicLongArray initialValue() {
+        AtomicLongArray result = new AtomicLongArray(FIRST_BUCKET + BUCKET_COUNT);
+        threadCounters.add(result);
+        return result;
+      }
+    };
+    firstPixelsPending = new AtomicBoolean(false);
+    framesCompleted = new AtomicLong();
+    timeToFirstPixel = -1;
+    timeToFullFrame = -1;
+    lastTotals = new long[FIRST_BUCKET + BUCKET_COUNT];
+    lastSampleTime = Clock.accurateForwardProgressingMillis();
+  }
+  
+  /**
+   * Registers with the platform MBean server as {@link #OBJECT_NAME}.
+   * 
+   * @throws JMException Thrown if the metrics could not be registered
+   */
+  public void registerMBean() throws JMException {
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+  }
+  
+  /**
+   * Starts periodically sampling the metrics on the scheduler.
+   * 
+   * @param periodMillis Time between samples
+   * @param log {@code true} to print each sample to stdout
+   */
+  public void startSampling(long periodMillis, final boolean log) {
+    scheduler.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        sample();
+        if (log) {
+          System.out.println(RenderMetrics.this);
+        }
+      }
+    }, periodMillis, periodMillis, TaskPriority.Low);
+  }
+  
+  /**
+   * Records a computed row.  Only touches counters owned by the calling thread.
+   * 
+   * @param nanos Time taken to compute the row
+   * @param pixels Amount of pixels in the row
+   * @param iterations Total iterations for the pixels in the row
+   */
+  public void recordRow(long nanos, int pixels, long iterations) {
+    AtomicLongArray counters = localCounters.get();
+    // only the owning thread writes, so an ordered write can be used instead of an atomic add
+    counters.lazySet(ROWS, counters.get(ROWS) + 1);
+    counters.lazySet(PIXELS, counters.get(PIXELS) + pixels);
+    counters.lazySet(ITERATIONS, counters.get(ITERATIONS) + iterations);
+    int bucket = Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+    counters.lazySet(FIRST_BUCKET + bucket, counters.get(FIRST_BUCKET + bucket) + 1);
+  }
+  
+  /**
+   * Records pixels computed individually rather than as a row, which are not timed.
+   * 
+   * @param pixels Amount of pixels computed
+   * @param iterations Total iterations for the pixels
+   */
+  public void recordPixels(int pixels, long iterations) {
+    AtomicLongArray counters = localCounters.get();
+    counters.lazySet(PIXELS, counters.get(PIXELS) + pixels);
+    counters.lazySet(ITERATIONS, counters.get(ITERATIONS) + iterations);
+  }
+  
+  /**
+   * Marks the start of rendering a new view, which first pixel and full frame times are 
+   * measured from.
+   */
+  public void frameStarted() {
+    frameStart = Clock.accurateForwardProgressingMillis();
+    firstPixelsPending.set(true);
+  }
+  
+  /**
+   * Records that pixels of the current view were shown.  Only the first call after 
+   * {@link #frameStarted()} records the time.
+   * 
+   * @return {@code true} if this was the first pixels of the view
+   */
+  public boolean firstPixels() {
+    if (firstPixelsPending.get() && firstPixelsPending.compareAndSet(true, false)) {
+      timeToFirstPixel = Clock.accurateForwardProgressingMillis() - frameStart;
+      return true;
+    } else {
+      return false;
+    }
+  }
+  
+  /**
+   * Records that the current view is completely rendered.  If no pixels were shown before this, 
+   * the first pixel time is recorded as well.
+   */
+  public void frameComplete() {
+    firstPixels();
+    timeToFullFrame = Clock.accurateForwardProgressingMillis() - frameStart;
+    framesCompleted.incrementAndGet();
+  }
+  
+  private long[] totals() {
+    long[] result = new long[FIRST_BUCKET + BUCKET_COUNT];
+    for (AtomicLongArray counters : threadCounters) {
+      for (int i = 0; i < result.length; i++) {
+        result[i] += counters.get(i);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Sums every thread's counters, and computes the rates and percentiles since the last sample.
+   */
+  private synchronized void sample() {
+    long now = Clock.accurateForwardProgressingMillis();
+    long[] totals = totals();
+    long elapsed = Math.max(1, now - lastSampleTime);
+    pixelsPerSecond = (totals[PIXELS] - lastTotals[PIXELS]) * 1000 / elapsed;
+    iterationsPerSecond = (totals[ITERATIONS] - lastTotals[ITERATIONS]) * 1000 / elapsed;
+    long rows = totals[ROWS] - lastTotals[ROWS];
+    rowMillisMedian = percentile(totals, rows, 0.5);
+    rowMillis99 = percentile(totals, rows, 0.99);
+    rowMillisMax = max(totals, rows);
+    // not counting the recurring task taking this sample
+    queuedTasks = Math.max(0, scheduler.getQueuedTaskCount() - 1);
+    activeThreads = Math.max(0, scheduler.getActiveTaskCount() - 1);
+    lastTotals = totals;
+    lastSampleTime = now;
+  }
+  
+  private double percentile(long[] totals, long rows, double percentile) {
+    if (rows == 0) {
+      return 0;
+    }
+    long target = (long)Math.ceil(rows * percentile);
+    long seen = 0;
+    int bucket = 0;
+    while (bucket < BUCKET_COUNT - 1) {
+      seen += totals[FIRST_BUCKET + bucket] - lastTotals[FIRST_BUCKET + bucket];
+      if (seen >= target) {
+        break;
+      }
+      bucket++;
+    }
+    return (1L << (bucket + 1)) / 1_000_000d;
+  }
+  
+  private double max(long[] totals, long rows) {
+    if (rows == 0) {
+      return 0;
+    }
+    int bucket = BUCKET_COUNT - 1;
+    while (bucket > 0 && totals[FIRST_BUCKET + bucket] == lastTotals[FIRST_BUCKET + bucket]) {
+      bucket--;
+    }
+    return (1L << (bucket + 1)) / 1_000_000d;
+  }
+  
+  @Override
+  public long getPixelsComputed() {
+    return totals()[PIXELS];
+  }
+  
+  @Override
+  public long getIterationsComputed() {
+    return totals()[ITERATIONS];
+  }
+  
+  @Override
+  public long getPixelsPerSecond() {
+    return pixelsPerSecond;
+  }
+  
+  @Override
+  public long getIterationsPerSecond() {
+    return iterationsPerSecond;
+  }
+  
+  @Override
+  public double getRowMillisMedian() {
+    return rowMillisMedian;
+  }
+  
+  @Override
+  public double getRowMillis99() {
+    return rowMillis99;
+  }
+  
+  @Override
+  public double getRowMillisMax() {
+    return rowMillisMax;
+  }
+  
+  @Override
+  public int getQueuedTasks() {
+    return queuedTasks;
+  }
+  
+  @Override
+  public int getActiveThreads() {
+    return activeThreads;
+  }
+  
+  @Override
+  public long getTimeToFirstPixelMillis() {
+    return timeToFirstPixel;
+  }
+  
+  @Override
+  public long getTimeToFullFrameMillis() {
+    return timeToFullFrame;
+  }
+  
+  @Override
+  public long getFramesCompleted() {
+    return framesCompleted.get();
+  }
+  
+  @Override
+  public String toString() {
+    return String.format("%,d pixels/s, %,d iterations/s, row p50 %.3fms p99 %.3fms " + 
+                           "max %.3fms, %d queued, %d/%d threads active, " + 
+                           "first pixel %dms, full frame %dms", 
+                         pixelsPerSecond, iterationsPerSecond, 
+                         rowMillisMedian, rowMillis99, rowMillisMax, 
+                         queuedTasks, activeThreads, scheduler.getMaxPoolSize(), 
+                         timeToFirstPixel, timeToFullFrame);
+  }
+}
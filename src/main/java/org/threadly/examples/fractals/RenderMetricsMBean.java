@@ -0,0 +1,99 @@
+package org.threadly.examples.fractals;
+
+/**
+ * <p>Management interface for {@link RenderMetrics}, so render progress can be watched with 
+ * JMX tools like jconsole.  Rates, row times and scheduler state are from the most recent 
+ * sample, totals are current.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public interface RenderMetricsMBean {
+  /**
+   * Returns the total amount of pixels computed.
+   * 
+   * @return Pixels computed since the metrics were created
+   */
+  public long getPixelsComputed();
+  
+  /**
+   * Returns the total amount of iterations computed for all pixels.  This is the sum of each 
+   * pixel's result, so interior points the algorithm identifies without iterating are counted 
+   * at the full iteration limit.
+   * 
+   * @return Iterations computed since the metrics were created
+   */
+  public long getIterationsComputed();
+  
+  /**
+   * Returns the rate pixels were computed at during the last sample period.
+   * 
+   * @return Pixels per second
+   */
+  public long getPixelsPerSecond();
+  
+  /**
+   * Returns the rate iterations were computed at during the last sample period.
+   * 
+   * @return Iterations per second
+   */
+  public long getIterationsPerSecond();
+  
+  /**
+   * Returns the median time to compute a row during the last sample period.  Times are 
+   * recorded in power of two buckets, so this is the upper bound of the median's bucket.
+   * 
+   * @return Median row time in milliseconds, or {@code 0} if no rows were computed
+   */
+  public double getRowMillisMedian();
+  
+  /**
+   * Returns the 99th percentile time to compute a row during the last sample period, as the 
+   * upper bound of its bucket.
+   * 
+   * @return 99th percentile row time in milliseconds, or {@code 0} if no rows were computed
+   */
+  public double getRowMillis99();
+  
+  /**
+   * Returns the longest time to compute a row during the last sample period, as the upper bound 
+   * of its bucket.
+   * 
+   * @return Maximum row time in milliseconds, or {@code 0} if no rows were computed
+   */
+  public double getRowMillisMax();
+  
+  /**
+   * Returns the amount of tasks waiting in the scheduler's queue at the last sample.
+   * 
+   * @return Queued task count
+   */
+  public int getQueuedTasks();
+  
+  /**
+   * Returns the amount of scheduler threads running tasks at the last sample.
+   * 
+   * @return Active thread count
+   */
+  public int getActiveThreads();
+  
+  /**
+   * Returns the time from the most recent render starting until any of its pixels were shown.
+   * 
+   * @return Time to first pixel in milliseconds, or {@code -1} if not yet known
+   */
+  public long getTimeToFirstPixelMillis();
+  
+  /**
+   * Returns the time from the most recent completed render starting until it finished.
+   * 
+   * @return Time to full frame in milliseconds, or {@code -1} if no render has completed
+   */
+  public long getTimeToFullFrameMillis();
+  
+  /**
+   * Returns the amount of renders which have completed.
+   * 
+   * @return Completed render count
+   */
+  public long getFramesCompleted();
+}
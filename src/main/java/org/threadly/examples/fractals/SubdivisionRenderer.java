@@ -0,0 +1,310 @@
+package org.threadly.examples.fractals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+
+/**
+ * <p>Renders a {@link Viewport} by recursive subdivision (the Mariani-Silver algorithm), which 
+ * avoids computing large areas with the same iteration count, such as the interior of the set. 
+ * Only the border of a rectangle is computed at first.  If every border pixel has the same 
+ * iteration count the rectangle is filled with it, otherwise the rectangle is split into four 
+ * along a new row and column, which become part of the borders of the smaller rectangles.</p>
+ * 
+ * <p>The image starts as a grid of tiles, each submitted as its own task.  Large sub-rectangles 
+ * are submitted to the scheduler as new tasks so that idle threads can pick them up, fork-join 
+ * style, while small ones are handled on the thread which split them.  Since the set is 
+ * connected, a uniform border almost always means a uniform inside, though features smaller than 
+ * the border spacing can be missed.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class SubdivisionRenderer {
+  /**
+   * Default width and height of the smallest rectangle which will be split, any smaller is 
+   * computed pixel by pixel if its border is not uniform.
+   */
+  public static final int DEFAULT_MIN_SIZE = 8;
+  // rectangles with at least this many pixels are submitted as new tasks rather than run inline
+  private static final int MIN_FORK_AREA = 64 * 64;
+  
+  private final PriorityScheduler scheduler;
+  private final int tileSize;
+  private final int minSize;
+  private final FractalAlgorithm algorithm;
+  private final LongAdder computedPixels;
+  
+  /**
+   * Constructs a new renderer.
+   * 
+   * @param scheduler Scheduler to render on
+   * @param tileSize Width and height of the tiles the image is started as
+   * @param minSize Width and height of the smallest rectangle to be split
+   * @param algorithm Fractal to render
+   */
+  public SubdivisionRenderer(PriorityScheduler scheduler, int tileSize, int minSize, 
+                             FractalAlgorithm algorithm) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+    } else if (minSize < 3) {
+      throw new IllegalArgumentException("Minimum size must be at least 3: " + minSize);
+    }
+    this.scheduler = scheduler;
+    this.tileSize = tileSize;
+    this.minSize = minSize;
+    this.algorithm = algorithm;
+    computedPixels = new LongAdder();
+  }
+  
+  /**
+   * Returns how many pixels have been iterated by this renderer, rather than filled in from a 
+   * uniform border.  This is a total across all renders.
+   * 
+   * @return Count of computed pixels
+   */
+  public long getComputedPixelCount() {
+    return computedPixels.sum();
+  }
+  
+  /**
+   * Starts rendering the viewport into a new pixel array.
+   * 
+   * @param viewport Viewport to render
+   * @param maxIterations Maximum iterations per pixel
+   * @return Future which completes with the rendered RGB values, cancel to stop rendering
+   */
+  public ListenableFuture<int[]> render(Viewport viewport, int maxIterations) {
+    return render(viewport, maxIterations, new ProgressiveRenderer.PixelListener() {
+      @Override
+      public void renderStarted(int[] pixels) {
+        // ignored
+      }
+      
+      @Override
+      public void pixelsUpdated(int x, int y, int width, int height) {
+        // ignored
+      }
+    });
+  }
+  
+  /**
+   * Starts rendering the viewport into a new pixel array.  The array is returned immediately 
+   * through {@link ProgressiveRenderer.PixelListener#renderStarted(int[])}, and the listener is 
+   * informed as each tile completes.
+   * 
+   * @param viewport Viewport to render
+   * @param maxIterations Maximum iterations per pixel
+   * @param listener Listener to be informed as areas of the image are updated
+   * @return Future which completes once every tile is rendered, cancel to stop rendering
+   */
+  public ListenableFuture<int[]> render(Viewport viewport, int maxIterations, 
+                                        ProgressiveRenderer.PixelListener listener) {
+    RenderJob job = new RenderJob(viewport, maxIterations, listener);
+    listener.renderStarted(job.pixels);
+    job.start();
+    return job.result;
+  }
+  
+  /**
+   * State for rendering a single viewport.  Iteration counts are kept beside the colors, since 
+   * borders are compared by iteration count.
+   */
+  private class RenderJob {
+    private final Viewport viewport;
+    private final int maxIterations;
+    private final ProgressiveRenderer.PixelListener listener;
+    private final int width;
+    private final int[] iterations;
+    private final int[] pixels;
+    private final SettableListenableFuture<int[]> result;
+    private final AtomicInteger remainingTiles;
+    
+    private RenderJob(Viewport viewport, int maxIterations, 
+                      ProgressiveRenderer.PixelListener listener) {
+      this.viewport = viewport;
+      this.maxIterations = maxIterations;
+      this.listener = listener;
+      width = viewport.getWidth();
+      iterations = new int[width * viewport.getHeight()];
+      pixels = new int[iterations.length];
+      result = new SettableListenableFuture<int[]>(false);
+      remainingTiles = new AtomicInteger();
+    }
+    
+    private void start() {
+      int tilesAcross = (width + tileSize - 1) / tileSize;
+      int tilesDown = (viewport.getHeight() + tileSize - 1) / tileSize;
+      remainingTiles.set(tilesAcross * tilesDown);
+      for (int tileY = 0; tileY < tilesDown; tileY++) {
+        for (int tileX = 0; tileX < tilesAcross; tileX++) {
+          int left = tileX * tileSize;
+          int top = tileY * tileSize;
+          new Tile(left, top, Math.min(width, left + tileSize) - 1, 
+                   Math.min(viewport.getHeight(), top + tileSize) - 1).submit();
+        }
+      }
+    }
+    
+    private void computeRow(int y, int left, int right) {
+      int count = (right - left) + 1;
+      double[] reals = new double[count];
+      for (int i = 0; i < count; i++) {
+        reals[i] = viewport.real(left + i);
+      }
+      int[] rowIterations = new int[count];
+      algorithm.iterationsRow(reals, count, viewport.imaginary(y), 
+                              maxIterations, rowIterations, 0);
+      int index = (y * width) + left;
+      for (int i = 0; i < count; i++) {
+        iterations[index] = rowIterations[i];
+        pixels[index++] = MandelbrotFractal.color(rowIterations[i], maxIterations);
+      }
+      computedPixels.add(count);
+    }
+    
+    private void computeColumn(int x, int top, int bottom) {
+      double real = viewport.real(x);
+      for (int y = top; y <= bottom; y++) {
+        int index = (y * width) + x;
+        iterations[index] = algorithm.iterations(real, viewport.imaginary(y), maxIterations);
+        pixels[index] = MandelbrotFractal.color(iterations[index], maxIterations);
+      }
+      computedPixels.add((bottom - top) + 1);
+    }
+    
+    /**
+     * Checks the border of the rectangle, returning the shared iteration count, or {@code -1} if 
+     * the border is not uniform.
+     */
+    private int uniformBorder(int left, int top, int right, int bottom) {
+      int value = iterations[(top * width) + left];
+      int topIndex = top * width;
+      int bottomIndex = bottom * width;
+      for (int x = left; x <= right; x++) {
+        if (iterations[topIndex + x] != value || iterations[bottomIndex + x] != value) {
+          return -1;
+        }
+      }
+      for (int y = top + 1; y < bottom; y++) {
+        if (iterations[(y * width) + left] != value || iterations[(y * width) + right] != value) {
+          return -1;
+        }
+      }
+      return value;
+    }
+    
+    /**
+     * Renders the inside of a rectangle whose border has already been computed.  Sub-rectangles 
+     * which are large enough are submitted as new tasks, the rest are rendered before returning.
+     */
+    private void subdivide(Tile tile, int left, int top, int right, int bottom) {
+      if (right - left < 2 || bottom - top < 2 || result.isDone()) {
+        // no inside left to render, or the render was cancelled
+        return;
+      }
+      int value = uniformBorder(left, top, right, bottom);
+      if (value >= 0) {
+        int color = MandelbrotFractal.color(value, maxIterations);
+        for (int y = top + 1; y < bottom; y++) {
+          int start = (y * width) + left + 1;
+          int end = (y * width) + right;
+          for (int i = start; i < end; i++) {
+            iterations[i] = value;
+            pixels[i] = color;
+          }
+        }
+      } else if (right - left <= minSize || bottom - top <= minSize) {
+        for (int y = top + 1; y < bottom; y++) {
+          computeRow(y, left + 1, right - 1);
+        }
+      } else {
+        int middleX = (left + right) / 2;
+        int middleY = (top + bottom) / 2;
+        computeRow(middleY, left + 1, right - 1);
+        computeColumn(middleX, top + 1, middleY - 1);
+        computeColumn(middleX, middleY + 1, bottom - 1);
+        // each quarter only writes its own inside, so they can be rendered concurrently
+        split(tile, left, top, middleX, middleY);
+        split(tile, middleX, top, right, middleY);
+        split(tile, left, middleY, middleX, bottom);
+        split(tile, middleX, middleY, right, bottom);
+      }
+    }
+    
+    private void split(final Tile tile, final int left, final int top, 
+                       final int right, final int bottom) {
+      if ((right - left) * (bottom - top) < MIN_FORK_AREA) {
+        subdivide(tile, left, top, right, bottom);
+        return;
+      }
+      tile.pending.incrementAndGet();
+      scheduler.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            subdivide(tile, left, top, right, bottom);
+            tile.taskDone();
+          } catch (Throwable t) {
+            result.setFailure(t);
+          }
+        }
+      }, TaskPriority.High);
+    }
+    
+    /**
+     * A starting tile, which is complete once every task it has forked is done.
+     */
+    private class Tile implements Runnable {
+      private final int left;
+      private final int top;
+      private final int right;
+      private final int bottom;
+      private final AtomicInteger pending;
+      
+      private Tile(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        pending = new AtomicInteger(1);
+      }
+      
+      private void submit() {
+        scheduler.execute(this, TaskPriority.High);
+      }
+      
+      @Override
+      public void run() {
+        try {
+          if (! result.isDone()) {
+            computeRow(top, left, right);
+            if (bottom > top) {
+              computeRow(bottom, left, right);
+              computeColumn(left, top + 1, bottom - 1);
+              if (right > left) {
+                computeColumn(right, top + 1, bottom - 1);
+              }
+            }
+            subdivide(this, left, top, right, bottom);
+          }
+          taskDone();
+        } catch (Throwable t) {
+          result.setFailure(t);
+        }
+      }
+      
+      private void taskDone() {
+        if (pending.decrementAndGet() == 0 && ! result.isDone()) {
+          listener.pixelsUpdated(left, top, (right - left) + 1, (bottom - top) + 1);
+          if (remainingTiles.decrementAndGet() == 0) {
+            result.setResult(pixels);
+          }
+        }
+      }
+    }
+  }
+}
@@ -3,6 +3,7 @@ package org.threadly.examples.fractals;
 import java.awt.Canvas;
 import java.awt.Frame;
 import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Toolkit;
@@ -10,44 +11,155 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.DirectColorModel;
 import java.awt.image.MemoryImageSource;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
+
+import javax.management.JMException;
 
 import org.threadly.concurrent.PriorityScheduler;
 import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureCallback;
 import org.threadly.concurrent.future.ListenableFuture;
-import org.threadly.util.ExceptionUtils;
 
 @SuppressWarnings("javadoc")
 public class ThreadlyFractal {
-  protected static final int windowWidth = Toolkit.getDefaultToolkit().getScreenSize().width;
-  protected static final int windowHeight = Toolkit.getDefaultToolkit().getScreenSize().height;
+  // set from the screen size in main, so loading this class does not require a display
+  protected static int windowWidth;
+  protected static int windowHeight;
   private static final PriorityScheduler scheduler;
   
   static {
     int processors = Runtime.getRuntime().availableProcessors();
-    scheduler = new PriorityScheduler(processors * 2, TaskPriority.High, 500);
+    scheduler = new PriorityScheduler(processors, TaskPriority.High, 500);
   }
   
-  private static Map<Long, ListenableFuture<int[]>> futureMap = new HashMap<Long, ListenableFuture<int[]>>();
-  private static Image image;
-  private static long fractalWidth = windowWidth;
-  private static long fractalHeight = windowHeight;
-  private static long xOffset = 0;
-  private static long yOffset = 0;
+  private static TileCache tileCache;
+  private static ProgressiveRenderer renderer;
+  private static SubdivisionRenderer subdivisionRenderer;
+  private static FrameRenderer frameRenderer;
+  private static MemoryImageSource[] frameSources;
+  private static Image[] frameImages;
+  private static PerturbationRenderer deepRenderer;
+  private static FractalAlgorithm algorithm;
+  private static RenderMetrics metrics;
+  private static IterationLimit iterationLimit;
+  private static volatile DeepViewport viewport;
+  private static ListenableFuture<int[]> currentRender = null;
+  private static volatile Image image;
+  private static FractalCanvas canvas;
   
   public static void main(String[] args) {
+    long offHeapBudget = 0;
+    String strategy = "progressive";
+    int baseIterations = IterationLimit.DEFAULT_BASE_ITERATIONS;
+    boolean adaptive = false;
+    int metricsLogSeconds = 0;
+    algorithm = new MandelbrotAlgorithm();
+    int argIndex = 0;
+    try {
+      while (argIndex < args.length) {
+        if (args[argIndex].equals("-adaptive")) {
+          adaptive = true;
+          argIndex++;
+          continue;
+        } else if (argIndex + 1 == args.length) {
+          break;
+        } else if (args[argIndex].equals("-fractal")) {
+          algorithm = FractalAlgorithm.fromName(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-iterations")) {
+          baseIterations = Integer.parseInt(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-metrics")) {
+          metricsLogSeconds = Integer.parseInt(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-spill")) {
+          offHeapBudget = Long.parseLong(args[argIndex + 1]) * 1024 * 1024;
+        } else if (args[argIndex].equals("-strategy") && 
+                   (args[argIndex + 1].equals("progressive") || 
+                      args[argIndex + 1].equals("subdivide") || 
+                      args[argIndex + 1].equals("frame"))) {
+          strategy = args[argIndex + 1];
+        } else {
+          break;
+        }
+        argIndex += 2;
+      }
+    } catch (IllegalArgumentException e) {
+      argIndex = -1;
+    }
+    if (argIndex != args.length || baseIterations < 1 || metricsLogSeconds < 0) {
+      System.err.println("Usage: java -cp threadly_examples.jar " + 
+                           ThreadlyFractal.class.getName() + 
+                           " [-fractal name] [-iterations count] [-adaptive] [-spill megabytes] " + 
+                           "[-strategy progressive|subdivide|frame] [-metrics seconds]");
+      System.err.println("\t-fractal: mandelbrot (default), burningship, multibrot:power, " + 
+                           "or julia:real,imaginary");
+      System.err.println("\t-iterations: Maximum iterations per pixel, default " + 
+                           IterationLimit.DEFAULT_BASE_ITERATIONS);
+      System.err.println("\t-adaptive: Increase the iterations as the view is zoomed in");
+      System.err.println("\t-spill: Off heap memory to keep tiles in once evicted from the heap");
+      System.err.println("\t-strategy: progressive to render in passes with a tile cache " + 
+                           "(default), subdivide to skip areas with a uniform border, or frame " + 
+                           "to render whole frames into reused buffers");
+      System.err.println("\t-metrics: Log render metrics at this interval, also available over " + 
+                           "JMX as " + RenderMetrics.OBJECT_NAME);
+      System.exit(1);
+    }
+    if (GraphicsEnvironment.isHeadless()) {
+      System.err.println("No display available, use " + HeadlessFractal.class.getName() + 
+                           " to render to a file instead");
+      System.exit(1);
+    }
+    windowWidth = Toolkit.getDefaultToolkit().getScreenSize().width;
+    windowHeight = Toolkit.getDefaultToolkit().getScreenSize().height;
+    tileCache = new TileCache(TileRenderer.DEFAULT_TILE_SIZE, 
+                              Runtime.getRuntime().maxMemory() / 4, offHeapBudget);
+    iterationLimit = new IterationLimit(baseIterations, adaptive);
+    metrics = new RenderMetrics(scheduler);
+    try {
+      metrics.registerMBean();
+    } catch (JMException e) {
+      System.err.println("Unable to register metrics with JMX: " + e);
+    }
+    metrics.startSampling(metricsLogSeconds > 0 ? metricsLogSeconds * 1000L : 1000, 
+                          metricsLogSeconds > 0);
+    // renderers compute through the instrumented algorithm, algorithm is still checked for
+    // perturbation support
+    FractalAlgorithm renderAlgorithm = new InstrumentedAlgorithm(algorithm, metrics);
+    renderer = new ProgressiveRenderer(scheduler, tileCache, 
+                                       ProgressiveRenderer.DEFAULT_PREVIEW_STEP, renderAlgorithm);
+    if (strategy.equals("subdivide")) {
+      subdivisionRenderer = new SubdivisionRenderer(scheduler, TileRenderer.DEFAULT_TILE_SIZE, 
+                                                    SubdivisionRenderer.DEFAULT_MIN_SIZE, 
+                                                    renderAlgorithm);
+    } else if (strategy.equals("frame")) {
+      // row cost estimates are not rendered, so are not recorded
+      frameRenderer = new FrameRenderer(scheduler, windowWidth, windowHeight, 
+                                        renderAlgorithm, algorithm);
+      // an image is made once for each buffer, and refreshed when a frame completes into it
+      int[][] buffers = frameRenderer.getBuffers();
+      frameSources = new MemoryImageSource[buffers.length];
+      frameImages = new Image[buffers.length];
+      for (int i = 0; i < buffers.length; i++) {
+        frameSources[i] = 
+            new MemoryImageSource(windowWidth, windowHeight, 
+                                  new DirectColorModel(24, 0xFF0000, 0x00FF00, 0x0000FF), 
+                                  buffers[i], 0, windowWidth);
+        frameSources[i].setAnimated(true);
+        frameImages[i] = Toolkit.getDefaultToolkit().createImage(frameSources[i]);
+      }
+    }
+    deepRenderer = new PerturbationRenderer(scheduler, TileRenderer.DEFAULT_TILE_SIZE);
+    
     displayFractal();
   }
   
+  private static DeepViewport defaultViewport() {
+    return DeepViewport.makeDefault(windowWidth, windowHeight, algorithm);
+  }
+  
   private static void displayFractal() {
-    updateImage();
-
     Frame frame = new Frame("Fractal");
-    frame.add(new FractalCanvas(frame));
+    canvas = new FractalCanvas();
+    frame.add(canvas);
     frame.addWindowListener(new WindowAdapter() {
       @Override
       public void windowClosing(WindowEvent e) {
@@ -56,82 +168,100 @@ public class ThreadlyFractal {
     });
     frame.setSize(windowWidth, windowHeight);
     
+    updateImage(defaultViewport());
+    
     frame.setVisible(true);
   }
   
-  protected static void submitCallables(final int width, final int height) {
-    for (long y = yOffset; y < height + yOffset; y++) {
-      final long f_y = y;
-      futureMap.put(y, scheduler.submit(new Callable<int[]>() {
+  /**
+   * Starts rendering a new view, cancelling any work still in progress for the previous view. 
+   * The canvas is repainted as each pass of each tile completes.  Once the view is zoomed past 
+   * what {@code double} coordinates can show the Mandelbrot set is rendered with perturbation 
+   * instead.
+   */
+  private static synchronized void updateImage(DeepViewport newViewport) {
+    if (currentRender != null) {
+      currentRender.cancel(true);
+    }
+    viewport = newViewport;
+    int maxIterations = 
+        iterationLimit.forView(algorithm, viewport.getPixelSize() * viewport.getWidth());
+    System.out.println("Generating image..." + viewport + " with " + maxIterations + 
+                         " iterations");
+    
+    metrics.frameStarted();
+    ProgressiveRenderer.PixelListener listener = new ProgressiveRenderer.PixelListener() {
+      private MemoryImageSource source;
+      
+      @Override
+      public void renderStarted(int[] pixels) {
+        // updates from a cancelled render only reach its own source, which is no longer shown
+        source = new MemoryImageSource(windowWidth, windowHeight, 
+                                       new DirectColorModel(24, 0xFF0000, 0x00FF00, 0x0000FF), 
+                                       pixels, 0, windowWidth);
+        source.setAnimated(true);
+        image = Toolkit.getDefaultToolkit().createImage(source);
+        canvas.repaint();
+      }
+      
+      @Override
+      public void pixelsUpdated(int x, int y, int width, int height) {
+        if (metrics.firstPixels()) {
+          System.out.println("First pixels after " + metrics.getTimeToFirstPixelMillis() + "ms");
+        }
+        source.newPixels(x, y, width, height);
+        canvas.repaint(x, y, width, height);
+      }
+    };
+    final ListenableFuture<int[]> render;
+    if (viewport.needsPerturbation() && algorithm instanceof MandelbrotAlgorithm) {
+      render = deepRenderer.render(viewport, maxIterations, listener);
+    } else if (frameRenderer != null) {
+      render = frameRenderer.render(viewport.toViewport(), maxIterations);
+      render.callback(new FutureCallback<int[]>() {
+        @Override
+        public void handleResult(int[] frame) {
+          int index = frame == frameRenderer.getBuffers()[0] ? 0 : 1;
+          frameSources[index].newPixels();
+          image = frameImages[index];
+          canvas.repaint();
+        }
+        
         @Override
-        public int[] call() {
-          int[] result = new int[width];
-          int index = 0;
-          for (long x = xOffset; x < width + xOffset; x++) {
-            result[index] = MandelbrotFractal.calculatePixel(x, f_y, fractalWidth, fractalHeight, 
-                                                             0xFF000000);
-            // create a little background
-            double a = Math.sqrt(x * (width / (double)fractalWidth));
-            double b = Math.sqrt(f_y * (height / (double)fractalHeight));
-            result[index++] += (int) Math.sqrt(a + b);
-          }
-          int percentDone = (int)((((double)f_y - yOffset) / height) * 100);
-          // little extra check to avoid reporting multiple times due to int precision
-          if (percentDone != (int)((((double)f_y + 1 - yOffset) / height) * 100)) {
-            if (percentDone % 10 == 0) {
-              System.out.println(percentDone + "% done");
-            }
-          }
-          
-          return result;
+        public void handleFailure(Throwable t) {
+          // reported below
         }
-      }));
+      });
+    } else if (subdivisionRenderer != null) {
+      render = subdivisionRenderer.render(viewport.toViewport(), maxIterations, listener);
+    } else {
+      render = renderer.render(viewport.toViewport(), maxIterations, listener);
     }
-  }
-  
-  protected static int[] composeResults(int width, int height) {
-    int[] imageData = new int[width * height];
-    for (long y = yOffset; y < height + yOffset; y++) {
-      int indexStart = (int)(width * (y - yOffset));
-      int[] result;
-      try {
-        result = futureMap.get(y).get();
-      } catch (ExecutionException e) {
-        throw ExceptionUtils.makeRuntime(e);
-      } catch (InterruptedException e) {
-        throw ExceptionUtils.makeRuntime(e);
+    currentRender = render;
+    render.callback(new FutureCallback<int[]>() {
+      @Override
+      public void handleResult(int[] result) {
+        metrics.frameComplete();
+        System.out.println("Done generating fractal in " + metrics.getTimeToFullFrameMillis() + 
+                             "ms, tile cache: " + tileCache);
       }
-      System.arraycopy(result, 0, imageData, indexStart, result.length);
-    }
-    
-    return imageData;
-  }
-  
-  protected static int[] generateImageData(int width, int height) {
-    submitCallables(width, height);
-    
-    return composeResults(width, height);
-  }
-  
-  private static void updateImage() {
-    System.out.println("Generating image...Size: " + fractalWidth + "x" + fractalHeight + 
-                         ", Position: " + yOffset + "x" + xOffset);
-    int[] imageData = generateImageData(windowWidth, windowHeight);
-    System.out.println("Done generating fractal");
-    
-    image = Toolkit.getDefaultToolkit().createImage(new MemoryImageSource(windowWidth, windowHeight, 
-                                                                          imageData, 0, windowWidth));
+      
+      @Override
+      public void handleFailure(Throwable t) {
+        if (! render.isCancelled()) {
+          t.printStackTrace();
+        }
+      }
+    });
   }
 
   private static class FractalCanvas extends Canvas 
                                      implements MouseListener {
     private static final long serialVersionUID = -2909907873906146984L;
 
-    private final Frame frame;
     private Point pressedPoint;
     
-    private FractalCanvas(Frame frame) {
-      this.frame = frame;
+    private FractalCanvas() {
       pressedPoint = null;
       
       addMouseListener(this);
@@ -140,65 +270,40 @@ public class ThreadlyFractal {
     @Override
     public void mouseClicked(MouseEvent e) {
       if (e.getButton() == 3) { // reset image
-        frame.setVisible(false);
-        
-        fractalWidth = windowWidth;
-        fractalHeight = windowHeight;
-        xOffset = 0;
-        yOffset = 0;
-
-        displayFractal();
+        updateImage(defaultViewport());
       }
     }
 
     @Override
     public void mousePressed(MouseEvent e) {
-      if (e.getButton() == 1) {
+      if (e.getButton() == 1 || e.getButton() == 2) {
         pressedPoint = e.getPoint();
       }
     }
 
     @Override
     public void mouseReleased(MouseEvent e) {
-      if (e.getButton() == 1) {
-        frame.setVisible(false);
-        
-        final int startPointX = pressedPoint.x;
-        final int startPointY = pressedPoint.y;
-        final int endPointX = e.getPoint().x;
-        final int endPointY = e.getPoint().y;
+      if (e.getButton() == 2 && pressedPoint != null) {
+        // pan so the pressed point is under the cursor
+        int xDistance = e.getPoint().x - pressedPoint.x;
+        int yDistance = e.getPoint().y - pressedPoint.y;
+        pressedPoint = null;
+        if (xDistance != 0 || yDistance != 0) {
+          updateImage(viewport.pan(-xDistance, -yDistance));
+        }
+      } else if (e.getButton() == 1 && pressedPoint != null) {
+        int startPointX = Math.min(pressedPoint.x, e.getPoint().x);
+        int startPointY = Math.min(pressedPoint.y, e.getPoint().y);
+        int xDistance = Math.abs(e.getPoint().x - pressedPoint.x);
+        int yDistance = Math.abs(e.getPoint().y - pressedPoint.y);
+        pressedPoint = null;
+        if (xDistance == 0 || yDistance == 0) {
+          System.out.println("Section too small, ignoring zoom");
+          return;
+        }
         
-        scheduler.execute(new Runnable() {
-          @Override
-          public void run() {
-            // calculate selected distances based off total image size
-            long xDistance = Math.abs(endPointX - startPointX) * (fractalWidth / windowWidth);
-            long yDistance = Math.abs(endPointY - startPointY) * (fractalHeight / windowHeight);
-            if (xDistance == 0 || yDistance == 0) {
-              System.out.println("Section too small, ignoring zoom");
-              displayFractal();
-              return;
-            }
-            
-            // figure out how to scale all our values
-            double aspect = ((double)windowWidth) / windowHeight;
-            double selectedAspect = ((double) xDistance) / yDistance;
-            double scaleFactor;
-            if (selectedAspect > aspect) {  // depend on x
-              scaleFactor = ((double)fractalWidth) / xDistance;
-            } else {  // depend on y
-              scaleFactor = ((double)fractalHeight) / yDistance;
-            }
-            
-            // update values based off scale factory
-            fractalWidth = (long)(fractalWidth * scaleFactor);
-            fractalHeight = (long)(fractalHeight * scaleFactor);
-            xOffset = (long)((xOffset + (startPointX < endPointX ? startPointX : endPointX)) * scaleFactor);
-            yOffset = (long)((yOffset + (startPointY < endPointY ? startPointY : endPointY)) * scaleFactor);
-            
-            displayFractal();
-          }
-        });
+        // scale so the whole selection fits, keeping the window's aspect ratio
+        updateImage(viewport.zoom(startPointX, startPointY, xDistance, yDistance));
       }
     }
 
@@ -212,9 +317,15 @@ public class ThreadlyFractal {
       // ignored
     }
     
+    @Override
+    public void update(Graphics g) {
+      // image is always fully drawn, so avoid clearing first which causes flicker
+      paint(g);
+    }
+    
     @Override
     public void paint(Graphics g) {
       g.drawImage(image, 0, 0, null);
     }
   }
-}
\ No newline at end of file
+}
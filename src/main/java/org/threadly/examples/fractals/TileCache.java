@@ -0,0 +1,242 @@
+package org.threadly.examples.fractals;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Bounded, concurrent, least recently used cache of fully rendered tiles.  Tiles are keyed by 
+ * their position on a grid which is fixed for a given pixel size, so tiles rendered for one view 
+ * can be reused by any other view at the same zoom which overlaps it.</p>
+ * 
+ * <p>Tiles are held on heap up to the heap budget.  When an off heap budget is provided, tiles 
+ * evicted from the heap are copied into direct {@link ByteBuffer}s instead of being dropped, and 
+ * are copied back on to the heap when next requested.  Direct buffers are reused once their 
+ * tile is evicted, since allocating them is expensive.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class TileCache {
+  private final int tileSize;
+  private final int tileBytes;
+  private final int maxHeapTiles;
+  private final int maxOffHeapTiles;
+  // access ordered, so iteration starts at the least recently used tile
+  private final LinkedHashMap<TileKey, int[]> heapTiles;
+  private final LinkedHashMap<TileKey, ByteBuffer> offHeapTiles;
+  private final ArrayDeque<ByteBuffer> freeBuffers;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder offHeapHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  
+  /**
+   * Constructs a new cache.
+   * 
+   * @param tileSize Width and height of the tiles to be cached
+   * @param heapBudget Maximum bytes of tile data to hold on heap
+   * @param offHeapBudget Maximum bytes of tile data to hold off heap, {@code 0} to disable
+   */
+  public TileCache(int tileSize, long heapBudget, long offHeapBudget) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+    }
+    this.tileSize = tileSize;
+    tileBytes = tileSize * tileSize * Integer.BYTES;
+    maxHeapTiles = (int)Math.min(Integer.MAX_VALUE, Math.max(1, heapBudget / tileBytes));
+    maxOffHeapTiles = (int)Math.min(Integer.MAX_VALUE, Math.max(0, offHeapBudget / tileBytes));
+    heapTiles = new LinkedHashMap<TileKey, int[]>(16, .75f, true);
+    offHeapTiles = new LinkedHashMap<TileKey, ByteBuffer>(16, .75f, true);
+    freeBuffers = new ArrayDeque<ByteBuffer>();
+  }
+  
+  /**
+   * Returns the width and height of tiles held in this cache.
+   * 
+   * @return Tile size in pixels
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+  
+  /**
+   * Returns the cached pixels for a tile, or {@code null} if it is not cached.  The returned 
+   * array must not be modified.
+   * 
+   * @param key Key for the tile
+   * @return Row major RGB values of {@code tileSize x tileSize}, or {@code null}
+   */
+  public int[] get(TileKey key) {
+    int[] result;
+    synchronized (this) {
+      result = heapTiles.get(key);
+      if (result == null) {
+        ByteBuffer buffer = offHeapTiles.remove(key);
+        if (buffer != null) {
+          result = new int[tileSize * tileSize];
+          buffer.asIntBuffer().get(result);
+          freeBuffers.add(buffer);
+          storeOnHeap(key, result);
+          offHeapHits.increment();
+        }
+      }
+    }
+    if (result == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return result;
+  }
+  
+  /**
+   * Adds a tile to the cache.  The array must not be modified after it is provided.
+   * 
+   * @param key Key for the tile
+   * @param pixels Row major RGB values of {@code tileSize x tileSize}
+   */
+  public synchronized void put(TileKey key, int[] pixels) {
+    if (pixels.length != tileSize * tileSize) {
+      throw new IllegalArgumentException("Tile has " + pixels.length + " pixels");
+    }
+    ByteBuffer previous = offHeapTiles.remove(key);
+    if (previous != null) {
+      freeBuffers.add(previous);
+    }
+    storeOnHeap(key, pixels);
+  }
+  
+  // must hold lock
+  private void storeOnHeap(TileKey key, int[] pixels) {
+    heapTiles.put(key, pixels);
+    if (heapTiles.size() <= maxHeapTiles) {
+      return;
+    }
+    Iterator<Map.Entry<TileKey, int[]>> it = heapTiles.entrySet().iterator();
+    Map.Entry<TileKey, int[]> eldest = it.next();
+    it.remove();
+    if (maxOffHeapTiles == 0) {
+      evictions.increment();
+      return;
+    }
+    
+    ByteBuffer buffer;
+    if (offHeapTiles.size() >= maxOffHeapTiles) {
+      Iterator<ByteBuffer> offHeapIt = offHeapTiles.values().iterator();
+      buffer = offHeapIt.next();
+      offHeapIt.remove();
+      evictions.increment();
+    } else {
+      buffer = freeBuffers.poll();
+      if (buffer == null) {
+        buffer = ByteBuffer.allocateDirect(tileBytes);
+      }
+    }
+    IntBuffer ints = buffer.asIntBuffer();
+    ints.put(eldest.getValue());
+    offHeapTiles.put(eldest.getKey(), buffer);
+  }
+  
+  /**
+   * Returns how many lookups found a cached tile, including those found off heap.
+   * 
+   * @return Hit count
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+  
+  /**
+   * Returns how many lookups found the tile off heap.
+   * 
+   * @return Count of hits which were copied back on to the heap
+   */
+  public long getOffHeapHitCount() {
+    return offHeapHits.sum();
+  }
+  
+  /**
+   * Returns how many lookups did not find a cached tile.
+   * 
+   * @return Miss count
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+  
+  /**
+   * Returns how many tiles have been dropped from the cache to stay within the budgets.
+   * 
+   * @return Eviction count
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+  
+  @Override
+  public synchronized String toString() {
+    return "heapTiles=" + heapTiles.size() + ", offHeapTiles=" + offHeapTiles.size() + 
+             ", hits=" + getHitCount() + ", offHeapHits=" + getOffHeapHitCount() + 
+             ", misses=" + getMissCount() + ", evictions=" + getEvictionCount();
+  }
+  
+  /**
+   * <p>Identifies a tile.  The pixel size identifies the zoom level, and the tile position is 
+   * measured in tiles from the origin of the complex plane, so tiles line up between any views 
+   * at the same zoom.</p>
+   * 
+   * @author jent - Mike Jensen
+   */
+  public static class TileKey {
+    private final double pixelSize;
+    private final long tileX;
+    private final long tileY;
+    private final int maxIterations;
+    
+    /**
+     * Constructs a new key.
+     * 
+     * @param pixelSize Distance on the complex plane between neighboring pixels
+     * @param tileX Tile column, where column {@code 0} starts at real component {@code 0}
+     * @param tileY Tile row, where row {@code 0} starts at imaginary component {@code 0}
+     * @param maxIterations Maximum iterations the tile was rendered with
+     */
+    public TileKey(double pixelSize, long tileX, long tileY, int maxIterations) {
+      this.pixelSize = pixelSize;
+      this.tileX = tileX;
+      this.tileY = tileY;
+      this.maxIterations = maxIterations;
+    }
+    
+    @Override
+    public int hashCode() {
+      long hash = Double.doubleToLongBits(pixelSize);
+      hash = (hash * 31) + tileX;
+      hash = (hash * 31) + tileY;
+      hash = (hash * 31) + maxIterations;
+      return (int)(hash ^ (hash >>> 32));
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      } else if (o instanceof TileKey) {
+        TileKey k = (TileKey)o;
+        return k.tileX == tileX && k.tileY == tileY && k.maxIterations == maxIterations && 
+                 Double.doubleToLongBits(k.pixelSize) == Double.doubleToLongBits(pixelSize);
+      } else {
+        return false;
+      }
+    }
+    
+    @Override
+    public String toString() {
+      return "(" + pixelSize + ", " + tileX + ", " + tileY + ", " + maxIterations + ")";
+    }
+  }
+}
@@ -0,0 +1,430 @@
+package org.threadly.examples.fractals;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.threadly.util.Clock;
+
+/**
+ * <p>Renders a {@link Viewport} by dispatching tiles to {@link TileWorker}s in other processes, 
+ * and writes the result as a PNG.  Everything runs on the calling thread with a single 
+ * {@link Selector}, which accepts workers, sends them tiles and reads back their results. 
+ * Workers may connect or disconnect at any point while rendering.</p>
+ * 
+ * <p>Each worker is kept at twice as many tiles as it has threads, and is sent another tile as 
+ * each result comes back, so faster workers naturally take more of the image.  Tiles are sent 
+ * in row order, and like {@link TileRenderer} each completed row of tiles is written out and 
+ * released.  Once a worker has idle threads and there are no tiles it can be sent, either 
+ * because every tile is dispatched or because later rows would need to be buffered, it steals 
+ * the oldest tile another worker is still computing.  The first result for a tile is used, so a 
+ * slow worker can not hold up the image.  If a worker disconnects, any tiles only it was 
+ * computing are sent to the remaining workers.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class TileCoordinator {
+  private static final int SELECT_TIMEOUT_MILLIS = 1000;
+  private static final int NO_WORKER_TIMEOUT_MILLIS = 60 * 1000;
+  private static final int[] WRITTEN = new int[0];
+  
+  private final ServerSocketChannel server;
+  private final int tileSize;
+  private final FractalAlgorithm algorithm;
+  private final List<WorkerConnection> workers;
+  private long dispatchedCount;
+  private long stolenCount;
+  private long redispatchedCount;
+  private long duplicateCount;
+  private long resultBytes;
+  
+  /**
+   * Constructs a new coordinator.  Workers connect to the provided server channel, which must 
+   * already be bound.
+   * 
+   * @param server Channel to accept workers from
+   * @param tileSize Width and height of each tile in pixels
+   * @param algorithm Fractal to render
+   */
+  public TileCoordinator(ServerSocketChannel server, int tileSize, FractalAlgorithm algorithm) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+    }
+    this.server = server;
+    this.tileSize = tileSize;
+    this.algorithm = algorithm;
+    this.workers = new ArrayList<WorkerConnection>();
+  }
+  
+  /**
+   * Returns the amount of tiles sent to workers, including those sent more than once.
+   * 
+   * @return Count of tiles dispatched
+   */
+  public long getDispatchedCount() {
+    return dispatchedCount;
+  }
+  
+  /**
+   * Returns the amount of tiles sent to a worker while another was still computing them.
+   * 
+   * @return Count of tiles stolen
+   */
+  public long getStolenCount() {
+    return stolenCount;
+  }
+  
+  /**
+   * Returns the amount of tiles which had to be dispatched again after a worker disconnected.
+   * 
+   * @return Count of tiles re-dispatched
+   */
+  public long getRedispatchedCount() {
+    return redispatchedCount;
+  }
+  
+  /**
+   * Returns the amount of results ignored because another worker finished the tile first.
+   * 
+   * @return Count of duplicate results
+   */
+  public long getDuplicateCount() {
+    return duplicateCount;
+  }
+  
+  /**
+   * Returns the total size of the encoded results received.
+   * 
+   * @return Bytes of results received
+   */
+  public long getResultBytes() {
+    return resultBytes;
+  }
+  
+  /**
+   * Renders the viewport and writes it as a PNG, blocking until complete.  Worker connections 
+   * are closed once the image is written, as is the stream.
+   * 
+   * @param viewport Viewport to render
+   * @param maxIterations Maximum iterations per pixel
+   * @param out Stream to write the PNG to
+   * @throws IOException Thrown if the image could not be written, or no workers were connected
+   */
+  public void writePng(Viewport viewport, int maxIterations, OutputStream out) throws IOException {
+    try (Selector selector = Selector.open(); 
+         PngStreamWriter png = new PngStreamWriter(out, viewport.getWidth(), 
+                                                   viewport.getHeight(), Deflater.BEST_SPEED)) {
+      new Render(selector, png, viewport, maxIterations).run();
+    } finally {
+      for (WorkerConnection worker : workers) {
+        worker.channel.close();
+      }
+      workers.clear();
+    }
+  }
+  
+  /**
+   * State for a single call to {@link #writePng(Viewport, int, OutputStream)}.
+   */
+  private class Render {
+    private final Selector selector;
+    private final PngStreamWriter png;
+    private final ByteBuffer config;
+    private final int tilesAcross;
+    private final int tilesDown;
+    private final Tile[] tiles;
+    private final int[] completedInRow;
+    private final ArrayDeque<Tile> pending;
+    private final int[] row;
+    private final int maxIterations;
+    private int nextWriteRow;
+    private long noWorkersSince;
+    
+    private Render(Selector selector, PngStreamWriter png, Viewport viewport, int maxIterations) {
+      this.selector = selector;
+      this.png = png;
+      this.maxIterations = maxIterations;
+      config = TileProtocol.config(viewport, maxIterations, algorithm);
+      tilesAcross = (viewport.getWidth() + tileSize - 1) / tileSize;
+      tilesDown = (viewport.getHeight() + tileSize - 1) / tileSize;
+      tiles = new Tile[tilesAcross * tilesDown];
+      completedInRow = new int[tilesDown];
+      pending = new ArrayDeque<Tile>(tiles.length);
+      for (int i = 0; i < tiles.length; i++) {
+        int tileX = i % tilesAcross;
+        int tileY = i / tilesAcross;
+        tiles[i] = new Tile(i, tileX * tileSize, tileY, 
+                            Math.min(tileSize, viewport.getWidth() - (tileX * tileSize)), 
+                            Math.min(tileSize, viewport.getHeight() - (tileY * tileSize)));
+        pending.add(tiles[i]);
+      }
+      row = new int[viewport.getWidth()];
+      nextWriteRow = 0;
+      noWorkersSince = Clock.accurateForwardProgressingMillis();
+    }
+    
+    private void run() throws IOException {
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+      while (nextWriteRow < tilesDown) {
+        if (workers.isEmpty() && 
+            Clock.accurateForwardProgressingMillis() - noWorkersSince > NO_WORKER_TIMEOUT_MILLIS) {
+          throw new IOException("No workers connected for " + NO_WORKER_TIMEOUT_MILLIS + "ms");
+        }
+        selector.select(SELECT_TIMEOUT_MILLIS);
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          WorkerConnection worker = (WorkerConnection)key.attachment();
+          try {
+            if (key.isReadable()) {
+              read(worker);
+            }
+            if (key.isValid() && key.isWritable()) {
+              flush(worker);
+            }
+          } catch (IOException e) {
+            // only a failure of this worker's connection or protocol
+            disconnect(worker);
+          }
+        }
+        // outside of the worker handling, so a failure writing the image stops the render
+        writeCompletedRows();
+      }
+    }
+    
+    private void accept() throws IOException {
+      SocketChannel channel = server.accept();
+      if (channel == null) {
+        return;
+      }
+      channel.configureBlocking(false);
+      WorkerConnection worker = 
+          new WorkerConnection(channel, channel.register(selector, SelectionKey.OP_READ));
+      worker.key.attach(worker);
+      workers.add(worker);
+      send(worker, config.duplicate());
+    }
+    
+    private void disconnect(WorkerConnection worker) throws IOException {
+      worker.channel.close();
+      workers.remove(worker);
+      if (workers.isEmpty()) {
+        noWorkersSince = Clock.accurateForwardProgressingMillis();
+      }
+      // re-queue at the front, since these are the oldest tiles and are holding up writing
+      List<Tile> inFlight = new ArrayList<Tile>(worker.inFlight);
+      for (int i = inFlight.size() - 1; i >= 0; i--) {
+        Tile tile = inFlight.get(i);
+        tile.assigned--;
+        if (tile.iterations == null && tile.assigned == 0) {
+          pending.addFirst(tile);
+          redispatchedCount++;
+        }
+      }
+      for (WorkerConnection w : new ArrayList<WorkerConnection>(workers)) {
+        dispatch(w);
+      }
+    }
+    
+    private void read(WorkerConnection worker) throws IOException {
+      if (worker.channel.read(worker.readBuffer) < 0) {
+        throw new EOFException();
+      }
+      worker.readBuffer.flip();
+      while (worker.readBuffer.remaining() >= 4) {
+        int length = worker.readBuffer.getInt(worker.readBuffer.position());
+        if (length < 1 || length > TileProtocol.MAX_FRAME_SIZE) {
+          throw new IOException("Invalid frame length: " + length);
+        } else if (worker.readBuffer.remaining() < 4 + length) {
+          if (worker.readBuffer.capacity() < 4 + length) {
+            ByteBuffer grown = ByteBuffer.allocate(4 + length);
+            grown.put(worker.readBuffer);
+            grown.flip();
+            worker.readBuffer = grown;
+          }
+          break;
+        }
+        ByteBuffer body = worker.readBuffer.slice();
+        body.position(4).limit(4 + length);
+        worker.readBuffer.position(worker.readBuffer.position() + 4 + length);
+        handleFrame(worker, body);
+      }
+      worker.readBuffer.compact();
+    }
+    
+    private void handleFrame(WorkerConnection worker, ByteBuffer body) throws IOException {
+      byte type = body.get();
+      if (type == TileProtocol.HELLO) {
+        worker.threads = Math.max(1, body.getInt());
+      } else if (type == TileProtocol.RESULT) {
+        resultBytes += body.limit();
+        int tileId = body.getInt();
+        if (tileId < 0 || tileId >= tiles.length || ! worker.inFlight.remove(tiles[tileId])) {
+          throw new IOException("Unexpected tile: " + tileId);
+        }
+        Tile tile = tiles[tileId];
+        tile.assigned--;
+        if (tile.iterations == null) {
+          int[] iterations = new int[tile.width * tile.height];
+          TileProtocol.readIterations(body, iterations);
+          tile.iterations = iterations;
+          completedInRow[tile.tileY]++;
+        } else {
+          duplicateCount++;
+        }
+      } else {
+        throw new IOException("Unexpected message type: " + type);
+      }
+      dispatch(worker);
+    }
+    
+    private void writeCompletedRows() throws IOException {
+      while (nextWriteRow < tilesDown && completedInRow[nextWriteRow] == tilesAcross) {
+        int firstTile = nextWriteRow * tilesAcross;
+        int height = tiles[firstTile].height;
+        for (int y = 0; y < height; y++) {
+          for (int i = firstTile; i < firstTile + tilesAcross; i++) {
+            Tile tile = tiles[i];
+            int offset = y * tile.width;
+            for (int x = 0; x < tile.width; x++) {
+              row[tile.x + x] = MandelbrotFractal.color(tile.iterations[offset + x], maxIterations);
+            }
+          }
+          png.writeRow(row, 0);
+        }
+        for (int i = firstTile; i < firstTile + tilesAcross; i++) {
+          tiles[i].iterations = WRITTEN;
+        }
+        nextWriteRow++;
+      }
+    }
+    
+    private void dispatch(WorkerConnection worker) {
+      while (worker.threads > 0 && worker.inFlight.size() < worker.threads * 2) {
+        Tile tile = nextTile(worker);
+        if (tile == null) {
+          return;
+        }
+        tile.assigned++;
+        tile.dispatchTime = Clock.lastKnownForwardProgressingMillis();
+        worker.inFlight.add(tile);
+        dispatchedCount++;
+        send(worker, TileProtocol.tile(tile.id, tile.x, tile.tileY * tileSize, 
+                                       tile.width, tile.height));
+      }
+    }
+    
+    private Tile nextTile(WorkerConnection worker) {
+      // enough rows that workers stay busy while the oldest row completes
+      int totalThreads = 0;
+      for (WorkerConnection w : workers) {
+        totalThreads += w.threads;
+      }
+      int bufferedRows = Math.max(3, 2 + ((totalThreads * 2) + tilesAcross - 1) / tilesAcross);
+      while (! pending.isEmpty() && pending.peek().iterations != null) {
+        pending.remove();
+      }
+      if (! pending.isEmpty() && pending.peek().tileY < nextWriteRow + bufferedRows) {
+        return pending.remove();
+      } else if (worker.inFlight.size() >= worker.threads) {
+        return null;
+      }
+      Tile oldest = null;
+      for (WorkerConnection w : workers) {
+        if (w == worker) {
+          continue;
+        }
+        for (Tile tile : w.inFlight) {
+          // a tile returned by a thief is still in flight for its original worker
+          if (tile.iterations == null && tile.assigned == 1 && 
+              (oldest == null || tile.dispatchTime < oldest.dispatchTime)) {
+            oldest = tile;
+          }
+        }
+      }
+      if (oldest != null) {
+        stolenCount++;
+      }
+      return oldest;
+    }
+    
+    private void send(WorkerConnection worker, ByteBuffer frame) {
+      // written once the selector reports it writable, so failures are handled in one place
+      worker.writes.add(frame);
+      worker.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+    
+    private void flush(WorkerConnection worker) throws IOException {
+      while (! worker.writes.isEmpty()) {
+        ByteBuffer frame = worker.writes.peek();
+        worker.channel.write(frame);
+        if (frame.hasRemaining()) {
+          worker.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        }
+        worker.writes.remove();
+      }
+      worker.key.interestOps(SelectionKey.OP_READ);
+    }
+  }
+  
+  /**
+   * A tile of the image, tracked until its row has been written.
+   */
+  private static class Tile {
+    private final int id;
+    private final int x;
+    private final int tileY;
+    private final int width;
+    private final int height;
+    private int[] iterations = null;
+    private int assigned = 0;
+    private long dispatchTime = 0;
+    
+    private Tile(int id, int x, int tileY, int width, int height) {
+      this.id = id;
+      this.x = x;
+      this.tileY = tileY;
+      this.width = width;
+      this.height = height;
+    }
+  }
+  
+  /**
+   * A connected worker, and the tiles it has been sent but not returned.
+   */
+  private static class WorkerConnection {
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ArrayDeque<ByteBuffer> writes;
+    private final LinkedHashSet<Tile> inFlight;
+    private ByteBuffer readBuffer;
+    private int threads;
+    
+    private WorkerConnection(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+      writes = new ArrayDeque<ByteBuffer>();
+      inFlight = new LinkedHashSet<Tile>();
+      readBuffer = ByteBuffer.allocate(64 * 1024);
+      threads = 0;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package org.threadly.examples.fractals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>Binary messages exchanged between a {@link TileCoordinator} and its {@link TileWorker}s. 
+ * Every message is framed as an {@code int} length, followed by a {@code byte} type and the 
+ * message body.</p>
+ * 
+ * <p>Tile results are sent as iteration counts rather than colors, encoded as runs of equal 
+ * values.  Each run is a varint length, followed by the zigzag varint difference from the 
+ * previous run's value.  Interior areas and escape bands collapse to a few bytes, and the small 
+ * differences between neighboring pixels keep the remaining values to one or two bytes.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+class TileProtocol {
+  /**
+   * Worker to coordinator, with the {@code int} amount of tiles it can compute at once.
+   */
+  static final byte HELLO = 1;
+  /**
+   * Coordinator to worker, with the viewport, max iterations and algorithm name to render.
+   */
+  static final byte CONFIG = 2;
+  /**
+   * Coordinator to worker, with an {@code int} tile id, and the tile's x, y, width and height.
+   */
+  static final byte TILE = 3;
+  /**
+   * Worker to coordinator, with the {@code int} tile id and its encoded iteration counts.
+   */
+  static final byte RESULT = 4;
+  /**
+   * Largest frame accepted, well above an encoded tile but small enough to catch corruption.
+   */
+  static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+  
+  private static ByteBuffer startFrame(int size, byte type) {
+    ByteBuffer result = ByteBuffer.allocate(4 + 1 + size);
+    result.putInt(1 + size).put(type);
+    return result;
+  }
+  
+  private static ByteBuffer finishFrame(ByteBuffer frame) {
+    frame.putInt(0, frame.position() - 4);
+    frame.flip();
+    return frame;
+  }
+  
+  /**
+   * Constructs a {@link #HELLO} frame.
+   * 
+   * @param threads Amount of tiles the worker can compute in parallel
+   * @return Frame ready to be written
+   */
+  static ByteBuffer hello(int threads) {
+    ByteBuffer frame = startFrame(4, HELLO);
+    frame.putInt(threads);
+    return finishFrame(frame);
+  }
+  
+  /**
+   * Constructs a {@link #CONFIG} frame.
+   * 
+   * @param viewport Viewport tiles are positioned within
+   * @param maxIterations Maximum iterations per pixel
+   * @param algorithm Algorithm to render, sent by its parsable name
+   * @return Frame ready to be written
+   */
+  static ByteBuffer config(Viewport viewport, int maxIterations, FractalAlgorithm algorithm) {
+    byte[] name = algorithm.toString().getBytes(StandardCharsets.UTF_8);
+    ByteBuffer frame = startFrame((4 * 3) + (8 * 3) + name.length, CONFIG);
+    frame.putInt(viewport.getWidth()).putInt(viewport.getHeight()) 
+         .putDouble(viewport.getMinReal()).putDouble(viewport.getMinImaginary()) 
+         .putDouble(viewport.getPixelSize()).putInt(maxIterations) 
+         .put(name);
+    return finishFrame(frame);
+  }
+  
+  /**
+   * Reads the viewport from the body of a {@link #CONFIG} frame, leaving the buffer positioned 
+   * at the max iterations.
+   * 
+   * @param body Frame body, positioned after the type
+   * @return Viewport to render
+   */
+  static Viewport readConfigViewport(ByteBuffer body) {
+    return new Viewport(body.getInt(), body.getInt(), 
+                        body.getDouble(), body.getDouble(), body.getDouble());
+  }
+  
+  /**
+   * Reads the algorithm from the body of a {@link #CONFIG} frame, which must be positioned 
+   * after the max iterations.
+   * 
+   * @param body Frame body
+   * @return Algorithm to render
+   */
+  static FractalAlgorithm readConfigAlgorithm(ByteBuffer body) {
+    byte[] name = new byte[body.remaining()];
+    body.get(name);
+    return FractalAlgorithm.fromName(new String(name, StandardCharsets.UTF_8));
+  }
+  
+  /**
+   * Constructs a {@link #TILE} frame.
+   * 
+   * @param tileId Id to return the result with
+   * @param x Pixel column of the tile's left edge
+   * @param y Pixel row of the tile's top edge
+   * @param width Width of the tile
+   * @param height Height of the tile
+   * @return Frame ready to be written
+   */
+  static ByteBuffer tile(int tileId, int x, int y, int width, int height) {
+    ByteBuffer frame = startFrame(4 * 5, TILE);
+    frame.putInt(tileId).putInt(x).putInt(y).putInt(width).putInt(height);
+    return finishFrame(frame);
+  }
+  
+  /**
+   * Constructs a {@link #RESULT} frame, encoding the iteration counts.
+   * 
+   * @param tileId Id the tile was sent with
+   * @param iterations Iteration counts for the tile, in row major order
+   * @return Frame ready to be written
+   */
+  static ByteBuffer result(int tileId, int[] iterations) {
+    // sized for mostly short runs, grown if the tile is noisier than that
+    ByteBuffer frame = startFrame(4 + (iterations.length / 2) + 16, RESULT);
+    frame.putInt(tileId);
+    int previous = 0;
+    int index = 0;
+    while (index < iterations.length) {
+      int value = iterations[index];
+      int run = 1;
+      while (index + run < iterations.length && iterations[index + run] == value) {
+        run++;
+      }
+      if (frame.remaining() < 10) {
+        ByteBuffer grown = ByteBuffer.allocate(frame.capacity() * 2);
+        frame.flip();
+        frame = grown.put(frame);
+      }
+      putVarint(frame, run);
+      int delta = value - previous;
+      putVarint(frame, (delta << 1) ^ (delta >> 31));
+      previous = value;
+      index += run;
+    }
+    return finishFrame(frame);
+  }
+  
+  /**
+   * Decodes the iteration counts from the body of a {@link #RESULT} frame, which must be 
+   * positioned after the tile id.
+   * 
+   * @param body Frame body
+   * @param iterations Array to fill, sized to the tile
+   * @throws IOException Thrown if the encoded runs do not fill the tile exactly
+   */
+  static void readIterations(ByteBuffer body, int[] iterations) throws IOException {
+    int previous = 0;
+    int index = 0;
+    while (body.hasRemaining()) {
+      int run = getVarint(body);
+      int zigzag = getVarint(body);
+      int value = previous + ((zigzag >>> 1) ^ -(zigzag & 1));
+      if (run < 1 || run > iterations.length - index) {
+        throw new IOException("Invalid run length: " + run);
+      }
+      for (int end = index + run; index < end; index++) {
+        iterations[index] = value;
+      }
+      previous = value;
+    }
+    if (index != iterations.length) {
+      throw new IOException("Result has " + index + " of " + iterations.length + " pixels");
+    }
+  }
+  
+  private static void putVarint(ByteBuffer out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.put((byte)((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte)value);
+  }
+  
+  private static int getVarint(ByteBuffer in) throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (! in.hasRemaining()) {
+        throw new IOException("Truncated varint");
+      }
+      byte b = in.get();
+      result |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return result;
+      }
+    }
+    throw new IOException("Invalid varint");
+  }
+}
@@ -0,0 +1,219 @@
+package org.threadly.examples.fractals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Deflater;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+
+/**
+ * <p>Renders a {@link Viewport} of a {@link FractalAlgorithm} as square tiles, with each tile 
+ * computed as its own task on the scheduler.  Does not depend on AWT, so it can be used 
+ * headless.</p>
+ * 
+ * <p>{@link #writePng(Viewport, int, OutputStream)} renders a row of tiles at a time, only 
+ * allowing a limited amount of rows to be in flight.  Each finished row of tiles is written 
+ * out before its memory is released, so images far larger than the heap can be produced while 
+ * still keeping every thread busy.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class TileRenderer {
+  /**
+   * Default width and height of a tile in pixels.
+   */
+  public static final int DEFAULT_TILE_SIZE = 256;
+  
+  private final PriorityScheduler scheduler;
+  private final int tileSize;
+  private final FractalAlgorithm algorithm;
+  
+  /**
+   * Constructs a new renderer.
+   * 
+   * @param scheduler Scheduler to render tiles on
+   * @param tileSize Width and height of each tile in pixels
+   * @param algorithm Fractal to render
+   */
+  public TileRenderer(PriorityScheduler scheduler, int tileSize, FractalAlgorithm algorithm) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+    }
+    this.scheduler = scheduler;
+    this.tileSize = tileSize;
+    this.algorithm = algorithm;
+  }
+  
+  /**
+   * Returns the width and height of each tile.
+   * 
+   * @return Tile size in pixels
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+  
+  /**
+   * Returns the amount of tile columns needed to cover the viewport.
+   * 
+   * @param viewport Viewport being rendered
+   * @return Count of tiles across
+   */
+  public int tilesAcross(Viewport viewport) {
+    return (viewport.getWidth() + tileSize - 1) / tileSize;
+  }
+  
+  /**
+   * Returns the amount of tile rows needed to cover the viewport.
+   * 
+   * @param viewport Viewport being rendered
+   * @return Count of tiles down
+   */
+  public int tilesDown(Viewport viewport) {
+    return (viewport.getHeight() + tileSize - 1) / tileSize;
+  }
+  
+  /**
+   * Returns the width of a tile column, which is smaller than the tile size for the last column 
+   * if the viewport width is not a multiple of it.
+   * 
+   * @param viewport Viewport being rendered
+   * @param tileX Tile column
+   * @return Width in pixels
+   */
+  public int tileWidth(Viewport viewport, int tileX) {
+    return Math.min(tileSize, viewport.getWidth() - (tileX * tileSize));
+  }
+  
+  /**
+   * Returns the height of a tile row, which is smaller than the tile size for the last row if 
+   * the viewport height is not a multiple of it.
+   * 
+   * @param viewport Viewport being rendered
+   * @param tileY Tile row
+   * @return Height in pixels
+   */
+  public int tileHeight(Viewport viewport, int tileY) {
+    return Math.min(tileSize, viewport.getHeight() - (tileY * tileSize));
+  }
+  
+  /**
+   * Computes a single tile on the calling thread.
+   * 
+   * @param viewport Viewport being rendered
+   * @param maxIterations Maximum iterations per pixel
+   * @param tileX Tile column
+   * @param tileY Tile row
+   * @return RGB values for the tile, in row major order
+   */
+  public int[] renderTile(Viewport viewport, int maxIterations, int tileX, int tileY) {
+    int width = tileWidth(viewport, tileX);
+    int height = tileHeight(viewport, tileY);
+    long startX = (long)tileX * tileSize;
+    long startY = (long)tileY * tileSize;
+    int[] result = new int[width * height];
+    double[] reals = new double[width];
+    for (int x = 0; x < width; x++) {
+      reals[x] = viewport.real(startX + x);
+    }
+    int[] iterations = new int[width];
+    int index = 0;
+    for (int y = 0; y < height; y++) {
+      algorithm.iterationsRow(reals, width, viewport.imaginary(startY + y), 
+                              maxIterations, iterations, 0);
+      for (int x = 0; x < width; x++) {
+        result[index++] = MandelbrotFractal.color(iterations[x], maxIterations);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Submits a tile to be computed on the scheduler.
+   * 
+   * @param viewport Viewport being rendered
+   * @param maxIterations Maximum iterations per pixel
+   * @param tileX Tile column
+   * @param tileY Tile row
+   * @param priority Priority to compute the tile at
+   * @return Future which will complete with the tile's RGB values
+   */
+  public ListenableFuture<int[]> submitTile(final Viewport viewport, final int maxIterations, 
+                                            final int tileX, final int tileY, 
+                                            TaskPriority priority) {
+    return scheduler.submit(new Callable<int[]>() {
+      @Override
+      public int[] call() throws InterruptedException {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        return renderTile(viewport, maxIterations, tileX, tileY);
+      }
+    }, priority);
+  }
+  
+  private List<ListenableFuture<int[]>> submitTileRow(Viewport viewport, int maxIterations, 
+                                                      int tileY) {
+    int tilesAcross = tilesAcross(viewport);
+    List<ListenableFuture<int[]>> result = new ArrayList<ListenableFuture<int[]>>(tilesAcross);
+    for (int tileX = 0; tileX < tilesAcross; tileX++) {
+      result.add(submitTile(viewport, maxIterations, tileX, tileY, TaskPriority.High));
+    }
+    return result;
+  }
+  
+  /**
+   * Renders the viewport and writes it as a PNG, blocking until complete.  Only a few rows of 
+   * tiles are held in memory at once.  The stream will be closed once the image is written.
+   * 
+   * @param viewport Viewport to render
+   * @param maxIterations Maximum iterations per pixel
+   * @param out Stream to write the PNG to
+   * @throws IOException Thrown if the image could not be written
+   * @throws InterruptedException Thrown if interrupted while waiting for tiles to render
+   * @throws ExecutionException Thrown if a tile failed to render
+   */
+  public void writePng(Viewport viewport, int maxIterations, 
+                       OutputStream out) throws IOException, InterruptedException, 
+                                                ExecutionException {
+    int tilesDown = tilesDown(viewport);
+    int tilesAcross = tilesAcross(viewport);
+    // enough rows that threads stay busy while the oldest row is written
+    int tileRowsInFlight = 
+        Math.max(3, 2 + ((scheduler.getMaxPoolSize() * 2) + tilesAcross - 1) / tilesAcross);
+    ArrayDeque<List<ListenableFuture<int[]>>> inFlight = 
+        new ArrayDeque<List<ListenableFuture<int[]>>>(tileRowsInFlight);
+    int submittedRows = 0;
+    int[] row = new int[viewport.getWidth()];
+    try (PngStreamWriter png = new PngStreamWriter(out, viewport.getWidth(), 
+                                                   viewport.getHeight(), Deflater.BEST_SPEED)) {
+      for (int tileY = 0; tileY < tilesDown; tileY++) {
+        while (submittedRows < tilesDown && inFlight.size() < tileRowsInFlight) {
+          inFlight.add(submitTileRow(viewport, maxIterations, submittedRows++));
+        }
+        List<int[]> tiles = FutureUtils.makeResultListFuture(inFlight.peek(), false).get();
+        inFlight.remove();
+        int height = tileHeight(viewport, tileY);
+        for (int y = 0; y < height; y++) {
+          for (int tileX = 0; tileX < tilesAcross; tileX++) {
+            int width = tileWidth(viewport, tileX);
+            System.arraycopy(tiles.get(tileX), y * width, row, tileX * tileSize, width);
+          }
+          png.writeRow(row, 0);
+        }
+      }
+    } finally {
+      for (List<ListenableFuture<int[]>> futures : inFlight) {
+        FutureUtils.cancelIncompleteFutures(futures, true);
+      }
+    }
+  }
+}
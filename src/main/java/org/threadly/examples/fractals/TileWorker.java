@@ -0,0 +1,127 @@
+package org.threadly.examples.fractals;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Computes tiles for a {@link TileCoordinator} in another process.  Tiles are read from the 
+ * connection and computed in parallel on the scheduler, with each result written back as soon 
+ * as it is done.  The coordinator is told how many threads the scheduler has, so it can keep 
+ * every thread busy.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class TileWorker {
+  private final PriorityScheduler scheduler;
+  private volatile Viewport viewport;
+  private volatile int maxIterations;
+  private volatile FractalAlgorithm algorithm;
+  
+  /**
+   * Constructs a new worker.
+   * 
+   * @param scheduler Scheduler to compute tiles on
+   */
+  public TileWorker(PriorityScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+  
+  /**
+   * Connects to a coordinator and computes tiles until it closes or drops the connection.
+   * 
+   * @param coordinator Address of the coordinator
+   * @throws IOException Thrown if the connection fails, other than being closed by the coordinator
+   */
+  public void run(InetSocketAddress coordinator) throws IOException {
+    try (SocketChannel channel = SocketChannel.open(coordinator)) {
+      write(channel, TileProtocol.hello(scheduler.getMaxPoolSize()));
+      ByteBuffer header = ByteBuffer.allocate(4);
+      while (true) {
+        header.clear();
+        try {
+          if (! readFully(channel, header)) {
+            return;  // coordinator is done
+          }
+        } catch (IOException e) {
+          // coordinator closed with results from stolen tiles unread, which resets the connection
+          return;
+        }
+        int length = header.getInt(0);
+        if (length < 1 || length > TileProtocol.MAX_FRAME_SIZE) {
+          throw new IOException("Invalid frame length: " + length);
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        if (! readFully(channel, body)) {
+          throw new EOFException("Connection closed mid frame");
+        }
+        body.flip();
+        byte type = body.get();
+        if (type == TileProtocol.CONFIG) {
+          viewport = TileProtocol.readConfigViewport(body);
+          maxIterations = body.getInt();
+          algorithm = TileProtocol.readConfigAlgorithm(body);
+        } else if (type == TileProtocol.TILE) {
+          if (algorithm == null) {
+            throw new IOException("Tile sent before config");
+          }
+          submitTile(channel, body.getInt(), body.getInt(), body.getInt(), 
+                     body.getInt(), body.getInt());
+        } else {
+          throw new IOException("Unexpected message type: " + type);
+        }
+      }
+    }
+  }
+  
+  private void submitTile(final SocketChannel channel, final int tileId, 
+                          final int startX, final int startY, final int width, final int height) {
+    final Viewport viewport = this.viewport;
+    final int maxIterations = this.maxIterations;
+    final FractalAlgorithm algorithm = this.algorithm;
+    scheduler.execute(new Runnable() {
+      @Override
+      public void run() {
+        int[] iterations = new int[width * height];
+        double[] reals = new double[width];
+        for (int x = 0; x < width; x++) {
+          reals[x] = viewport.real(startX + x);
+        }
+        for (int y = 0; y < height; y++) {
+          algorithm.iterationsRow(reals, width, viewport.imaginary(startY + y), 
+                                  maxIterations, iterations, y * width);
+        }
+        try {
+          write(channel, TileProtocol.result(tileId, iterations));
+        } catch (IOException e) {
+          // coordinator is gone, the reading thread will see the connection close
+          ExceptionUtils.handleException(e);
+        }
+      }
+    }, TaskPriority.High);
+  }
+  
+  private static void write(SocketChannel channel, ByteBuffer frame) throws IOException {
+    // results complete on many threads, frames must not interleave
+    synchronized (channel) {
+      while (frame.hasRemaining()) {
+        channel.write(frame);
+      }
+    }
+  }
+  
+  private static boolean readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
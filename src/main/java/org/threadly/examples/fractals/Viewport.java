@@ -0,0 +1,141 @@
+package org.threadly.examples.fractals;
+
+/**
+ * <p>Maps pixel positions of an image onto the complex plane.  Pixels are square, with the 
+ * top left pixel at {@link #getMinReal()}, {@link #getMinImaginary()} and each pixel to the 
+ * right or down adding {@link #getPixelSize()} to the respective component.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class Viewport {
+  /**
+   * Real component at the center of the default view of the Mandelbrot set.
+   */
+  public static final double DEFAULT_CENTER_REAL = -0.75;
+  /**
+   * Imaginary component at the center of the default view of the Mandelbrot set.
+   */
+  public static final double DEFAULT_CENTER_IMAGINARY = 0;
+  /**
+   * Width on the complex plane which fits the entire Mandelbrot set.
+   */
+  public static final double DEFAULT_VIEW_WIDTH = 3.5;
+  
+  /**
+   * Constructs a viewport with the provided point at the center of the image.  The view height is 
+   * determined by the image aspect ratio.
+   * 
+   * @param width Image width in pixels
+   * @param height Image height in pixels
+   * @param centerReal Real component at the center of the image
+   * @param centerImaginary Imaginary component at the center of the image
+   * @param viewWidth Width on the complex plane covered by the image
+   * @return A new viewport
+   */
+  public static Viewport centered(int width, int height, 
+                                  double centerReal, double centerImaginary, double viewWidth) {
+    double pixelSize = viewWidth / width;
+    return new Viewport(width, height, centerReal - (pixelSize * width / 2), 
+                        centerImaginary - (pixelSize * height / 2), pixelSize);
+  }
+  
+  private final int width;
+  private final int height;
+  private final double minReal;
+  private final double minImaginary;
+  private final double pixelSize;
+  
+  /**
+   * Constructs a new viewport.
+   * 
+   * @param width Image width in pixels
+   * @param height Image height in pixels
+   * @param minReal Real component of the top left pixel
+   * @param minImaginary Imaginary component of the top left pixel
+   * @param pixelSize Distance on the complex plane between neighboring pixels
+   */
+  public Viewport(int width, int height, double minReal, double minImaginary, double pixelSize) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+    } else if (! (pixelSize > 0)) {
+      throw new IllegalArgumentException("Invalid pixel size: " + pixelSize);
+    }
+    this.width = width;
+    this.height = height;
+    this.minReal = minReal;
+    this.minImaginary = minImaginary;
+    this.pixelSize = pixelSize;
+  }
+  
+  /**
+   * Returns the image width.
+   * 
+   * @return Width in pixels
+   */
+  public int getWidth() {
+    return width;
+  }
+  
+  /**
+   * Returns the image height.
+   * 
+   * @return Height in pixels
+   */
+  public int getHeight() {
+    return height;
+  }
+  
+  /**
+   * Returns the real component of the left column of pixels.
+   * 
+   * @return Minimum real value
+   */
+  public double getMinReal() {
+    return minReal;
+  }
+  
+  /**
+   * Returns the imaginary component of the top row of pixels.
+   * 
+   * @return Minimum imaginary value
+   */
+  public double getMinImaginary() {
+    return minImaginary;
+  }
+  
+  /**
+   * Returns the distance on the complex plane between neighboring pixels.
+   * 
+   * @return Size of a single pixel
+   */
+  public double getPixelSize() {
+    return pixelSize;
+  }
+  
+  /**
+   * Returns the real component for a pixel column.
+   * 
+   * @param x Pixel column
+   * @return Real value for the column
+   */
+  public double real(long x) {
+    return minReal + (x * pixelSize);
+  }
+  
+  /**
+   * Returns the imaginary component for a pixel row.
+   * 
+   * @param y Pixel row
+   * @return Imaginary value for the row
+   */
+  public double imaginary(long y) {
+    return minImaginary + (y * pixelSize);
+  }
+  
+  @Override
+  public String toString() {
+    return width + "x" + height + " centered at " + real(width / 2) + 
+             (imaginary(height / 2) < 0 ? "" : "+") + imaginary(height / 2) + "i, width " + 
+             (pixelSize * width);
+  }
+}
@@ -0,0 +1,298 @@
+package org.threadly.examples.fractals;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureCallback;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Renders a zoom from one view to another as a numbered sequence of PNG files, for turning 
+ * into a video.  The view width changes geometrically so the zoom speed looks constant, and the 
+ * center moves so that the end view's center stays fixed on screen as the zoom closes in.</p>
+ * 
+ * <p>Each frame passes through three stages on the scheduler.  First the iteration counts are 
+ * computed in bands of rows, written directly into the frame's buffer.  Once every band is done, 
+ * the counts are mapped to colors in place, and then the frame is encoded to its file.  Frames 
+ * move through the stages independently, so while one frame is being encoded the next frames' 
+ * bands are already computing and no thread idles at frame boundaries.</p>
+ * 
+ * <p>The stages share a fixed pool of frame buffers, which acts as the bounded queue between 
+ * them.  A new frame can only start once a buffer is returned by the encoding stage, so if 
+ * encoding falls behind, computing waits for it.  Peak memory is the pool size times the frame 
+ * size, no matter how many frames are rendered.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class ZoomAnimation {
+  private static final int DEFAULT_FRAMES_IN_FLIGHT = 4;
+  private static final int BAND_HEIGHT = 16;
+  
+  @SuppressWarnings("javadoc")
+  public static void main(String[] args) throws InterruptedException, IOException {
+    FractalAlgorithm algorithm = new MandelbrotAlgorithm();
+    int baseIterations = IterationLimit.DEFAULT_BASE_ITERATIONS;
+    boolean adaptive = false;
+    int framesInFlight = DEFAULT_FRAMES_IN_FLIGHT;
+    int argIndex = 0;
+    try {
+      while (argIndex + 1 < args.length && args[argIndex].startsWith("-")) {
+        if (args[argIndex].equals("-adaptive")) {
+          adaptive = true;
+          argIndex++;
+          continue;
+        } else if (args[argIndex].equals("-fractal")) {
+          algorithm = FractalAlgorithm.fromName(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-iterations")) {
+          baseIterations = Integer.parseInt(args[argIndex + 1]);
+        } else if (args[argIndex].equals("-inflight")) {
+          framesInFlight = Integer.parseInt(args[argIndex + 1]);
+        } else {
+          break;
+        }
+        argIndex += 2;
+      }
+    } catch (IllegalArgumentException e) {
+      argIndex = args.length;
+    }
+    if (args.length - argIndex != 10 || baseIterations < 1 || framesInFlight < 1) {
+      System.err.println("Usage: java -cp threadly_examples.jar " + ZoomAnimation.class.getName() + 
+                           " [-fractal name] [-iterations count] [-adaptive] [-inflight frames] " + 
+                           "width height frameCount outputDirectory " + 
+                           "startReal startImaginary startWidth endReal endImaginary endWidth");
+      System.err.println("\t-fractal: mandelbrot (default), burningship, multibrot:power, " + 
+                           "or julia:real,imaginary");
+      System.err.println("\t-iterations: Maximum iterations per pixel, default " + 
+                           IterationLimit.DEFAULT_BASE_ITERATIONS);
+      System.err.println("\t-adaptive: Increase the iterations as the zoom deepens");
+      System.err.println("\t-inflight: Frames which can be in the pipeline at once, default " + 
+                           DEFAULT_FRAMES_IN_FLIGHT);
+      System.exit(1);
+    }
+    int width = Integer.parseInt(args[argIndex]);
+    int height = Integer.parseInt(args[argIndex + 1]);
+    int frameCount = Integer.parseInt(args[argIndex + 2]);
+    File outputDirectory = new File(args[argIndex + 3]);
+    if (! outputDirectory.isDirectory() && ! outputDirectory.mkdirs()) {
+      throw new IOException("Could not create directory: " + outputDirectory);
+    }
+    Viewport start = Viewport.centered(width, height, Double.parseDouble(args[argIndex + 4]), 
+                                       Double.parseDouble(args[argIndex + 5]), 
+                                       Double.parseDouble(args[argIndex + 6]));
+    Viewport end = Viewport.centered(width, height, Double.parseDouble(args[argIndex + 7]), 
+                                     Double.parseDouble(args[argIndex + 8]), 
+                                     Double.parseDouble(args[argIndex + 9]));
+    
+    PriorityScheduler scheduler = 
+        new PriorityScheduler(Runtime.getRuntime().availableProcessors(), true);
+    scheduler.prestartAllThreads();
+    ZoomAnimation animation = 
+        new ZoomAnimation(scheduler, algorithm, new IterationLimit(baseIterations, adaptive), 
+                          framesInFlight);
+    long startTime = Clock.accurateForwardProgressingMillis();
+    try {
+      animation.render(start, end, frameCount, outputDirectory);
+      long elapsed = Clock.accurateForwardProgressingMillis() - startTime;
+      System.out.println("Wrote " + frameCount + " frames in " + elapsed + "ms (" + 
+                           ((frameCount * 1000L) / Math.max(1, elapsed)) + " frames per second)");
+    } catch (ExecutionException e) {
+      throw ExceptionUtils.makeRuntime(e.getCause());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+  
+  private final PriorityScheduler scheduler;
+  private final FractalAlgorithm algorithm;
+  private final IterationLimit iterationLimit;
+  private final int framesInFlight;
+  
+  /**
+   * Constructs a new animation renderer.
+   * 
+   * @param scheduler Scheduler to run every stage on
+   * @param algorithm Fractal to render
+   * @param iterationLimit Limit to get each frame's maximum iterations from
+   * @param framesInFlight Amount of frame buffers, which is the most frames in the pipeline
+   */
+  public ZoomAnimation(PriorityScheduler scheduler, FractalAlgorithm algorithm, 
+                       IterationLimit iterationLimit, int framesInFlight) {
+    if (framesInFlight < 1) {
+      throw new IllegalArgumentException("Must allow at least one frame in flight");
+    }
+    this.scheduler = scheduler;
+    this.algorithm = algorithm;
+    this.iterationLimit = iterationLimit;
+    this.framesInFlight = framesInFlight;
+  }
+  
+  /**
+   * Returns the view for a frame of the zoom.  The width is interpolated geometrically, and the 
+   * center is interpolated by how far the width has progressed.
+   * 
+   * @param start View of the first frame
+   * @param end View of the last frame, must be the same size as the first
+   * @param frame Frame to get the view for
+   * @param frameCount Total frames in the animation
+   * @return View for the frame
+   */
+  public static Viewport frameView(Viewport start, Viewport end, int frame, int frameCount) {
+    double t = frameCount < 2 ? 0 : ((double)frame) / (frameCount - 1);
+    double startWidth = start.getPixelSize() * start.getWidth();
+    double endWidth = end.getPixelSize() * end.getWidth();
+    double viewWidth = startWidth * Math.pow(endWidth / startWidth, t);
+    double progress;
+    if (startWidth == endWidth) {
+      progress = t;
+    } else {
+      progress = (startWidth - viewWidth) / (startWidth - endWidth);
+    }
+    double centerReal = start.real(start.getWidth() / 2) + 
+                          ((end.real(end.getWidth() / 2) - start.real(start.getWidth() / 2)) * 
+                             progress);
+    double centerImaginary = start.imaginary(start.getHeight() / 2) + 
+                               ((end.imaginary(end.getHeight() / 2) - 
+                                   start.imaginary(start.getHeight() / 2)) * progress);
+    return Viewport.centered(start.getWidth(), start.getHeight(), centerReal, centerImaginary, 
+                             viewWidth);
+  }
+  
+  /**
+   * Renders every frame of the zoom, blocking until the last frame is written.  Files are named 
+   * {@code frame_00000.png} and up.
+   * 
+   * @param start View of the first frame
+   * @param end View of the last frame, must be the same size as the first
+   * @param frameCount Total frames to render
+   * @param outputDirectory Directory to write frames into
+   * @throws InterruptedException Thrown if interrupted while waiting on the pipeline
+   * @throws ExecutionException Thrown if a frame failed to render or write
+   */
+  public void render(Viewport start, Viewport end, int frameCount, 
+                     File outputDirectory) throws InterruptedException, ExecutionException {
+    if (start.getWidth() != end.getWidth() || start.getHeight() != end.getHeight()) {
+      throw new IllegalArgumentException("Start and end views must be the same size");
+    }
+    int pixelCount = start.getWidth() * start.getHeight();
+    // buffers are allocated as needed up to the limit, then reused from here
+    BlockingQueue<int[]> freeBuffers = new ArrayBlockingQueue<int[]>(framesInFlight);
+    int allocatedBuffers = 0;
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    try {
+      for (int frame = 0; frame < frameCount && failure.get() == null; frame++) {
+        int[] buffer = freeBuffers.poll();
+        if (buffer == null) {
+          if (allocatedBuffers < framesInFlight) {
+            allocatedBuffers++;
+            buffer = new int[pixelCount];
+          } else {
+            // every buffer is in the pipeline, wait for the oldest frame to be written
+            buffer = freeBuffers.take();
+          }
+        }
+        startFrame(frameView(start, end, frame, frameCount), buffer, 
+                   new File(outputDirectory, String.format("frame_%05d.png", frame)), 
+                   freeBuffers, failure);
+      }
+    } finally {
+      // every frame has finished once all of its buffers are back
+      for (int i = 0; i < allocatedBuffers; i++) {
+        freeBuffers.take();
+      }
+    }
+    if (failure.get() != null) {
+      throw new ExecutionException(failure.get());
+    }
+  }
+  
+  private void startFrame(final Viewport viewport, final int[] buffer, final File file, 
+                          final BlockingQueue<int[]> freeBuffers, 
+                          final AtomicReference<Throwable> failure) {
+    final int maxIterations = 
+        iterationLimit.forView(algorithm, viewport.getPixelSize() * viewport.getWidth());
+    final double[] reals = new double[viewport.getWidth()];
+    for (int x = 0; x < reals.length; x++) {
+      reals[x] = viewport.real(x);
+    }
+    List<ListenableFuture<?>> bands = new ArrayList<ListenableFuture<?>>();
+    for (int top = 0; top < viewport.getHeight(); top += BAND_HEIGHT) {
+      final int bandTop = top;
+      bands.add(scheduler.submit(new Runnable() {
+        @Override
+        public void run() {
+          int bottom = Math.min(viewport.getHeight(), bandTop + BAND_HEIGHT);
+          for (int y = bandTop; y < bottom; y++) {
+            algorithm.iterationsRow(reals, reals.length, viewport.imaginary(y), maxIterations, 
+                                    buffer, y * viewport.getWidth());
+          }
+        }
+      }, TaskPriority.High));
+    }
+    FutureUtils.makeFailurePropagatingCompleteFuture(bands, buffer) 
+               .flatMap(new Function<int[], ListenableFuture<int[]>>() {
+                 @Override
+                 public ListenableFuture<int[]> apply(final int[] iterations) {
+                   return scheduler.submit(new Callable<int[]>() {
+                     @Override
+                     public int[] call() {
+                       for (int i = 0; i < iterations.length; i++) {
+                         iterations[i] = MandelbrotFractal.color(iterations[i], maxIterations);
+                       }
+                       return iterations;
+                     }
+                   }, TaskPriority.High);
+                 }
+               }) 
+               .flatMap(new Function<int[], ListenableFuture<int[]>>() {
+                 @Override
+                 public ListenableFuture<int[]> apply(final int[] pixels) {
+                   return scheduler.submit(new Callable<int[]>() {
+                     @Override
+                     public int[] call() throws IOException {
+                       writePng(pixels, viewport.getWidth(), viewport.getHeight(), file);
+                       return pixels;
+                     }
+                   }, TaskPriority.High);
+                 }
+               }) 
+               .callback(new FutureCallback<int[]>() {
+                 @Override
+                 public void handleResult(int[] pixels) {
+                   freeBuffers.add(buffer);
+                 }
+                 
+                 @Override
+                 public void handleFailure(Throwable t) {
+                   failure.compareAndSet(null, t);
+                   freeBuffers.add(buffer);
+                 }
+               });
+  }
+  
+  private static void writePng(int[] pixels, int width, int height, 
+                               File file) throws IOException {
+    try (PngStreamWriter png = 
+             new PngStreamWriter(new BufferedOutputStream(new FileOutputStream(file), 256 * 1024), 
+                                 width, height, Deflater.BEST_SPEED)) {
+      for (int y = 0; y < height; y++) {
+        png.writeRow(pixels, y * width);
+      }
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.threadly.concurrent.PrioritySchedulerService;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureCallback;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.ListenableFutureTask;
+import org.threadly.concurrent.future.SettableListenableFuture;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Base class for {@link PrimeProcessor} implementations.  Implementations only need to provide 
+ * the asynchronous check in {@link #doIsPrime(Executor, int)}, the blocking 
+ * {@link #isPrime(Executor, int)} just waits on that future.  Once complete the result is kept 
+ * so that repeated calls do not redo the work.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public abstract class AbstractPrimeProcessor implements PrimeProcessor {
+  /**
+   * Number being tested.
+   */
+  protected final BigInteger n;
+  private volatile PrimeResult result;
+  
+  /**
+   * Constructs a new processor.
+   * 
+   * @param n Number to test against
+   */
+  protected AbstractPrimeProcessor(BigInteger n) {
+    this.n = n;
+    result = null;
+  }
+  
+  @Override
+  public BigInteger getFactor() {
+    PrimeResult r = result;
+    if (r == null) {
+      return null;
+    } else {
+      return r.factor;
+    }
+  }
+  
+  @Override
+  public boolean isPrime(Executor executor, int parallelLevel) throws InterruptedException {
+    ListenableFuture<PrimeResult> future = isPrimeAsync(executor, parallelLevel);
+    try {
+      // set here as well since listeners may not have been invoked yet when get returns
+      result = future.get();
+      return result.isPrime;
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      throw ExceptionUtils.makeRuntime(e.getCause());
+    }
+  }
+  
+  @Override
+  public ListenableFuture<PrimeResult> isPrimeAsync(Executor executor, int parallelLevel) {
+    PrimeResult cached = result;
+    if (cached != null) {
+      return FutureUtils.immediateResultFuture(cached);
+    }
+    
+    return doIsPrime(executor, parallelLevel).resultCallback(new Consumer<PrimeResult>() {
+      @Override
+      public void accept(PrimeResult r) {
+        result = r;
+      }
+    });
+  }
+  
+  /**
+   * Starts the check to see if the number is prime.  This must not block waiting for work 
+   * submitted to the executor.
+   * 
+   * @param executor Executor to submit work to
+   * @param parallelLevel Amount of executions to submit to the executor
+   * @return Future which will complete with the result
+   */
+  protected abstract ListenableFuture<PrimeResult> doIsPrime(Executor executor, int parallelLevel);
+  
+  /**
+   * Constructs a result indicating the number is prime.
+   * 
+   * @return Result for a prime number
+   */
+  protected PrimeResult primeResult() {
+    return new PrimeResult(n, true, null);
+  }
+  
+  /**
+   * Constructs a result indicating the number is composite.
+   * 
+   * @param factor Factor of the number, or {@code null} if unknown
+   * @return Result for a composite number
+   */
+  protected PrimeResult compositeResult(BigInteger factor) {
+    return new PrimeResult(n, false, factor);
+  }
+  
+  /**
+   * Submits a task to the executor.  If the executor is a {@link PrioritySchedulerService} the 
+   * priority will be respected, otherwise it is ignored.
+   * 
+   * @param <T> Type of result from the task
+   * @param executor Executor to run the task on
+   * @param task Task to be executed
+   * @param priority Priority to execute the task with
+   * @return Future which will complete with the result of the task
+   */
+  protected static <T> ListenableFuture<T> submit(Executor executor, Callable<T> task, 
+                                                 TaskPriority priority) {
+    if (executor instanceof PrioritySchedulerService) {
+      return ((PrioritySchedulerService)executor).submit(task, priority);
+    } else {
+      ListenableFutureTask<T> lft = new ListenableFutureTask<T>(task);
+      executor.execute(lft);
+      return lft;
+    }
+  }
+  
+  /**
+   * Constructs a future which completes with the first non-null result from the provided 
+   * futures, cancelling the rest.  If every future completes with {@code null} then the 
+   * returned future will complete with {@code null}.  Cancelling the returned future will cancel 
+   * all the provided futures.
+   * 
+   * @param <T> Type of result
+   * @param futures Futures to listen to
+   * @return Future which completes with the first non-null result
+   */
+  protected static <T> ListenableFuture<T> 
+      makeFirstNonNullFuture(final Collection<? extends ListenableFuture<? extends T>> futures) {
+    final SettableListenableFuture<T> result = new SettableListenableFuture<T>(false);
+    if (futures.isEmpty()) {
+      result.setResult(null);
+      return result;
+    }
+    
+    final AtomicInteger remaining = new AtomicInteger(futures.size());
+    FutureCallback<T> callback = new FutureCallback<T>() {
+      @Override
+      public void handleResult(T r) {
+        if (r != null) {
+          if (result.setResult(r)) {
+            FutureUtils.cancelIncompleteFutures(futures, true);
+          }
+        } else if (remaining.decrementAndGet() == 0) {
+          result.setResult(null);
+        }
+      }
+      
+      @Override
+      public void handleFailure(Throwable t) {
+        if (result.setFailure(t)) {
+          FutureUtils.cancelIncompleteFutures(futures, true);
+        }
+      }
+    };
+    result.listener(new Runnable() {
+      @Override
+      public void run() {
+        if (result.isCancelled()) {
+          FutureUtils.cancelIncompleteFutures(futures, true);
+        }
+      }
+    });
+    for (ListenableFuture<? extends T> f : futures) {
+      f.callback(callback);
+    }
+    return result;
+  }
+}
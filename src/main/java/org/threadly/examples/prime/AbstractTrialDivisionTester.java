@@ -0,0 +1,450 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.threadly.concurrent.PrioritySchedulerService;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureCallback;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+
+/**
+ * <p>Shared parallel search used by the trial division implementations.  Divisors are only 
+ * searched up to the integer square root of the number being tested.  That range is handed out 
+ * as many small chunks in ascending order, since small factors are the most likely to exist. 
+ * When the executor is a {@link PrioritySchedulerService} the first wave of chunks is submitted 
+ * as {@link TaskPriority#High} and everything after as {@link TaskPriority#Low}, so that the 
+ * most promising work is never queued behind the rest.</p>
+ * 
+ * <p>The size of each chunk is adapted based off how long previous chunks took to compute, so 
+ * that chunks stay short enough to return a found factor quickly, but long enough to not be 
+ * dominated by task overhead.</p>
+ * 
+ * <p>Before any work is submitted to the executor the value is checked against the first few 
+ * hundred odd primes, so trivially composite values never fan out.  Chunks then only check 
+ * divisors which are coprime to a {@link Wheel} (by default {@link Wheel#DEFAULT}).</p>
+ * 
+ * <p>Workers coordinate through a lock free best known factor, which is created for each search 
+ * as part of its {@link FactorSearch}.  Once a factor is found chunks above it stop at their next 
+ * poll (without needing to be interrupted), while chunks below it continue so that the smallest 
+ * factor is always the one returned.  Cancelling a search sets a separate aborted flag, so a 
+ * cancelled search can never be mistaken for a found factor.</p>
+ * 
+ * <p>The search is entirely driven by chunk completion, no thread is held waiting for chunks to 
+ * complete.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public abstract class AbstractTrialDivisionTester extends AbstractPrimeProcessor {
+  // search ranges smaller than this are done on the calling thread
+  private static final long MIN_PARALLEL_LIMIT = 1 << 12;
+  private static final long INITIAL_CHUNK_SIZE = 1 << 10;
+  private static final long TARGET_CHUNK_NANOS = 5_000_000;
+  private static final int MAX_CHUNK_GROWTH = 4;
+  private static final long MAX_LONG_SQRT = 3037000499L;
+  private static final int SMALL_PRIME_COUNT = 256;
+  // odd primes checked before parallel work, with values for testing divisibility without division
+  private static final long[] SMALL_PRIMES;
+  private static final long[] SMALL_PRIME_INVERSES;
+  private static final long[] SMALL_PRIME_LIMITS;
+  // small primes grouped so that each group product fits in a long, for reducing BigIntegers
+  private static final BigInteger[] SMALL_PRIME_PRODUCTS;
+  private static final int[] SMALL_PRIME_GROUP_ENDS;
+  private static final long LARGEST_SMALL_PRIME;
+  
+  static {
+    SMALL_PRIMES = new long[SMALL_PRIME_COUNT];
+    SMALL_PRIME_INVERSES = new long[SMALL_PRIME_COUNT];
+    SMALL_PRIME_LIMITS = new long[SMALL_PRIME_COUNT];
+    int count = 0;
+    for (long candidate = 3; count < SMALL_PRIME_COUNT; candidate += 2) {
+      boolean prime = true;
+      for (int i = 0; i < count && SMALL_PRIMES[i] * SMALL_PRIMES[i] <= candidate; i++) {
+        if (candidate % SMALL_PRIMES[i] == 0) {
+          prime = false;
+          break;
+        }
+      }
+      if (prime) {
+        // v is divisible by p exactly when v * inverse(p) (mod 2^64) <= (2^64 - 1) / p
+        long inverse = candidate;
+        for (int i = 0; i < 5; i++) {
+          inverse *= 2 - candidate * inverse;
+        }
+        SMALL_PRIMES[count] = candidate;
+        SMALL_PRIME_INVERSES[count] = inverse;
+        SMALL_PRIME_LIMITS[count] = Long.divideUnsigned(-1L, candidate);
+        count++;
+      }
+    }
+    LARGEST_SMALL_PRIME = SMALL_PRIMES[SMALL_PRIME_COUNT - 1];
+    
+    List<BigInteger> products = new ArrayList<BigInteger>();
+    List<Integer> groupEnds = new ArrayList<Integer>();
+    long product = 1;
+    for (int i = 0; i < SMALL_PRIME_COUNT; i++) {
+      if (Math.multiplyHigh(product, SMALL_PRIMES[i]) != 0 || product * SMALL_PRIMES[i] < 0) {
+        products.add(BigInteger.valueOf(product));
+        groupEnds.add(i);
+        product = 1;
+      }
+      product *= SMALL_PRIMES[i];
+    }
+    products.add(BigInteger.valueOf(product));
+    groupEnds.add(SMALL_PRIME_COUNT);
+    SMALL_PRIME_PRODUCTS = products.toArray(new BigInteger[products.size()]);
+    SMALL_PRIME_GROUP_ENDS = new int[groupEnds.size()];
+    for (int i = 0; i < SMALL_PRIME_GROUP_ENDS.length; i++) {
+      SMALL_PRIME_GROUP_ENDS[i] = groupEnds.get(i);
+    }
+  }
+  
+  /**
+   * Mask against the count of checked divisors for how often 
+   * {@link FactorSearch#isSmallerFactorKnown(long)} should be polled.  Implementations should 
+   * check {@code (count & POLL_MASK) == 0}.
+   */
+  protected static final int POLL_MASK = (1 << 10) - 1;
+  
+  /**
+   * Largest divisor which will be checked.
+   */
+  protected final long searchLimit;
+  /**
+   * Wheel which divisors checked by {@link #findFactor(long, long, FactorSearch)} should be 
+   * iterated with.
+   */
+  protected final Wheel wheel;
+  
+  /**
+   * Constructs a new tester which will search for factors up to (and including) the provided 
+   * limit, using the default wheel.
+   * 
+   * @param n Number to test against
+   * @param searchLimit Largest divisor to test, typically the integer square root of the value
+   */
+  protected AbstractTrialDivisionTester(BigInteger n, long searchLimit) {
+    this(n, searchLimit, Wheel.DEFAULT);
+  }
+  
+  /**
+   * Constructs a new tester which will search for factors up to (and including) the provided 
+   * limit.
+   * 
+   * @param n Number to test against
+   * @param searchLimit Largest divisor to test, typically the integer square root of the value
+   * @param wheel Wheel to iterate divisors with, its primes must be within the small prime check
+   */
+  protected AbstractTrialDivisionTester(BigInteger n, long searchLimit, Wheel wheel) {
+    super(n);
+    
+    if (wheel.getLargestPrime() > LARGEST_SMALL_PRIME) {
+      throw new IllegalArgumentException("Wheel primes must be <= " + LARGEST_SMALL_PRIME);
+    }
+    // leave room so that the end of a chunk can always be advanced without overflow
+    this.searchLimit = Math.min(searchLimit, Long.MAX_VALUE - Short.MAX_VALUE);
+    this.wheel = wheel;
+  }
+  
+  /**
+   * Checks the provided value against the small odd primes, up to the provided limit.  The test 
+   * for each prime is a multiply and compare rather than a division.
+   * 
+   * @param value Non-negative value to check
+   * @param limit Largest divisor to check
+   * @return The smallest odd small prime which divides the value, or {@code 0} if none do
+   */
+  protected static long smallPrimeFactor(long value, long limit) {
+    for (int i = 0; i < SMALL_PRIME_COUNT && SMALL_PRIMES[i] <= limit; i++) {
+      if (Long.compareUnsigned(value * SMALL_PRIME_INVERSES[i], SMALL_PRIME_LIMITS[i]) <= 0) {
+        return SMALL_PRIMES[i];
+      }
+    }
+    return 0;
+  }
+  
+  /**
+   * Checks the value being tested against the small odd primes, up to {@link #searchLimit}.  This 
+   * is invoked on the calling thread before any chunks are submitted.  The default 
+   * implementation reduces {@link #n} by products of the small primes so that each prime is 
+   * checked with primitive math, implementations which have the value as a primitive may want 
+   * to use {@link #smallPrimeFactor(long, long)} directly.
+   * 
+   * @return The smallest odd small prime which divides the value, or {@code 0} if none do
+   */
+  protected long findSmallFactor() {
+    int groupStart = 0;
+    for (int group = 0; group < SMALL_PRIME_PRODUCTS.length; group++) {
+      if (SMALL_PRIMES[groupStart] > searchLimit) {
+        break;
+      }
+      long residue = n.mod(SMALL_PRIME_PRODUCTS[group]).longValue();
+      for (int i = groupStart; 
+           i < SMALL_PRIME_GROUP_ENDS[group] && SMALL_PRIMES[i] <= searchLimit; i++) {
+        if (Long.compareUnsigned(residue * SMALL_PRIME_INVERSES[i], SMALL_PRIME_LIMITS[i]) <= 0) {
+          return SMALL_PRIMES[i];
+        }
+      }
+      groupStart = SMALL_PRIME_GROUP_ENDS[group];
+    }
+    return 0;
+  }
+  
+  /**
+   * Computes the largest value whose square is less than or equal to the provided value.
+   * 
+   * @param value Non-negative value to find the root of
+   * @return Integer square root of the value
+   */
+  protected static long isqrt(long value) {
+    long result = (long)Math.sqrt(value);
+    // correct for double rounding in either direction
+    while (result * result > value) {
+      result--;
+    }
+    while (result < MAX_LONG_SQRT && (result + 1) * (result + 1) <= value) {
+      result++;
+    }
+    return result;
+  }
+  
+  /**
+   * Checks every divisor in the range {@code [startVal, endVal]} which is a candidate of 
+   * {@link #wheel} against the value being tested.  Implementations should poll 
+   * {@link FactorSearch#isSmallerFactorKnown(long)} periodically (see {@link #POLL_MASK}), and 
+   * return {@code 0} once it reports {@code true}.
+   * 
+   * @param startVal Value to start checking from, larger than any prime in the wheel
+   * @param endVal Last value to check (inclusive)
+   * @param search State of the search this range is part of
+   * @return The first divisor found, or {@code 0} if none exist in the range
+   */
+  protected abstract long findFactor(long startVal, long endVal, FactorSearch search);
+  
+  /**
+   * Searches for the smallest odd divisor up to {@link #searchLimit}.  Small primes are checked 
+   * on the calling thread, with the rest of the range searched on the provided executor.  Even 
+   * divisors must be checked by the implementing class before calling this. 
+   * Cancelling the returned future will stop the search.
+   * 
+   * @param executor Executor to run chunks on
+   * @param parallelLevel Amount of chunks to have in flight at any time
+   * @return Future which completes with the smallest factor of the value, or {@code 0} if none 
+   *           exists
+   */
+  protected ListenableFuture<Long> searchForFactor(Executor executor, int parallelLevel) {
+    if (searchLimit < 3) {
+      return FutureUtils.immediateResultFuture(0L);
+    }
+    long smallFactor = findSmallFactor();
+    if (smallFactor != 0 || searchLimit < LARGEST_SMALL_PRIME + 2) {
+      return FutureUtils.immediateResultFuture(smallFactor);
+    } else if (searchLimit < MIN_PARALLEL_LIMIT) {
+      // low numbers are not worth executing out
+      return FutureUtils.immediateResultFuture(findFactor(LARGEST_SMALL_PRIME + 2, searchLimit, 
+                                                          new FactorSearch()));
+    }
+    
+    return new ChunkSearch(executor, parallelLevel).start();
+  }
+  
+  /**
+   * State shared by the workers of a single search.  Created for each search, so nothing from a 
+   * cancelled or completed search can be seen by a later one.
+   */
+  protected static class FactorSearch {
+    private final AtomicLong bestFactor;
+    private volatile boolean aborted;
+    
+    /**
+     * Constructs state for a new search, with no factor known.
+     */
+    protected FactorSearch() {
+      bestFactor = new AtomicLong(Long.MAX_VALUE);
+      aborted = false;
+    }
+    
+    /**
+     * Checks if the search has already found a factor smaller than the provided value, or has 
+     * been aborted.  This is only volatile reads, so it is cheap enough to call from within the 
+     * worker loop.
+     * 
+     * @param currentVal Divisor the worker is currently checking
+     * @return {@code true} if the worker should stop checking
+     */
+    public boolean isSmallerFactorKnown(long currentVal) {
+      return aborted || bestFactor.get() < currentVal;
+    }
+    
+    private void offerFactor(long factor) {
+      while (true) {
+        long current = bestFactor.get();
+        if (factor >= current || bestFactor.compareAndSet(current, factor)) {
+          return;
+        }
+      }
+    }
+  }
+  
+  /**
+   * State for handing out chunks as previously submitted chunks complete.
+   */
+  private class ChunkSearch {
+    private final FactorSearch search;
+    private final Executor executor;
+    private final int parallelLevel;
+    private final int maxInFlight;
+    private final List<ListenableFuture<ChunkResult>> inFlight;
+    private final SettableListenableFuture<Long> result;
+    private int submittedCount;
+    private long chunkSize;
+    private long nextStart;
+    private boolean factorFound;
+    
+    private ChunkSearch(Executor executor, int parallelLevel) {
+      search = new FactorSearch();
+      this.executor = executor;
+      this.parallelLevel = parallelLevel;
+      maxInFlight = parallelLevel * 2;
+      inFlight = new ArrayList<ListenableFuture<ChunkResult>>(maxInFlight);
+      result = new SettableListenableFuture<Long>(false);
+      submittedCount = 0;
+      chunkSize = INITIAL_CHUNK_SIZE;
+      nextStart = LARGEST_SMALL_PRIME + 2;
+      factorFound = false;
+    }
+    
+    private ListenableFuture<Long> start() {
+      result.listener(new Runnable() {
+        @Override
+        public void run() {
+          if (result.isCancelled()) {
+            abort();
+          }
+        }
+      });
+      synchronized (this) {
+        submitChunks();
+      }
+      return result;
+    }
+    
+    private void abort() {
+      // signal running workers and unqueue the rest
+      search.aborted = true;
+      synchronized (this) {
+        FutureUtils.cancelIncompleteFutures(inFlight, false);
+      }
+    }
+    
+    // must hold lock
+    private void submitChunks() {
+      // chunks are ascending, so once a factor is found nothing not yet submitted could be smaller
+      while (! factorFound && nextStart <= searchLimit && inFlight.size() < maxInFlight) {
+        long endVal;
+        if (searchLimit - nextStart <= (chunkSize - 1) * 2) {
+          endVal = searchLimit;
+        } else {
+          endVal = nextStart + ((chunkSize - 1) * 2);
+        }
+        TaskPriority priority = 
+            submittedCount++ < parallelLevel ? TaskPriority.High : TaskPriority.Low;
+        final ListenableFuture<ChunkResult> future = 
+            submit(executor, new ChunkWorker(search, nextStart, endVal), priority);
+        inFlight.add(future);
+        nextStart = endVal + 2;
+        // callback added after it is tracked so completion can always remove it
+        future.callback(new FutureCallback<ChunkResult>() {
+          @Override
+          public void handleResult(ChunkResult chunkResult) {
+            chunkComplete(future, chunkResult);
+          }
+          
+          @Override
+          public void handleFailure(Throwable t) {
+            chunkFailed(t);
+          }
+        });
+      }
+    }
+    
+    private void chunkComplete(ListenableFuture<ChunkResult> future, ChunkResult chunkResult) {
+      synchronized (this) {
+        inFlight.remove(future);
+        if (result.isDone()) {
+          return;
+        } else if (chunkResult.factor != 0) {
+          // remaining chunks below this factor are allowed to finish, everything above will stop
+          factorFound = true;
+        } else if (! factorFound) {
+          // size future chunks so they take about TARGET_CHUNK_NANOS to complete
+          long nanosPerValue = Math.max(1, chunkResult.nanos / chunkResult.valueCount);
+          chunkSize = Math.max(INITIAL_CHUNK_SIZE, 
+                               Math.min(chunkSize * MAX_CHUNK_GROWTH, 
+                                        TARGET_CHUNK_NANOS / nanosPerValue));
+        }
+        
+        submitChunks();
+        if (! inFlight.isEmpty()) {
+          return;
+        }
+      }
+      
+      // an aborted search already completed the result, so this only publishes found factors
+      long factor = search.bestFactor.get();
+      result.setResult(factor == Long.MAX_VALUE ? 0 : factor);
+    }
+    
+    private void chunkFailed(Throwable t) {
+      if (result.setFailure(t)) {
+        abort();
+      }
+    }
+  }
+  
+  /**
+   * Result from checking a single chunk of divisors.
+   */
+  private static class ChunkResult {
+    private final long factor;
+    private final long valueCount;
+    private final long nanos;
+    
+    private ChunkResult(long factor, long valueCount, long nanos) {
+      this.factor = factor;
+      this.valueCount = valueCount;
+      this.nanos = nanos;
+    }
+  }
+  
+  /**
+   * Checks a single chunk of divisors, recording how long the check took.
+   */
+  private class ChunkWorker implements Callable<ChunkResult> {
+    private final FactorSearch search;
+    private final long startVal;
+    private final long endVal;
+    
+    private ChunkWorker(FactorSearch search, long startVal, long endVal) {
+      this.search = search;
+      this.startVal = startVal;
+      this.endVal = endVal;
+    }
+    
+    @Override
+    public ChunkResult call() {
+      long start = System.nanoTime();
+      long factor = findFactor(startVal, endVal, search);
+      if (factor != 0) {
+        search.offerFactor(factor);
+      }
+      return new ChunkResult(factor, ((endVal - startVal) / 2) + 1, System.nanoTime() - start);
+    }
+  }
+}
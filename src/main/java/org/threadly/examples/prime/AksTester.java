@@ -0,0 +1,295 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+
+/**
+ * <p>Deterministic primality test using the Agrawal-Kayal-Saxena (AKS) algorithm.  Unlike 
+ * {@link MillerRabinTester} the answer from this is a proof, but it is dramatically slower.  The 
+ * expensive part is verifying the polynomial congruence 
+ * {@code (x + a)^n = x^n + a mod (x^r - 1, n)} for many values of {@code a}.  Each congruence is 
+ * independent, so the range of {@code a} values is split across the provided executor, and the 
+ * first congruence which fails cancels the remaining checks.</p>
+ * 
+ * <p>Polynomials are stored as primitive {@code long[]} coefficient arrays in Montgomery form 
+ * (see {@link MontgomeryReducer}).  Each worker allocates its buffers once and reuses them for 
+ * every congruence it checks, so the multiply-mod loops do not allocate.  Because of this the 
+ * number to test must fit in a {@code long}.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class AksTester extends AbstractPrimeProcessor {
+  private final long value;
+  
+  /**
+   * Constructs a new tester which will use the AKS algorithm.
+   * 
+   * @param n Number to test against
+   */
+  public AksTester(long n) {
+    super(BigInteger.valueOf(n));
+    
+    this.value = n;
+  }
+  
+  @Override
+  protected ListenableFuture<PrimeResult> doIsPrime(Executor executor, int parallelLevel) {
+    if (value < 2) {
+      return FutureUtils.immediateResultFuture(compositeResult(null));
+    } else if (value < 4) {
+      return FutureUtils.immediateResultFuture(primeResult());
+    } else if ((value & 1) == 0) {
+      return FutureUtils.immediateResultFuture(compositeResult(BigInteger.valueOf(2)));
+    }
+    
+    // step 1, check if n is a perfect power
+    long root = perfectPowerRoot(value);
+    if (root != 0) {
+      return FutureUtils.immediateResultFuture(compositeResult(BigInteger.valueOf(root)));
+    }
+    
+    // step 2, find the smallest r such that the order of n mod r is greater than log2(n)^2
+    double log2n = Math.log(value) / Math.log(2);
+    int r = smallestR(value, (long)Math.floor(log2n * log2n));
+    
+    // step 3, check for small factors
+    for (long a = Math.min(r, value - 1); a >= 2; a--) {
+      long gcd = gcd(a, value);
+      if (gcd > 1 && gcd < value) {
+        BigInteger factor = BigInteger.valueOf(smallestFactor(gcd));
+        return FutureUtils.immediateResultFuture(compositeResult(factor));
+      }
+    }
+    
+    // step 4
+    if (value <= r) {
+      return FutureUtils.immediateResultFuture(primeResult());
+    }
+    
+    // step 5, verify the polynomial congruences in parallel
+    long limit = (long)Math.floor(Math.sqrt(totient(r)) * log2n);
+    int tasks = (int)Math.max(1, Math.min(parallelLevel, limit));
+    long valuesPerTask = limit / tasks;
+    List<ListenableFuture<Long>> futures = new ArrayList<ListenableFuture<Long>>(tasks);
+    for (int i = 0; i < tasks; i++) {
+      long start = 1 + (valuesPerTask * i);
+      long end = i == tasks - 1 ? limit : valuesPerTask * (i + 1);
+      futures.add(submit(executor, new CongruenceWorker(value, r, start, end), TaskPriority.High));
+    }
+    
+    return makeFirstNonNullFuture(futures).map(new Function<Long, PrimeResult>() {
+      @Override
+      public PrimeResult apply(Long failedA) {
+        if (failedA == null) {
+          return primeResult();
+        } else {
+          return compositeResult(null);
+        }
+      }
+    });
+  }
+  
+  /**
+   * Checks if the value is {@code a^b} for some {@code b > 1}.
+   * 
+   * @param value Value to inspect
+   * @return The base {@code a} if the value is a perfect power, otherwise {@code 0}
+   */
+  private static long perfectPowerRoot(long value) {
+    for (int b = 2; b < Long.SIZE - 1 && (1L << b) <= value; b++) {
+      long estimate = Math.round(Math.pow(value, 1.0 / b));
+      for (long a = Math.max(2, estimate - 1); a <= estimate + 1; a++) {
+        if (powEquals(a, b, value)) {
+          return a;
+        }
+      }
+    }
+    return 0;
+  }
+  
+  private static boolean powEquals(long base, int exponent, long value) {
+    long result = 1;
+    for (int i = 0; i < exponent; i++) {
+      if (result > value / base) {
+        return false;
+      }
+      result *= base;
+    }
+    return result == value;
+  }
+  
+  private static int smallestR(long n, long maxK) {
+    for (int r = 2; ; r++) {
+      if (gcd(r, n) != 1) {
+        continue;
+      }
+      long nModR = n % r;
+      long value = 1;
+      boolean orderFound = false;
+      for (long k = 1; k <= maxK; k++) {
+        value = (value * nModR) % r;
+        if (value == 1) {
+          orderFound = true;
+          break;
+        }
+      }
+      if (! orderFound) {
+        return r;
+      }
+    }
+  }
+  
+  private static long totient(long value) {
+    long result = value;
+    for (long p = 2; p * p <= value; p++) {
+      if (value % p == 0) {
+        while (value % p == 0) {
+          value /= p;
+        }
+        result -= result / p;
+      }
+    }
+    if (value > 1) {
+      result -= result / value;
+    }
+    return result;
+  }
+  
+  private static long smallestFactor(long value) {
+    for (long p = 2; p * p <= value; p++) {
+      if (value % p == 0) {
+        return p;
+      }
+    }
+    return value;
+  }
+  
+  private static long gcd(long a, long b) {
+    while (b != 0) {
+      long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+  
+  /**
+   * Verifies the congruence {@code (x + a)^n = x^n + a mod (x^r - 1, n)} for a range of 
+   * {@code a} values.  Returns the first {@code a} which the congruence does not hold for, or 
+   * {@code null} if it holds for all of them.
+   */
+  private static class CongruenceWorker implements Callable<Long> {
+    private final long testVal;
+    private final int r;
+    private final long startA;
+    private final long endA;
+    
+    private CongruenceWorker(long testVal, int r, long startA, long endA) {
+      this.testVal = testVal;
+      this.r = r;
+      this.startA = startA;
+      this.endA = endA;
+    }
+    
+    @Override
+    public Long call() throws InterruptedException {
+      MontgomeryReducer reducer = new MontgomeryReducer(testVal);
+      // buffers are allocated once and swapped between for each multiplication
+      long[] result = new long[r];
+      long[] scratch = new long[r];
+      int nModR = (int)(testVal % r);
+      
+      for (long a = startA; a <= endA; a++) {
+        long montA = reducer.toMontgomery(a);
+        
+        // compute (x + a)^n with square and multiply, multiplying by (x + a) is only linear
+        Arrays.fill(result, 0);
+        result[0] = reducer.one();
+        for (int bit = Long.SIZE - 1 - Long.numberOfLeadingZeros(testVal); bit >= 0; bit--) {
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          squareMod(reducer, result, scratch);
+          long[] t = result;
+          result = scratch;
+          scratch = t;
+          if (((testVal >>> bit) & 1) == 1) {
+            multiplyLinearMod(reducer, montA, result, scratch);
+            t = result;
+            result = scratch;
+            scratch = t;
+          }
+        }
+        
+        // compare against x^(n mod r) + a
+        for (int i = 0; i < r; i++) {
+          long expected;
+          if (i == 0 && nModR == 0) {
+            expected = reducer.add(reducer.one(), montA);
+          } else if (i == 0) {
+            expected = montA;
+          } else if (i == nModR) {
+            expected = reducer.one();
+          } else {
+            expected = 0;
+          }
+          if (result[i] != expected) {
+            return a;
+          }
+        }
+      }
+      
+      return null;
+    }
+    
+    /**
+     * Squares the polynomial modulo {@code (x^r - 1, n)}.  Since the product is symmetric only 
+     * half of the cross terms are multiplied, and are then doubled.
+     */
+    private void squareMod(MontgomeryReducer reducer, long[] poly, long[] out) {
+      Arrays.fill(out, 0);
+      for (int i = 0; i < r; i++) {
+        long c = poly[i];
+        if (c == 0) {
+          continue;
+        }
+        int index = i + i;
+        if (index >= r) {
+          index -= r;
+        }
+        out[index] = reducer.add(out[index], reducer.multiply(c, c));
+        long doubled = reducer.add(c, c);
+        index = i + i + 1;
+        for (int j = i + 1; j < r; j++, index++) {
+          if (index >= r) {
+            index -= r;
+          }
+          long d = poly[j];
+          if (d != 0) {
+            out[index] = reducer.add(out[index], reducer.multiply(doubled, d));
+          }
+        }
+      }
+    }
+    
+    /**
+     * Multiplies the polynomial by {@code (x + a)} modulo {@code (x^r - 1, n)}.
+     */
+    private void multiplyLinearMod(MontgomeryReducer reducer, long montA, long[] poly, long[] out) {
+      long last = poly[r - 1];
+      for (int i = r - 1; i > 0; i--) {
+        out[i] = reducer.add(poly[i - 1], reducer.multiply(montA, poly[i]));
+      }
+      out[0] = reducer.add(last, reducer.multiply(montA, poly[0]));
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Compares each {@link PrimeExecutionBackend} by submitting thousands of numbers at once, 
+ * so that every number is in flight at the same time.  For each backend the throughput is 
+ * reported, along with the median and 99th percentile time from submission until a number's 
+ * result was available.</p>
+ * 
+ * <p>The same set of numbers is tested by every backend, and results are not cached so that 
+ * each backend does the same amount of processing work.  Numbers are tested with trial division, 
+ * so that each one is split into chunks for the backend to coordinate.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class BackendBenchmark {
+  private static final int DEFAULT_COUNT = 5000;
+  private static final long MIN_NUMBER = 100_000_000_000L;
+  private static final String[] BACKENDS = new String[] { "async", "virtual", "platform" };
+  
+  @SuppressWarnings("javadoc")
+  public static void main(final String args[]) throws InterruptedException {
+    int count = DEFAULT_COUNT;
+    if (args.length > 0) {
+      try {
+        count = Integer.parseInt(args[0]);
+      } catch (NumberFormatException e) {
+        count = -1;
+      }
+    }
+    if (count < 1) {
+      System.err.println("Usage: java -cp threadly_examples.jar " + 
+                           BackendBenchmark.class.getName() + 
+                           " [count of numbers to test, default " + DEFAULT_COUNT + "]");
+      System.exit(1);
+    }
+    
+    // odd 12 digit values, expensive enough to matter but small enough to test quickly
+    Random random = new Random(count);
+    BigInteger[] numbers = new BigInteger[count];
+    for (int i = 0; i < count; i++) {
+      long value = MIN_NUMBER + (long)(random.nextDouble() * MIN_NUMBER * 9);
+      numbers[i] = BigInteger.valueOf(value | 1);
+    }
+    
+    int workerThreads = Runtime.getRuntime().availableProcessors();
+    System.out.println("Testing " + count + " numbers on " + workerThreads + " worker threads");
+    for (String name : BACKENDS) {
+      PrimeExecutionBackend backend = PrimeExecutionBackend.fromName(name, workerThreads);
+      try {
+        // first pass warms up the JIT, only the second is reported
+        run(backend, numbers);
+        System.out.println(backend.getDescription() + ": " + run(backend, numbers));
+      } catch (ExecutionException e) {
+        throw ExceptionUtils.makeRuntime(e.getCause());
+      } finally {
+        backend.shutdownNow();
+      }
+    }
+  }
+  
+  private static String run(PrimeExecutionBackend backend, 
+                            BigInteger[] numbers) throws InterruptedException, ExecutionException {
+    final long start = Clock.accurateForwardProgressingMillis();
+    List<ListenableFuture<Long>> futures = new ArrayList<ListenableFuture<Long>>(numbers.length);
+    for (BigInteger n : numbers) {
+      futures.add(backend.test(new LongTester(n.longValue())) 
+                         .map(new Function<PrimeResult, Long>() {
+        @Override
+        public Long apply(PrimeResult result) {
+          return Clock.accurateForwardProgressingMillis() - start;
+        }
+      }));
+    }
+    List<Long> latencies = FutureUtils.makeResultListFuture(futures, false).get();
+    long elapsed = Math.max(1, Clock.accurateForwardProgressingMillis() - start);
+    
+    long[] sorted = new long[latencies.size()];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = latencies.get(i);
+    }
+    Arrays.sort(sorted);
+    return ((numbers.length * 1000L) / elapsed) + " numbers/sec, p50 " + 
+             percentile(sorted, 50) + "ms, p99 " + percentile(sorted, 99) + "ms";
+  }
+  
+  private static long percentile(long[] sorted, int percentile) {
+    int index = (int)Math.ceil(sorted.length * percentile / 100.0) - 1;
+    return sorted[Math.max(0, index)];
+  }
+}
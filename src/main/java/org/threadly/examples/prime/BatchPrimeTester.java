@@ -0,0 +1,326 @@
+package org.threadly.examples.prime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureCallback;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Streaming version of {@link PrimeTester} for testing very large amounts of numbers.  Numbers 
+ * are read from a memory mapped file, either as newline separated decimal text, or as 8 byte 
+ * big endian values.  They are grouped into batches which are tested on the scheduler, with only 
+ * a bounded amount of batches in flight at once so memory use does not depend on the input size. 
+ * Results are written to the output file either in input order, or in whatever order batches 
+ * complete.</p>
+ * 
+ * <p>Each output line is the number followed by {@code prime}, or {@code composite} and (when 
+ * known) a factor.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class BatchPrimeTester {
+  private static final int BATCH_SIZE = 1024;
+  private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final byte[] PRIME = " prime\n".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] COMPOSITE = " composite".getBytes(StandardCharsets.US_ASCII);
+  
+  @SuppressWarnings("javadoc")
+  public static void main(final String args[]) throws InterruptedException, IOException {
+    boolean binary = false;
+    boolean ordered = true;
+    int argIndex = 0;
+    while (argIndex < args.length && args[argIndex].startsWith("-")) {
+      if (args[argIndex].equals("-binary")) {
+        binary = true;
+      } else if (args[argIndex].equals("-unordered")) {
+        ordered = false;
+      } else {
+        break;
+      }
+      argIndex++;
+    }
+    if (args.length - argIndex < 2) {
+      System.err.println("No input or output file provided");
+      System.err.println("Usage: java -cp threadly_examples.jar " + 
+                           BatchPrimeTester.class.getName() + 
+                           " [-binary] [-unordered] [input file] [output file]");
+      System.err.println("\t-binary: Input is 8 byte big endian values instead of text lines");
+      System.err.println("\t-unordered: Write results as batches complete rather than in " + 
+                           "input order");
+      System.exit(1);
+    }
+    
+    final int processingThreads = Runtime.getRuntime().availableProcessors() * 2;
+    final PriorityScheduler executor = new PriorityScheduler(processingThreads, true);
+    executor.prestartAllThreads();
+    
+    long start = Clock.accurateForwardProgressingMillis();
+    try (RandomAccessFile output = new RandomAccessFile(args[argIndex + 1], "rw")) {
+      output.setLength(0);
+      BatchRun run = new BatchRun(executor, processingThreads, output.getChannel(), ordered);
+      long count = run.process(new File(args[argIndex]), binary);
+      long elapsed = Math.max(1, Clock.accurateForwardProgressingMillis() - start);
+      System.out.println("Tested " + count + " numbers in " + elapsed + "ms (" + 
+                           ((count * 1000) / elapsed) + " numbers/sec)");
+    } catch (ExecutionException e) {
+      throw ExceptionUtils.makeRuntime(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
+  /**
+   * State for reading, testing and writing a single input file.
+   */
+  private static class BatchRun {
+    private final Executor executor;
+    private final int parallelLevel;
+    private final FileChannel output;
+    private final boolean ordered;
+    private final Semaphore inFlightPermits;
+    private final ByteBuffer writeBuffer;
+    private final SettableListenableFuture<?> failure;
+    // completed batches waiting on an earlier batch, only used when ordered
+    private final Map<Long, List<PrimeResult>> completedBatches;
+    private long nextWriteIndex;
+    
+    private BatchRun(Executor executor, int parallelLevel, FileChannel output, boolean ordered) {
+      this.executor = executor;
+      this.parallelLevel = parallelLevel;
+      this.output = output;
+      this.ordered = ordered;
+      inFlightPermits = new Semaphore(parallelLevel * 2);
+      writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+      failure = new SettableListenableFuture<Void>(false);
+      completedBatches = new HashMap<Long, List<PrimeResult>>();
+      nextWriteIndex = 0;
+    }
+    
+    /**
+     * Reads the input file, blocking once too many batches are in flight.
+     * 
+     * @return The count of numbers tested
+     */
+    private long process(File input, boolean binary) throws IOException, InterruptedException, 
+                                                             ExecutionException {
+      long count = 0;
+      long batchIndex = 0;
+      List<BigInteger> batch = new ArrayList<BigInteger>(BATCH_SIZE);
+      try (RandomAccessFile raf = new RandomAccessFile(input, "r")) {
+        FileChannel channel = raf.getChannel();
+        long size = channel.size();
+        long position = 0;
+        StringBuilder digits = new StringBuilder();
+        while (position < size) {
+          long windowSize = Math.min(MAP_WINDOW_SIZE, size - position);
+          MappedByteBuffer window = channel.map(MapMode.READ_ONLY, position, windowSize);
+          if (binary) {
+            while (window.remaining() >= Long.BYTES) {
+              batch.add(BigInteger.valueOf(window.getLong()));
+              if (batch.size() == BATCH_SIZE) {
+                count += submitBatch(batchIndex++, batch);
+                batch = new ArrayList<BigInteger>(BATCH_SIZE);
+              }
+            }
+            // a partial value at the end of a window is re-read at the start of the next
+            position += window.position();
+            if (window.remaining() > 0 && position + window.remaining() == size) {
+              throw new IOException("Input size is not a multiple of " + Long.BYTES);
+            }
+          } else {
+            // digits carry across windows, so windows do not need to align with lines
+            while (window.hasRemaining()) {
+              byte b = window.get();
+              if (b >= '0' && b <= '9') {
+                digits.append((char)b);
+              } else if (b == '\n' && digits.length() > 0) {
+                batch.add(parseNumber(digits));
+                digits.setLength(0);
+                if (batch.size() == BATCH_SIZE) {
+                  count += submitBatch(batchIndex++, batch);
+                  batch = new ArrayList<BigInteger>(BATCH_SIZE);
+                }
+              } else if (b != '\n' && b != '\r') {
+                throw new IOException("Unexpected character '" + (char)b + "' at " + 
+                                        (position + window.position() - 1));
+              }
+            }
+            position += windowSize;
+          }
+          checkFailure();
+        }
+        if (digits.length() > 0) {
+          batch.add(parseNumber(digits));
+        }
+        if (! batch.isEmpty()) {
+          count += submitBatch(batchIndex++, batch);
+        }
+      }
+      
+      // wait for every permit to be returned, meaning all batches have been written
+      acquirePermits(parallelLevel * 2);
+      synchronized (this) {
+        flush();
+      }
+      return count;
+    }
+    
+    private void checkFailure() throws InterruptedException, ExecutionException {
+      if (failure.isDone()) {
+        failure.get();  // will throw
+      }
+    }
+    
+    // once a batch has failed, permits for later batches may never be returned in ordered mode
+    private void acquirePermits(int permits) throws InterruptedException, ExecutionException {
+      while (! inFlightPermits.tryAcquire(permits, 100, TimeUnit.MILLISECONDS)) {
+        checkFailure();
+      }
+      checkFailure();
+    }
+    
+    private static BigInteger parseNumber(StringBuilder digits) {
+      if (digits.length() < 19) {
+        return BigInteger.valueOf(Long.parseLong(digits, 0, digits.length(), 10));
+      } else {
+        return new BigInteger(digits.toString());
+      }
+    }
+    
+    private int submitBatch(final long batchIndex, 
+                            final List<BigInteger> batch) throws InterruptedException, 
+                                                                 ExecutionException {
+      acquirePermits(1);
+      // batch task tests small values inline, large values fan out to the executor
+      Callable<List<ListenableFuture<PrimeResult>>> startTests = 
+          new Callable<List<ListenableFuture<PrimeResult>>>() {
+            @Override
+            public List<ListenableFuture<PrimeResult>> call() {
+              List<ListenableFuture<PrimeResult>> futures = 
+                  new ArrayList<ListenableFuture<PrimeResult>>(batch.size());
+              for (BigInteger n : batch) {
+                PrimeProcessor processor = PrimeProcessorFactory.makeProcessor(n);
+                futures.add(processor.isPrimeAsync(executor, parallelLevel));
+              }
+              return futures;
+            }
+          };
+      ListenableFuture<List<ListenableFuture<PrimeResult>>> started = 
+          AbstractPrimeProcessor.submit(executor, startTests, TaskPriority.High);
+      started.flatMap(new Function<List<ListenableFuture<PrimeResult>>, 
+                                   ListenableFuture<List<PrimeResult>>>() {
+        @Override
+        public ListenableFuture<List<PrimeResult>> apply(
+            List<ListenableFuture<PrimeResult>> futures) {
+          return FutureUtils.makeResultListFuture(futures, false);
+        }
+      }).callback(new FutureCallback<List<PrimeResult>>() {
+        @Override
+        public void handleResult(List<PrimeResult> results) {
+          try {
+            batchComplete(batchIndex, results);
+          } catch (IOException e) {
+            handleFailure(e);
+          }
+        }
+        
+        @Override
+        public void handleFailure(Throwable t) {
+          failure.setFailure(t);
+          inFlightPermits.release();
+        }
+      });
+      return batch.size();
+    }
+    
+    private synchronized void batchComplete(long batchIndex, 
+                                            List<PrimeResult> results) throws IOException {
+      if (! ordered) {
+        write(results);
+        inFlightPermits.release();
+        return;
+      }
+      
+      completedBatches.put(batchIndex, results);
+      while ((results = completedBatches.remove(nextWriteIndex)) != null) {
+        write(results);
+        nextWriteIndex++;
+        inFlightPermits.release();
+      }
+    }
+    
+    // must hold lock
+    private void write(List<PrimeResult> results) throws IOException {
+      for (PrimeResult r : results) {
+        byte[] number = r.number.toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] factor = r.isPrime || r.factor == null ? 
+            null : r.factor.toString().getBytes(StandardCharsets.US_ASCII);
+        int length = number.length + COMPOSITE.length + 2 + (factor == null ? 0 : factor.length);
+        if (writeBuffer.remaining() < length) {
+          flush();
+          if (length > writeBuffer.capacity()) {
+            // can never fit in the buffer, so written on its own
+            ByteBuffer line = ByteBuffer.allocate(length);
+            putLine(line, r, number, factor);
+            line.flip();
+            writeFully(line);
+            continue;
+          }
+        }
+        putLine(writeBuffer, r, number, factor);
+      }
+    }
+    
+    private void putLine(ByteBuffer buffer, PrimeResult r, byte[] number, byte[] factor) {
+      buffer.put(number);
+      if (r.isPrime) {
+        buffer.put(PRIME);
+      } else {
+        buffer.put(COMPOSITE);
+        if (factor != null) {
+          buffer.put((byte)' ');
+          buffer.put(factor);
+        }
+        buffer.put((byte)'\n');
+      }
+    }
+    
+    // must hold lock
+    private void flush() throws IOException {
+      writeBuffer.flip();
+      writeFully(writeBuffer);
+      writeBuffer.clear();
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        output.write(buffer);
+      }
+    }
+  }
+}
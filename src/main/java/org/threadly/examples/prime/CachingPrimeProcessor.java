@@ -0,0 +1,37 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+import java.util.concurrent.Executor;
+
+import org.threadly.concurrent.future.ListenableFuture;
+
+/**
+ * <p>Decorator which checks a {@link PrimeResultCache} before using another 
+ * {@link PrimeProcessor}.  The wrapped processor is only invoked on a cache miss, and only if no 
+ * other processor is already computing the same number.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class CachingPrimeProcessor extends AbstractPrimeProcessor {
+  private final PrimeResultCache cache;
+  private final PrimeProcessor delegate;
+  
+  /**
+   * Constructs a new caching processor.
+   * 
+   * @param cache Cache to check and store results to
+   * @param n Number to test against
+   * @param delegate Processor to test the number with on a cache miss
+   */
+  public CachingPrimeProcessor(PrimeResultCache cache, BigInteger n, PrimeProcessor delegate) {
+    super(n);
+    
+    this.cache = cache;
+    this.delegate = delegate;
+  }
+  
+  @Override
+  protected ListenableFuture<PrimeResult> doIsPrime(Executor executor, int parallelLevel) {
+    return cache.getOrCompute(n, delegate, executor, parallelLevel);
+  }
+}
@@ -1,29 +1,22 @@
 package org.threadly.examples.prime;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Future;
+import java.util.function.Function;
 
 import org.threadly.concurrent.future.FutureUtils;
-import org.threadly.util.ExceptionUtils;
+import org.threadly.concurrent.future.ListenableFuture;
 
 /**
  * <p>A very simple and stupid implementation to test prime numbers.  It divides the work in 
- * parallel, but just does a modulus on the number compared to every other odd number that is less 
- * than the provided number.</p>
+ * parallel, but just does a modulus on the number compared to every wheel candidate up to the 
+ * square root of the provided number.</p>
  * 
  * @author jent - Mike Jensen
  */
-public class DumbTester implements PrimeProcessor {
+public class DumbTester extends AbstractTrialDivisionTester {
   private static final BigInteger TWO = BigInteger.ONE.add(BigInteger.ONE);
-  
-  private final BigInteger n;
-  private BigInteger factor;
+  private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
   
   /**
    * Constructs a tester with a very basic test algorithm.
@@ -31,94 +24,58 @@ public class DumbTester implements PrimeProcessor {
    * @param n Number to test against
    */
   public DumbTester(BigInteger n) {
-    this.n = n;
-    factor = null;
+    this(n, Wheel.DEFAULT);
   }
   
-  @Override
-  public BigInteger getFactor() {
-    return factor;
+  /**
+   * Constructs a tester with a very basic test algorithm, skipping divisors with the provided 
+   * wheel.
+   * 
+   * @param n Number to test against
+   * @param wheel Wheel to skip divisors with
+   */
+  public DumbTester(BigInteger n, Wheel wheel) {
+    super(n, n.signum() < 0 ? 0 : n.sqrt().min(MAX_LONG).longValue(), wheel);
   }
   
   @Override
-  public boolean isPrime(Executor executor, int parallelLevel) throws InterruptedException {
-    if (factor != null) {
-      return false;
+  protected ListenableFuture<PrimeResult> doIsPrime(Executor executor, int parallelLevel) {
+    if (n.compareTo(TWO) < 0) {
+      return FutureUtils.immediateResultFuture(compositeResult(null));
+    } else if (n.equals(TWO)) {
+      return FutureUtils.immediateResultFuture(primeResult());
     }
     
     // quick check for even numbers
     if (n.mod(TWO).equals(BigInteger.ZERO)) {
-      factor = TWO;
-      return false;
-    }
-    
-    ExecutorCompletionService<BigInteger> ecs = new ExecutorCompletionService<BigInteger>(executor);
-    List<Future<BigInteger>> futures = new ArrayList<Future<BigInteger>>(parallelLevel);
-    
-    // low numbers are not worth executing out
-    BigInteger valuesPerThread = n.divide(BigInteger.valueOf(parallelLevel));
-    if (valuesPerThread.intValue() < 10) {
-      factor = new PrimeWorker(n, BigInteger.valueOf(3), n).call();
-      
-      return factor == null;
-    }
-    
-    for (int i = 0; i < parallelLevel; i++) {
-      futures.add(ecs.submit(new PrimeWorker(n, valuesPerThread.multiply(BigInteger.valueOf(i)), 
-                                             valuesPerThread.multiply(BigInteger.valueOf(i + 1)))));
+      return FutureUtils.immediateResultFuture(compositeResult(TWO));
     }
     
-    for (int i = 0; i < parallelLevel; i++) {
-      Future<BigInteger> future = ecs.take();
-      try {
-        if (future.get() != null) {
-          factor = future.get();
-          FutureUtils.cancelIncompleteFutures(futures, true);
-          return false;
+    return searchForFactor(executor, parallelLevel).map(new Function<Long, PrimeResult>() {
+      @Override
+      public PrimeResult apply(Long factor) {
+        if (factor == 0) {
+          return primeResult();
+        } else {
+          return compositeResult(BigInteger.valueOf(factor));
         }
-      } catch (ExecutionException e) {
-        throw ExceptionUtils.makeRuntime(e.getCause());
       }
-    }
-    
-    return true;
+    });
   }
   
-  private static class PrimeWorker implements Callable<BigInteger> {
-    private final BigInteger testVal;
-    private final BigInteger startVal;
-    private final BigInteger endVal;
-    
-    private PrimeWorker(BigInteger testVal, 
-                        BigInteger startVal, 
-                        BigInteger endVal) {
-      this.testVal = testVal;
-      if (startVal.mod(TWO).equals(BigInteger.ZERO)) {
-        startVal = startVal.add(BigInteger.ONE);
-      }
-      if (startVal.equals(BigInteger.ONE)) {
-        startVal = startVal.add(TWO);
-      }
-      this.startVal = startVal;
-      if (endVal.equals(testVal)) {
-        endVal = endVal.subtract(BigInteger.ONE);
+  @Override
+  protected long findFactor(long startVal, long endVal, FactorSearch search) {
+    int count = 0;
+    long currentVal = wheel.firstCandidate(startVal);
+    for (int spoke = wheel.spokeIndex(currentVal); currentVal <= endVal; 
+         currentVal += wheel.gap(spoke), spoke = wheel.nextSpoke(spoke)) {
+      if (n.mod(BigInteger.valueOf(currentVal)).equals(BigInteger.ZERO)) {
+        return currentVal;
+      } else if ((++count & POLL_MASK) == 0 && search.isSmallerFactorKnown(currentVal)) {
+        return 0;
       }
-      this.endVal = endVal;
     }
     
-    @Override
-    public BigInteger call() throws InterruptedException {
-      for (BigInteger currentVal = startVal; 
-           currentVal.compareTo(endVal) <= 0; 
-           currentVal = currentVal.add(TWO)) {
-        if (testVal.mod(currentVal).equals(BigInteger.ZERO)) {
-          return currentVal;
-        } else if (Thread.interrupted()) {
-          throw new InterruptedException();
-        }
-      }
-      
-      return null;
-    }
+    return 0;
   }
 }
@@ -0,0 +1,527 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+
+/**
+ * <p>Computes the complete prime factorization of a number.  Small factors are removed with trial 
+ * division on the calling thread, then each remaining cofactor is checked with 
+ * {@link MillerRabinTester}.  Composite cofactors are split by racing Pollard-Brent rho against 
+ * several Lenstra elliptic curve (ECM) workers on the executor.  The first attempt to find a 
+ * factor cancels the others, and both halves are then factored in parallel until every part is 
+ * prime.</p>
+ * 
+ * <p>Pollard rho is quick for factors up to about 12 digits, while ECM (with bounds increasing as 
+ * more curves fail) is able to find factors of 25 to 30 digits in a reasonable amount of time. 
+ * Since cofactors are only declared prime by {@link MillerRabinTester}, a factorization is only 
+ * as certain as the Baillie-PSW test it uses.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class Factorizer {
+  private static final int TRIAL_DIVISION_LIMIT = 1 << 16;
+  private static final int STAGE_TWO_MULTIPLIER = 100;
+  // stage two baby step size, only values coprime to 2 * 3 * 5 * 7 need baby steps
+  private static final int STAGE_TWO_D = 210;
+  // ECM stage one bounds, and how many curves to run at each before moving to the next
+  private static final int[] ECM_B1 = new int[] { 2_000, 11_000, 50_000, 250_000, 1_000_000 };
+  private static final int[] ECM_CURVES = new int[] { 25, 90, 300, 700, Integer.MAX_VALUE };
+  private static final int RHO_BATCH_SIZE = 128;
+  private static final BigInteger TWO = BigInteger.valueOf(2);
+  
+  private final Executor executor;
+  private final int parallelLevel;
+  private final SegmentedSieve primeSource;
+  private final Random seedRandom;
+  
+  /**
+   * Constructs a new factorizer which will run factoring attempts on the provided executor.
+   * 
+   * @param executor Executor to run factoring attempts and primality tests on
+   * @param parallelLevel Amount of concurrent attempts to make when splitting a cofactor
+   */
+  public Factorizer(Executor executor, int parallelLevel) {
+    this.executor = executor;
+    this.parallelLevel = Math.max(2, parallelLevel);
+    primeSource = new SegmentedSieve(executor, 1);
+    seedRandom = new Random();
+  }
+  
+  /**
+   * Computes the prime factorization of the provided value.  The returned list is ordered by 
+   * ascending prime, and is empty for {@code 1}.
+   * 
+   * @param n Positive number to factor
+   * @return Future which will complete with each prime factor and its exponent
+   */
+  public ListenableFuture<List<PrimePower>> factor(BigInteger n) {
+    if (n.signum() <= 0) {
+      throw new IllegalArgumentException("Can only factor positive values: " + n);
+    }
+    
+    final List<BigInteger> smallFactors = new ArrayList<BigInteger>();
+    int twos = n.getLowestSetBit();
+    for (int i = 0; i < twos; i++) {
+      smallFactors.add(TWO);
+    }
+    n = n.shiftRight(twos);
+    for (int p : primeSource.getBasePrimes(TRIAL_DIVISION_LIMIT)) {
+      BigInteger prime = BigInteger.valueOf(p);
+      if (prime.multiply(prime).compareTo(n) > 0) {
+        break;
+      }
+      BigInteger[] divRem = n.divideAndRemainder(prime);
+      while (divRem[1].signum() == 0) {
+        smallFactors.add(prime);
+        n = divRem[0];
+        divRem = n.divideAndRemainder(prime);
+      }
+    }
+    
+    return primeFactors(n).map(new Function<List<BigInteger>, List<PrimePower>>() {
+      @Override
+      public List<PrimePower> apply(List<BigInteger> factors) {
+        Map<BigInteger, Integer> exponents = new TreeMap<BigInteger, Integer>();
+        List<BigInteger> allFactors = new ArrayList<BigInteger>(smallFactors);
+        allFactors.addAll(factors);
+        for (BigInteger p : allFactors) {
+          Integer exponent = exponents.get(p);
+          exponents.put(p, exponent == null ? 1 : exponent + 1);
+        }
+        List<PrimePower> result = new ArrayList<PrimePower>(exponents.size());
+        for (Map.Entry<BigInteger, Integer> e : exponents.entrySet()) {
+          result.add(new PrimePower(e.getKey(), e.getValue()));
+        }
+        return result;
+      }
+    });
+  }
+  
+  /**
+   * Finds every prime factor (with repeats) of a value which has no small factors.
+   */
+  private ListenableFuture<List<BigInteger>> primeFactors(final BigInteger n) {
+    if (n.equals(BigInteger.ONE)) {
+      return FutureUtils.immediateResultFuture(Collections.<BigInteger>emptyList());
+    }
+    
+    ListenableFuture<PrimeResult> primeCheck = 
+        new MillerRabinTester(n).isPrimeAsync(executor, parallelLevel);
+    return primeCheck.flatMap(new Function<PrimeResult, ListenableFuture<List<BigInteger>>>() {
+      @Override
+      public ListenableFuture<List<BigInteger>> apply(PrimeResult result) {
+        if (result.isPrime) {
+          return FutureUtils.immediateResultFuture(Collections.singletonList(n));
+        }
+        
+        ListenableFuture<BigInteger> split;
+        if (isProperFactor(result.factor, n)) {
+          split = FutureUtils.immediateResultFuture(result.factor);
+        } else {
+          split = findFactor(n);
+        }
+        return split.flatMap(new Function<BigInteger, ListenableFuture<List<BigInteger>>>() {
+          @Override
+          public ListenableFuture<List<BigInteger>> apply(BigInteger factor) {
+            List<ListenableFuture<List<BigInteger>>> parts = 
+                new ArrayList<ListenableFuture<List<BigInteger>>>(2);
+            parts.add(primeFactors(factor));
+            parts.add(primeFactors(n.divide(factor)));
+            return FutureUtils.makeResultListFuture(parts, false) 
+                              .map(new Function<List<List<BigInteger>>, List<BigInteger>>() {
+              @Override
+              public List<BigInteger> apply(List<List<BigInteger>> lists) {
+                List<BigInteger> combined = new ArrayList<BigInteger>();
+                for (List<BigInteger> l : lists) {
+                  combined.addAll(l);
+                }
+                return combined;
+              }
+            });
+          }
+        });
+      }
+    });
+  }
+  
+  private static boolean isProperFactor(BigInteger factor, BigInteger n) {
+    return factor != null && factor.compareTo(BigInteger.ONE) > 0 && factor.compareTo(n) < 0;
+  }
+  
+  /**
+   * Finds a proper factor of a composite value.  Perfect powers are detected directly, otherwise 
+   * Pollard rho and ECM workers race on the executor.
+   */
+  private ListenableFuture<BigInteger> findFactor(BigInteger n) {
+    BigInteger root = perfectPowerRoot(n);
+    if (root != null) {
+      return FutureUtils.immediateResultFuture(root);
+    }
+    
+    List<ListenableFuture<BigInteger>> attempts = 
+        new ArrayList<ListenableFuture<BigInteger>>(parallelLevel);
+    long seed;
+    synchronized (seedRandom) {
+      seed = seedRandom.nextLong();
+    }
+    attempts.add(AbstractPrimeProcessor.submit(executor, new RhoWorker(n, seed), 
+                                               TaskPriority.High));
+    AtomicInteger curveCounter = new AtomicInteger();
+    for (int i = 1; i < parallelLevel; i++) {
+      attempts.add(AbstractPrimeProcessor.submit(executor, 
+                                                 new EcmWorker(n, seed + i, curveCounter), 
+                                                 TaskPriority.Low));
+    }
+    return AbstractPrimeProcessor.makeFirstNonNullFuture(attempts);
+  }
+  
+  /**
+   * Checks if the value is {@code r^k} for some {@code k > 1}.
+   * 
+   * @return The root {@code r}, or {@code null} if the value is not a perfect power
+   */
+  private static BigInteger perfectPowerRoot(BigInteger n) {
+    for (int k = n.bitLength(); k >= 2; k--) {
+      BigInteger root = nthRoot(n, k);
+      if (root.compareTo(BigInteger.ONE) > 0 && root.pow(k).equals(n)) {
+        return root;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Largest value {@code r} such that {@code r^k <= n}, found by binary search over the bits.
+   */
+  private static BigInteger nthRoot(BigInteger n, int k) {
+    int bits = (n.bitLength() / k) + 1;
+    BigInteger root = BigInteger.ZERO;
+    for (int bit = bits; bit >= 0; bit--) {
+      BigInteger candidate = root.setBit(bit);
+      if (candidate.pow(k).compareTo(n) <= 0) {
+        root = candidate;
+      }
+    }
+    return root;
+  }
+  
+  /**
+   * Runs Pollard-Brent rho, retrying with a new polynomial whenever a cycle is found without a 
+   * proper factor.  Values which fit within a {@code long} use Montgomery multiplication.
+   */
+  private static class RhoWorker implements Callable<BigInteger> {
+    private final BigInteger n;
+    private final Random random;
+    
+    private RhoWorker(BigInteger n, long seed) {
+      this.n = n;
+      this.random = new Random(seed);
+    }
+    
+    @Override
+    public BigInteger call() throws InterruptedException {
+      while (true) {
+        BigInteger factor;
+        if (n.bitLength() < Long.SIZE - 1) {
+          long modulus = n.longValue();
+          factor = BigInteger.valueOf(rho(modulus, 1 + random.nextInt(1 << 20), 
+                                          Math.floorMod(random.nextLong(), modulus)));
+        } else {
+          factor = rho(BigInteger.valueOf(1 + random.nextInt(1 << 20)), 
+                       new BigInteger(n.bitLength() - 1, random));
+        }
+        if (isProperFactor(factor, n)) {
+          return factor;
+        }
+      }
+    }
+    
+    private static long rho(long n, long c, long start) throws InterruptedException {
+      MontgomeryReducer reducer = new MontgomeryReducer(n);
+      long mc = reducer.toMontgomery(c);
+      long y = reducer.toMontgomery(start);
+      long x = y;
+      long ys = y;
+      long q = reducer.one();
+      long g = 1;
+      for (long r = 1; g == 1; r *= 2) {
+        x = y;
+        for (long i = 0; i < r; i++) {
+          y = reducer.add(reducer.multiply(y, y), mc);
+        }
+        for (long k = 0; k < r && g == 1; k += RHO_BATCH_SIZE) {
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          ys = y;
+          long batch = Math.min(RHO_BATCH_SIZE, r - k);
+          for (long i = 0; i < batch; i++) {
+            y = reducer.add(reducer.multiply(y, y), mc);
+            // montgomery form only scales by a unit, so the gcd is unchanged
+            q = reducer.multiply(q, Math.abs(x - y));
+          }
+          g = gcd(q, n);
+        }
+      }
+      if (g == n) {
+        // batch overshot, step back through it one value at a time
+        do {
+          ys = reducer.add(reducer.multiply(ys, ys), mc);
+          g = gcd(Math.abs(x - ys), n);
+        } while (g == 1);
+      }
+      return g;
+    }
+    
+    private BigInteger rho(BigInteger c, BigInteger start) throws InterruptedException {
+      BigInteger y = start;
+      BigInteger x = y;
+      BigInteger ys = y;
+      BigInteger q = BigInteger.ONE;
+      BigInteger g = BigInteger.ONE;
+      for (long r = 1; g.equals(BigInteger.ONE); r *= 2) {
+        x = y;
+        for (long i = 0; i < r; i++) {
+          y = y.multiply(y).add(c).mod(n);
+        }
+        for (long k = 0; k < r && g.equals(BigInteger.ONE); k += RHO_BATCH_SIZE) {
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          ys = y;
+          long batch = Math.min(RHO_BATCH_SIZE, r - k);
+          for (long i = 0; i < batch; i++) {
+            y = y.multiply(y).add(c).mod(n);
+            q = q.multiply(x.subtract(y)).mod(n);
+          }
+          g = q.gcd(n);
+        }
+      }
+      if (g.equals(n)) {
+        do {
+          ys = ys.multiply(ys).add(c).mod(n);
+          g = x.subtract(ys).gcd(n);
+        } while (g.equals(BigInteger.ONE));
+      }
+      return g;
+    }
+    
+    private static long gcd(long a, long b) {
+      while (b != 0) {
+        long t = a % b;
+        a = b;
+        b = t;
+      }
+      return a;
+    }
+  }
+  
+  /**
+   * Runs ECM curves one after another until a factor is found.  Workers splitting the same value 
+   * share a curve count, so that the stage one bound grows as curves fail across all workers.
+   */
+  private class EcmWorker implements Callable<BigInteger> {
+    private final BigInteger n;
+    private final Random random;
+    private final AtomicInteger curveCounter;
+    
+    private EcmWorker(BigInteger n, long seed, AtomicInteger curveCounter) {
+      this.n = n;
+      this.random = new Random(seed);
+      this.curveCounter = curveCounter;
+    }
+    
+    @Override
+    public BigInteger call() throws InterruptedException {
+      while (true) {
+        int curve = curveCounter.getAndIncrement();
+        int level = 0;
+        while (curve >= ECM_CURVES[level]) {
+          curve -= ECM_CURVES[level];
+          level++;
+        }
+        BigInteger factor = new Curve(n, random).findFactor(ECM_B1[level]);
+        if (isProperFactor(factor, n)) {
+          return factor;
+        }
+      }
+    }
+  }
+  
+  /**
+   * A Montgomery curve {@code By^2 = x^3 + Ax^2 + x} modulo {@code n}, using Suyama's 
+   * parametrization.  Points are stored as projective {@code (X : Z)} pairs, so no inversions are 
+   * needed after the curve is constructed.
+   */
+  private class Curve {
+    private final BigInteger n;
+    private final BigInteger[] start;
+    private final BigInteger a24;
+    // set if constructing the curve happened to find a factor
+    private final BigInteger setupFactor;
+    
+    private Curve(BigInteger n, Random random) {
+      this.n = n;
+      BigInteger sigma = BigInteger.valueOf(6 + random.nextInt(Integer.MAX_VALUE - 6));
+      BigInteger u = sigma.multiply(sigma).subtract(BigInteger.valueOf(5)).mod(n);
+      BigInteger v = sigma.shiftLeft(2).mod(n);
+      BigInteger u3 = u.pow(3).mod(n);
+      start = new BigInteger[] { u3, v.pow(3).mod(n) };
+      // (A + 2) / 4 = (v - u)^3 * (3u + v) / (16 * u^3 * v)
+      BigInteger numerator = 
+          v.subtract(u).pow(3).multiply(u.multiply(BigInteger.valueOf(3)).add(v)).mod(n);
+      BigInteger denominator = u3.multiply(v).shiftLeft(4).mod(n);
+      BigInteger g = denominator.gcd(n);
+      if (g.equals(BigInteger.ONE)) {
+        a24 = numerator.multiply(denominator.modInverse(n)).mod(n);
+        setupFactor = null;
+      } else {
+        a24 = null;
+        setupFactor = g;
+      }
+    }
+    
+    /**
+     * Runs stage one up to {@code b1}, and stage two up to {@code b1 * STAGE_TWO_MULTIPLIER}.
+     * 
+     * @return A factor of {@code n}, or {@code null} if none was found (which may be {@code n})
+     */
+    private BigInteger findFactor(int b1) throws InterruptedException {
+      if (setupFactor != null) {
+        return setupFactor;
+      }
+      
+      int b2 = b1 * STAGE_TWO_MULTIPLIER;
+      int[] primes = primeSource.getBasePrimes(b2);
+      BigInteger[] q = start;
+      for (long pk = 2; pk * 2 <= b1; pk *= 2) {
+        q = doublePoint(q);
+      }
+      q = doublePoint(q);
+      int primeIndex = 0;
+      for (; primeIndex < primes.length && primes[primeIndex] <= b1; primeIndex++) {
+        if ((primeIndex & 0xFF) == 0 && Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        long p = primes[primeIndex];
+        long pk = p;
+        while (pk * p <= b1) {
+          pk *= p;
+        }
+        q = multiply(q, pk);
+      }
+      BigInteger g = q[1].gcd(n);
+      if (! g.equals(BigInteger.ONE)) {
+        return g;
+      }
+      
+      return stageTwo(q, primes, primeIndex, b2);
+    }
+    
+    /**
+     * Baby step giant step continuation, checking each prime {@code p = kD +- j} in 
+     * {@code (b1, b2]} through the product of {@code X(kD)Z(j) - X(j)Z(kD)}.
+     */
+    private BigInteger stageTwo(BigInteger[] q, int[] primes, 
+                                int primeIndex, int b2) throws InterruptedException {
+      // baby steps: jQ for odd j up to D / 2
+      BigInteger[][] baby = new BigInteger[(STAGE_TWO_D / 2) + 1][];
+      BigInteger[] q2 = doublePoint(q);
+      baby[1] = q;
+      baby[3] = add(q2, q, q);
+      for (int j = 5; j <= STAGE_TWO_D / 2; j += 2) {
+        baby[j] = add(baby[j - 2], q2, baby[j - 4]);
+      }
+      
+      BigInteger[] stepD = multiply(q, STAGE_TWO_D);
+      if (primeIndex >= primes.length) {
+        return null;
+      }
+      long k = Math.max(1, (primes[primeIndex] + (STAGE_TWO_D / 2)) / STAGE_TWO_D);
+      BigInteger[] giant = multiply(q, k * STAGE_TWO_D);
+      BigInteger[] previousGiant = k == 1 ? q : multiply(q, (k - 1) * STAGE_TWO_D);
+      if (k == 1) {
+        // difference for the first step would be the point at infinity, so start one step later
+        previousGiant = giant;
+        giant = doublePoint(giant);
+        k = 2;
+      }
+      BigInteger accumulator = BigInteger.ONE;
+      for (; primeIndex < primes.length && primes[primeIndex] <= b2; primeIndex++) {
+        long p = primes[primeIndex];
+        long targetK = (p + (STAGE_TWO_D / 2)) / STAGE_TWO_D;
+        if (targetK < k) {
+          continue; // prime was before the first giant step, stage one already handled most
+        }
+        while (k < targetK) {
+          BigInteger[] next = add(giant, stepD, previousGiant);
+          previousGiant = giant;
+          giant = next;
+          k++;
+          if ((k & 0x3F) == 0 && Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+        }
+        BigInteger[] babyStep = baby[(int)Math.abs(p - (k * STAGE_TWO_D))];
+        accumulator = accumulator.multiply(giant[0].multiply(babyStep[1]) 
+                                             .subtract(babyStep[0].multiply(giant[1]))).mod(n);
+      }
+      
+      BigInteger g = accumulator.gcd(n);
+      return g.equals(BigInteger.ONE) ? null : g;
+    }
+    
+    private BigInteger[] doublePoint(BigInteger[] p) {
+      BigInteger sum = p[0].add(p[1]);
+      BigInteger diff = p[0].subtract(p[1]);
+      BigInteger t1 = sum.multiply(sum).mod(n);
+      BigInteger t2 = diff.multiply(diff).mod(n);
+      BigInteger t3 = t1.subtract(t2);
+      return new BigInteger[] { t1.multiply(t2).mod(n), 
+                                t3.multiply(t2.add(a24.multiply(t3))).mod(n) };
+    }
+    
+    /**
+     * Differential addition, {@code difference} must be {@code p - q}.
+     */
+    private BigInteger[] add(BigInteger[] p, BigInteger[] q, BigInteger[] difference) {
+      BigInteger u = p[0].subtract(p[1]).multiply(q[0].add(q[1]));
+      BigInteger v = p[0].add(p[1]).multiply(q[0].subtract(q[1]));
+      BigInteger sum = u.add(v);
+      BigInteger diff = u.subtract(v);
+      return new BigInteger[] { difference[1].multiply(sum.multiply(sum).mod(n)).mod(n), 
+                                difference[0].multiply(diff.multiply(diff).mod(n)).mod(n) };
+    }
+    
+    /**
+     * Montgomery ladder scalar multiplication, {@code k} must be at least {@code 1}.
+     */
+    private BigInteger[] multiply(BigInteger[] p, long k) {
+      BigInteger[] r0 = p;
+      BigInteger[] r1 = doublePoint(p);
+      for (int bit = 62 - Long.numberOfLeadingZeros(k); bit >= 0; bit--) {
+        if ((k & (1L << bit)) != 0) {
+          r0 = add(r1, r0, p);
+          r1 = doublePoint(r1);
+        } else {
+          r1 = add(r1, r0, p);
+          r0 = doublePoint(r0);
+        }
+      }
+      return r0;
+    }
+  }
+}
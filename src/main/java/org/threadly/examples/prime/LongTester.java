@@ -0,0 +1,125 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+
+/**
+ * <p>Same algorithm as {@link DumbTester}, but done entirely on primitive {@code long} values. 
+ * Since the number and every candidate divisor fit in a {@code long}, the modulus in the worker 
+ * loop is a single hardware division and nothing is allocated while iterating.  This can only be 
+ * used for numbers which are less than {@link Long#MAX_VALUE}, use 
+ * {@link PrimeProcessorFactory#makeProcessor(BigInteger)} to have the right implementation 
+ * selected.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class LongTester extends AbstractTrialDivisionTester {
+  private final long value;
+  private final PrimeTable primeTable;
+  
+  /**
+   * Constructs a tester which will operate on primitive values.
+   * 
+   * @param n Number to test against
+   */
+  public LongTester(long n) {
+    this(n, null);
+  }
+  
+  /**
+   * Constructs a tester which will operate on primitive values.  If a {@link PrimeTable} is 
+   * provided, values within the table are looked up directly, and only prime divisors within the 
+   * table are checked.
+   * 
+   * @param n Number to test against
+   * @param primeTable Table of known primes, or {@code null} to check every wheel candidate
+   */
+  public LongTester(long n, PrimeTable primeTable) {
+    this(n, primeTable, Wheel.DEFAULT);
+  }
+  
+  /**
+   * Constructs a tester which will operate on primitive values, iterating divisors outside of 
+   * the {@link PrimeTable} with the provided wheel.
+   * 
+   * @param n Number to test against
+   * @param primeTable Table of known primes, or {@code null} to check every wheel candidate
+   * @param wheel Wheel to skip divisors with
+   */
+  public LongTester(long n, PrimeTable primeTable, Wheel wheel) {
+    super(BigInteger.valueOf(n), n < 0 ? 0 : isqrt(n), wheel);
+    
+    this.value = n;
+    this.primeTable = primeTable;
+  }
+  
+  @Override
+  protected ListenableFuture<PrimeResult> doIsPrime(Executor executor, int parallelLevel) {
+    if (value < 2) {
+      return FutureUtils.immediateResultFuture(compositeResult(null));
+    } else if (value == 2) {
+      return FutureUtils.immediateResultFuture(primeResult());
+    }
+    
+    // quick check for even numbers
+    if ((value & 1) == 0) {
+      return FutureUtils.immediateResultFuture(compositeResult(BigInteger.valueOf(2)));
+    } else if (primeTable != null && value <= primeTable.getLimit()) {
+      // table only records primality, so no factor is available for composites
+      return FutureUtils.immediateResultFuture(primeTable.isPrime(value) ? 
+                                                 primeResult() : compositeResult(null));
+    }
+    
+    return searchForFactor(executor, parallelLevel).map(new Function<Long, PrimeResult>() {
+      @Override
+      public PrimeResult apply(Long factor) {
+        if (factor == 0) {
+          return primeResult();
+        } else {
+          return compositeResult(BigInteger.valueOf(factor));
+        }
+      }
+    });
+  }
+  
+  @Override
+  protected long findSmallFactor() {
+    return smallPrimeFactor(value, searchLimit);
+  }
+  
+  @Override
+  protected long findFactor(long startVal, long endVal, FactorSearch search) {
+    int count = 0;
+    long currentVal = startVal;
+    if (primeTable != null && startVal <= primeTable.getLimit()) {
+      // only prime divisors need to be checked for the part of the range covered by the table
+      long tableEnd = Math.min(endVal, primeTable.getLimit());
+      for (currentVal = primeTable.nextOddPrime(startVal); 
+           currentVal != -1 && currentVal <= tableEnd;
+           currentVal = primeTable.nextOddPrime(currentVal + 2)) {
+        if (value % currentVal == 0) {
+          return currentVal;
+        } else if ((++count & POLL_MASK) == 0 && search.isSmallerFactorKnown(currentVal)) {
+          return 0;
+        }
+      }
+      // continue with the first value past the table
+      currentVal = tableEnd + 1;
+    }
+    currentVal = wheel.firstCandidate(currentVal);
+    for (int spoke = wheel.spokeIndex(currentVal); currentVal <= endVal; 
+         currentVal += wheel.gap(spoke), spoke = wheel.nextSpoke(spoke)) {
+      if (value % currentVal == 0) {
+        return currentVal;
+      } else if ((++count & POLL_MASK) == 0 && search.isSmallerFactorKnown(currentVal)) {
+        return 0;
+      }
+    }
+    
+    return 0;
+  }
+}
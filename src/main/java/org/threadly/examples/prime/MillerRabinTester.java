@@ -0,0 +1,365 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+
+/**
+ * <p>Probabilistic primality test based off Miller-Rabin.  Numbers which fit in a {@code long} 
+ * are tested against a fixed witness set which is known to be deterministic for every 64 bit 
+ * value, so the answer for those is exact.  Larger numbers are tested with a Baillie-PSW test (a 
+ * base 2 strong probable prime test combined with a strong Lucas probable prime test), 
+ * optionally with additional randomly chosen Miller-Rabin witnesses.  No composite is known to 
+ * pass Baillie-PSW.</p>
+ * 
+ * <p>For large numbers each witness round is independent, so the rounds (and the Lucas test) are 
+ * spread across the provided executor.  The first round to prove the number composite cancels 
+ * the remaining rounds.  Testing a {@code long} takes only a handful of microseconds, so those 
+ * are always done on the calling thread.</p>
+ * 
+ * <p>Unlike trial division, showing a number is composite does not always produce a factor. 
+ * {@link #getFactor()} will return a factor when one is discovered as part of the test, but may 
+ * return {@code null} for composite numbers.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class MillerRabinTester extends AbstractPrimeProcessor {
+  /**
+   * Amount of random witness rounds done in addition to Baillie-PSW by default.
+   */
+  public static final int DEFAULT_ADDITIONAL_ROUNDS = 8;
+  // the first 12 primes are a sufficient witness set for every value below 2^64
+  private static final long[] LONG_WITNESSES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+  private static final BigInteger TWO = BigInteger.valueOf(2);
+  // marker returned from rounds which proved a number composite without finding a factor
+  private static final BigInteger NO_FACTOR = BigInteger.ZERO;
+  
+  private final int additionalRounds;
+  private final boolean baillePsw;
+  
+  /**
+   * Constructs a new tester which will use Baillie-PSW with {@link #DEFAULT_ADDITIONAL_ROUNDS} 
+   * additional random witnesses for values which do not fit in a {@code long}.
+   * 
+   * @param n Number to test against
+   */
+  public MillerRabinTester(BigInteger n) {
+    this(n, DEFAULT_ADDITIONAL_ROUNDS, true);
+  }
+  
+  /**
+   * Constructs a new tester with a specific configuration for values which do not fit in a 
+   * {@code long}.  Values which do fit in a {@code long} are always tested deterministically.
+   * 
+   * @param n Number to test against
+   * @param additionalRounds Number of random witness rounds to test
+   * @param baillePsw {@code true} to include the base 2 and strong Lucas tests
+   */
+  public MillerRabinTester(BigInteger n, int additionalRounds, boolean baillePsw) {
+    super(n);
+    
+    if (additionalRounds < 0) {
+      throw new IllegalArgumentException("Negative rounds: " + additionalRounds);
+    } else if (additionalRounds == 0 && ! baillePsw) {
+      throw new IllegalArgumentException("No tests to run");
+    }
+    this.additionalRounds = additionalRounds;
+    this.baillePsw = baillePsw;
+  }
+  
+  @Override
+  protected ListenableFuture<PrimeResult> doIsPrime(Executor executor, int parallelLevel) {
+    if (n.compareTo(TWO) < 0) {
+      return FutureUtils.immediateResultFuture(compositeResult(null));
+    }
+    
+    // small prime check, also guarantees the witnesses are less than n for the long path
+    for (long p : LONG_WITNESSES) {
+      BigInteger bigP = BigInteger.valueOf(p);
+      if (n.equals(bigP)) {
+        return FutureUtils.immediateResultFuture(primeResult());
+      } else if (n.mod(bigP).signum() == 0) {
+        return FutureUtils.immediateResultFuture(compositeResult(bigP));
+      }
+    }
+    
+    if (n.bitLength() < Long.SIZE) {
+      return FutureUtils.immediateResultFuture(testLong(n.longValue()));
+    }
+    
+    List<Callable<BigInteger>> tests = makeTests(parallelLevel);
+    List<ListenableFuture<BigInteger>> futures = 
+        new ArrayList<ListenableFuture<BigInteger>>(tests.size());
+    for (Callable<BigInteger> c : tests) {
+      futures.add(submit(executor, c, TaskPriority.High));
+    }
+    
+    return makeFirstNonNullFuture(futures).map(new Function<BigInteger, PrimeResult>() {
+      @Override
+      public PrimeResult apply(BigInteger result) {
+        if (result == null) {
+          return primeResult();
+        } else if (result == NO_FACTOR) {
+          return compositeResult(null);
+        } else {
+          return compositeResult(result);
+        }
+      }
+    });
+  }
+  
+  private List<Callable<BigInteger>> makeTests(int parallelLevel) {
+    List<BigInteger> witnesses = new ArrayList<BigInteger>(additionalRounds + 1);
+    if (baillePsw) {
+      witnesses.add(TWO);
+    }
+    BigInteger witnessRange = n.subtract(BigInteger.valueOf(3));
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < additionalRounds; i++) {
+      // random witness in the range [2, n - 2]
+      witnesses.add(new BigInteger(n.bitLength(), random).mod(witnessRange).add(TWO));
+    }
+    
+    List<Callable<BigInteger>> result = new ArrayList<Callable<BigInteger>>(parallelLevel + 1);
+    if (baillePsw) {
+      result.add(new LucasWorker(n));
+    }
+    int groups = Math.max(1, Math.min(witnesses.size(), parallelLevel - result.size()));
+    for (int i = 0; i < groups; i++) {
+      List<BigInteger> groupWitnesses = new ArrayList<BigInteger>(witnesses.size() / groups + 1);
+      for (int j = i; j < witnesses.size(); j += groups) {
+        groupWitnesses.add(witnesses.get(j));
+      }
+      result.add(new WitnessWorker(n, groupWitnesses));
+    }
+    return result;
+  }
+  
+  private PrimeResult testLong(long value) {
+    MontgomeryReducer reducer = new MontgomeryReducer(value);
+    long montOne = reducer.one();
+    long montMinusOne = value - montOne;
+    long d = value - 1;
+    int s = Long.numberOfTrailingZeros(d);
+    d >>>= s;
+    
+    witnessLoop: for (long witness : LONG_WITNESSES) {
+      long x = reducer.pow(reducer.toMontgomery(witness), d);
+      if (x == montOne || x == montMinusOne) {
+        continue;
+      }
+      for (int r = 1; r < s; r++) {
+        long y = reducer.multiply(x, x);
+        if (y == montMinusOne) {
+          continue witnessLoop;
+        } else if (y == montOne) {
+          // x is a non-trivial square root of 1, so x - 1 shares a factor with the value
+          return compositeResult(BigInteger.valueOf(gcd(reducer.fromMontgomery(x) - 1, value)));
+        }
+        x = y;
+      }
+      return compositeResult(null);
+    }
+    
+    return primeResult();
+  }
+  
+  private static long gcd(long a, long b) {
+    while (b != 0) {
+      long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+  
+  /**
+   * Computes the Jacobi symbol (a/n) for a small (possibly negative) value and an odd positive 
+   * {@code n}.
+   * 
+   * @param a Numerator, absolute value must be small enough to fit in an {@code int}
+   * @param n Odd positive denominator
+   * @return -1, 0, or 1
+   */
+  private static int jacobi(long a, BigInteger n) {
+    int result = 1;
+    if (a < 0) {
+      a = -a;
+      if (n.testBit(0) && n.testBit(1)) {  // n mod 4 == 3
+        result = -result;
+      }
+    }
+    int nMod8 = n.intValue() & 7;
+    while ((a & 1) == 0 && a != 0) {
+      a >>= 1;
+      if (nMod8 == 3 || nMod8 == 5) {
+        result = -result;
+      }
+    }
+    if (a == 0) {
+      return n.equals(BigInteger.ONE) ? result : 0;
+    } else if (a == 1) {
+      return result;
+    }
+    // quadratic reciprocity, both values now odd so we can continue on primitives
+    if ((a & 3) == 3 && (nMod8 & 3) == 3) {
+      result = -result;
+    }
+    long nValue = n.mod(BigInteger.valueOf(a)).longValue();
+    return result * jacobi(nValue, a);
+  }
+  
+  private static int jacobi(long a, long n) {
+    int result = 1;
+    while (a != 0) {
+      while ((a & 1) == 0) {
+        a >>= 1;
+        long nMod8 = n & 7;
+        if (nMod8 == 3 || nMod8 == 5) {
+          result = -result;
+        }
+      }
+      long t = a;
+      a = n;
+      n = t;
+      if ((a & 3) == 3 && (n & 3) == 3) {
+        result = -result;
+      }
+      a %= n;
+    }
+    return n == 1 ? result : 0;
+  }
+  
+  /**
+   * Runs one or more Miller-Rabin witness rounds.  Returns {@code null} if every round passed, 
+   * otherwise a factor or {@link MillerRabinTester#NO_FACTOR}.
+   */
+  private static class WitnessWorker implements Callable<BigInteger> {
+    private final BigInteger testVal;
+    private final List<BigInteger> witnesses;
+    
+    private WitnessWorker(BigInteger testVal, List<BigInteger> witnesses) {
+      this.testVal = testVal;
+      this.witnesses = witnesses;
+    }
+    
+    @Override
+    public BigInteger call() throws InterruptedException {
+      BigInteger minusOne = testVal.subtract(BigInteger.ONE);
+      int s = minusOne.getLowestSetBit();
+      BigInteger d = minusOne.shiftRight(s);
+      
+      witnessLoop: for (BigInteger witness : witnesses) {
+        BigInteger x = witness.modPow(d, testVal);
+        if (x.equals(BigInteger.ONE) || x.equals(minusOne)) {
+          continue;
+        }
+        for (int r = 1; r < s; r++) {
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          BigInteger y = x.multiply(x).mod(testVal);
+          if (y.equals(minusOne)) {
+            continue witnessLoop;
+          } else if (y.equals(BigInteger.ONE)) {
+            return x.subtract(BigInteger.ONE).gcd(testVal);
+          }
+          x = y;
+        }
+        return NO_FACTOR;
+      }
+      
+      return null;
+    }
+  }
+  
+  /**
+   * Runs a strong Lucas probable prime test using Selfridge's method for choosing parameters. 
+   * Returns {@code null} if the number is a strong Lucas probable prime, otherwise a factor or 
+   * {@link MillerRabinTester#NO_FACTOR}.
+   */
+  private static class LucasWorker implements Callable<BigInteger> {
+    private final BigInteger testVal;
+    
+    private LucasWorker(BigInteger testVal) {
+      this.testVal = testVal;
+    }
+    
+    @Override
+    public BigInteger call() throws InterruptedException {
+      BigInteger sqrt = testVal.sqrt();
+      if (sqrt.multiply(sqrt).equals(testVal)) {
+        return sqrt;
+      }
+      
+      // find the first D in 5, -7, 9, -11, ... where jacobi(D/n) == -1
+      long d = 5;
+      while (true) {
+        int j = jacobi(d, testVal);
+        if (j == -1) {
+          break;
+        } else if (j == 0) {
+          BigInteger gcd = BigInteger.valueOf(Math.abs(d)).gcd(testVal);
+          if (! gcd.equals(testVal)) {
+            return gcd;
+          }
+        }
+        d = d > 0 ? -(d + 2) : -d + 2;
+      }
+      BigInteger bigD = BigInteger.valueOf(d);
+      BigInteger q = BigInteger.valueOf((1 - d) / 4);  // P = 1
+      
+      BigInteger plusOne = testVal.add(BigInteger.ONE);
+      int s = plusOne.getLowestSetBit();
+      BigInteger k = plusOne.shiftRight(s);
+      
+      // compute U_k, V_k and Q^k with the binary method, starting from the top bit of k
+      BigInteger u = BigInteger.ONE;
+      BigInteger v = BigInteger.ONE;
+      BigInteger qk = q.mod(testVal);
+      for (int i = k.bitLength() - 2; i >= 0; i--) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        u = u.multiply(v).mod(testVal);
+        v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(testVal);
+        qk = qk.multiply(qk).mod(testVal);
+        if (k.testBit(i)) {
+          BigInteger newU = u.add(v);
+          BigInteger newV = bigD.multiply(u).add(v);
+          u = halve(newU.mod(testVal));
+          v = halve(newV.mod(testVal));
+          qk = qk.multiply(q).mod(testVal);
+        }
+      }
+      
+      if (u.signum() == 0 || v.signum() == 0) {
+        return null;
+      }
+      for (int r = 1; r < s; r++) {
+        v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(testVal);
+        if (v.signum() == 0) {
+          return null;
+        }
+        qk = qk.multiply(qk).mod(testVal);
+      }
+      
+      return NO_FACTOR;
+    }
+    
+    private BigInteger halve(BigInteger value) {
+      if (value.testBit(0)) {
+        value = value.add(testVal);
+      }
+      return value.shiftRight(1);
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package org.threadly.examples.prime;
+
+/**
+ * <p>Modular arithmetic against an odd modulus which fits in a {@code long}.  Values are kept in 
+ * Montgomery form so that every multiplication can be reduced with two multiplies and a shift 
+ * instead of a 128 bit division.  Nothing is allocated per operation, making this suitable for 
+ * hot loops.</p>
+ * 
+ * <p>All values passed in and returned must be in the range {@code [0, modulus)}.  Use 
+ * {@link #toMontgomery(long)} and {@link #fromMontgomery(long)} to convert in and out of the 
+ * Montgomery domain.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+class MontgomeryReducer {
+  private final long modulus;
+  private final long negativeInverse;
+  private final long rSquared;
+  private final long one;
+  
+  /**
+   * Constructs a new reducer for the given modulus.
+   * 
+   * @param modulus Odd modulus, must be greater than {@code 1}
+   */
+  MontgomeryReducer(long modulus) {
+    if (modulus < 3 || (modulus & 1) == 0) {
+      throw new IllegalArgumentException("Modulus must be odd and greater than 1: " + modulus);
+    }
+    this.modulus = modulus;
+    // newton iteration, each step doubles the correct low bits (starting from 3 for odd values)
+    long inverse = modulus;
+    for (int i = 0; i < 5; i++) {
+      inverse *= 2 - modulus * inverse;
+    }
+    negativeInverse = -inverse;
+    // 2^64 mod modulus
+    one = Long.remainderUnsigned(-modulus, modulus);
+    long r2 = one;
+    for (int i = 0; i < Long.SIZE; i++) {
+      r2 = add(r2, r2);
+    }
+    rSquared = r2;
+  }
+  
+  /**
+   * Returns the modulus this reducer operates against.
+   * 
+   * @return Modulus all operations are reduced by
+   */
+  long getModulus() {
+    return modulus;
+  }
+  
+  /**
+   * Returns the value {@code 1} in Montgomery form.
+   * 
+   * @return Montgomery representation of one
+   */
+  long one() {
+    return one;
+  }
+  
+  /**
+   * Converts a normal value into Montgomery form.
+   * 
+   * @param value Non-negative value to convert
+   * @return Montgomery representation of {@code value mod modulus}
+   */
+  long toMontgomery(long value) {
+    return multiply(value % modulus, rSquared);
+  }
+  
+  /**
+   * Converts a value from Montgomery form back into a normal value.
+   * 
+   * @param value Montgomery representation
+   * @return Normal value in the range {@code [0, modulus)}
+   */
+  long fromMontgomery(long value) {
+    return reduce(0, value);
+  }
+  
+  /**
+   * Adds two values modulo the modulus.  Works for values in either form, as long as both 
+   * arguments are in the same form.
+   * 
+   * @param a First value
+   * @param b Second value
+   * @return {@code (a + b) mod modulus}
+   */
+  long add(long a, long b) {
+    long sum = a + b;  // can not overflow an unsigned long since both are less than 2^63
+    if (Long.compareUnsigned(sum, modulus) >= 0) {
+      sum -= modulus;
+    }
+    return sum;
+  }
+  
+  /**
+   * Multiplies two values which are in Montgomery form.
+   * 
+   * @param a First value in Montgomery form
+   * @param b Second value in Montgomery form
+   * @return Product in Montgomery form
+   */
+  long multiply(long a, long b) {
+    return reduce(unsignedMultiplyHigh(a, b), a * b);
+  }
+  
+  /**
+   * Raises a value in Montgomery form to the provided exponent.
+   * 
+   * @param base Base value in Montgomery form
+   * @param exponent Non-negative exponent
+   * @return Result in Montgomery form
+   */
+  long pow(long base, long exponent) {
+    long result = one;
+    while (exponent != 0) {
+      if ((exponent & 1) == 1) {
+        result = multiply(result, base);
+      }
+      exponent >>>= 1;
+      if (exponent != 0) {
+        base = multiply(base, base);
+      }
+    }
+    return result;
+  }
+  
+  private long reduce(long high, long low) {
+    long m = low * negativeInverse;
+    // low + (m * modulus) is always zero in the low 64 bits, so it only carries if low is non-zero
+    long result = high + unsignedMultiplyHigh(m, modulus) + (low == 0 ? 0 : 1);
+    if (Long.compareUnsigned(result, modulus) >= 0) {
+      result -= modulus;
+    }
+    return result;
+  }
+  
+  /**
+   * Returns the high 64 bits of the unsigned 128 bit product of two values.
+   * 
+   * @param a First value, treated as unsigned
+   * @param b Second value, treated as unsigned
+   * @return High half of the unsigned product
+   */
+  static long unsignedMultiplyHigh(long a, long b) {
+    return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+  }
+}
@@ -1,13 +1,16 @@
 package org.threadly.examples.prime;
 
-import java.math.BigInteger;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Iterator;
-import java.util.concurrent.Callable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
-import org.threadly.concurrent.PriorityScheduler;
+
+import org.threadly.concurrent.future.FutureCallback;
+import org.threadly.concurrent.future.FutureUtils;
 import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
 import org.threadly.util.ExceptionUtils;
 
 /**
@@ -17,74 +20,156 @@ import org.threadly.util.ExceptionUtils;
  * @author jent - Mike Jensen
  */
 public class NextPrime {
+  private static final int CACHE_CAPACITY = 1 << 20;
+  
   @SuppressWarnings("javadoc")
-  public static void main(final String args[]) throws InterruptedException {
-    if (args.length == 0) {
+  public static void main(final String args[]) throws InterruptedException, IOException {
+    boolean sieve = false;
+    PrimeResultCache cache = null;
+    String backendName = "async";
+    int argIndex = 0;
+    while (argIndex < args.length) {
+      if (args[argIndex].equals("-sieve")) {
+        sieve = true;
+        argIndex++;
+      } else if (args[argIndex].equals("-table") && argIndex + 1 < args.length) {
+        PrimeProcessorFactory.setPrimeTable(PrimeTable.open(new File(args[argIndex + 1])));
+        argIndex += 2;
+      } else if (args[argIndex].equals("-backend") && argIndex + 1 < args.length) {
+        backendName = args[argIndex + 1];
+        argIndex += 2;
+      } else if (args[argIndex].equals("-cache") && argIndex + 1 < args.length) {
+        cache = new PrimeResultCache(CACHE_CAPACITY, new File(args[argIndex + 1]));
+        PrimeProcessorFactory.setResultCache(cache);
+        argIndex += 2;
+      } else {
+        break;
+      }
+    }
+    if (args.length == argIndex) {
       System.err.println("No number to test provided");
       System.err.println("Usage: java -cp threadly_examples.jar " + 
-                           NextPrime.class.getName() + " [number to start search from]...");
+                           NextPrime.class.getName() + " [-sieve] [-table file] [-cache file] " + 
+                           "[-backend async|virtual|platform] [number to start search from]...");
+      System.err.println("\t-sieve: Find the prime with a segmented sieve instead of testing " + 
+                           "each candidate");
+      System.err.println("\t-table: Use a table built with " + PrimeTable.class.getName());
+      System.err.println("\t-cache: Load and store results in a file so they are kept " + 
+                           "between runs");
+      System.err.println("\t-backend: How tests are coordinated, see " + 
+                           PrimeExecutionBackend.class.getName());
       System.exit(1);
     }
+    long startValue = Long.parseLong(args[argIndex]);
     
-    final int processingThreads = Runtime.getRuntime().availableProcessors() * 2;
-    int threadPoolSize = processingThreads + args.length - 1;
-    final PriorityScheduler executor = new PriorityScheduler(threadPoolSize, true);
-    executor.prestartAllThreads();
+    final PrimeExecutionBackend backend = 
+        PrimeExecutionBackend.fromName(backendName, Runtime.getRuntime().availableProcessors());
+    
+    try {
+      long nextPrime;
+      if (sieve) {
+        nextPrime = new SegmentedSieve(backend.getWorkers(), backend.getWorkerThreadCount()) 
+                        .nextPrime(startValue).get();
+      } else {
+        nextPrime = new PrimeSearch(backend, startValue + 1).start().get().number.longValue();
+      }
+      System.out.println("The next prime number is: " + nextPrime);
+    } catch (ExecutionException e) {
+      throw ExceptionUtils.makeRuntime(e.getCause());
+    } finally {
+      backend.shutdownNow();
+      if (cache != null) {
+        cache.close();
+        System.err.println("Result cache: " + cache);
+      }
+    }
+  }
+  
+  /**
+   * <p>Keeps a window of candidates being tested.  As results complete new candidates are 
+   * submitted, and once every candidate below a prime has been shown to be composite that prime 
+   * is the result, and any outstanding candidates are cancelled.</p>
+   */
+  private static class PrimeSearch {
+    private final PrimeExecutionBackend backend;
+    private final int maxInFlight;
+    private final SettableListenableFuture<PrimeResult> result;
+    private final TreeMap<Long, ListenableFuture<PrimeResult>> pending;
+    // completed results which are waiting on a lower candidate to complete
+    private final TreeMap<Long, PrimeResult> completed;
+    private long nextCandidate;
+    private long lowestUnresolved;
     
-    Deque<ListenableFuture<PrimeResult>> futures = new ArrayDeque<ListenableFuture<PrimeResult>>(processingThreads * 2);
+    private PrimeSearch(PrimeExecutionBackend backend, long startValue) {
+      this.backend = backend;
+      maxInFlight = backend.getWorkerThreadCount() * 2;
+      result = new SettableListenableFuture<PrimeResult>(false);
+      pending = new TreeMap<Long, ListenableFuture<PrimeResult>>();
+      completed = new TreeMap<Long, PrimeResult>();
+      nextCandidate = startValue;
+      lowestUnresolved = startValue;
+    }
     
-    int value = Integer.parseInt(args[0]) + 1;
-    while (true) {
-      final int f_i = value++;
-      futures.add(executor.submit(new Callable<PrimeResult>() {
-        @Override
-        public PrimeResult call() throws InterruptedException {
-          return testNumber(executor, processingThreads, f_i);
-        }
-      }));
-      
-      boolean firstRun = true;
-      while (firstRun || futures.size() > processingThreads * 2) {
-        firstRun = false;
-        Iterator<ListenableFuture<PrimeResult>> it = futures.iterator();
-        while (it.hasNext()) {
-          ListenableFuture<PrimeResult> f = it.next();
-          if (f.isDone()) {
-            try {
-              PrimeResult result = f.get();
-              if (result.isPrime) {
-                System.out.println("The next prime number is: " + result.testNumber);
-                System.exit(0);
-              } else {
-                it.remove();
-              }
-            } catch (ExecutionException e) {
-              throw ExceptionUtils.makeRuntime(e.getCause());
+    private ListenableFuture<PrimeResult> start() {
+      synchronized (this) {
+        submitCandidates();
+      }
+      return result;
+    }
+    
+    // must hold lock
+    private void submitCandidates() {
+      while (! result.isDone() && pending.size() < maxInFlight) {
+        final long candidate = nextCandidate++;
+        ListenableFuture<PrimeResult> future = 
+            backend.test(PrimeProcessorFactory.makeProcessor(candidate));
+        pending.put(candidate, future);
+        // callbacks on the executor so that results completed inline do not recurse back here
+        future.callback(new FutureCallback<PrimeResult>() {
+          @Override
+          public void handleResult(PrimeResult r) {
+            candidateComplete(candidate, r);
+          }
+          
+          @Override
+          public void handleFailure(Throwable t) {
+            if (result.setFailure(t)) {
+              cancelPending();
             }
-          } else {
-            break;
           }
+        }, backend.getWorkers());
+      }
+    }
+    
+    private void candidateComplete(long candidate, PrimeResult r) {
+      synchronized (this) {
+        if (result.isDone()) {
+          return;
         }
+        pending.remove(candidate);
+        completed.put(candidate, r);
         
-        Thread.sleep(10);
+        while (! completed.isEmpty() && completed.firstKey() == lowestUnresolved) {
+          PrimeResult lowest = completed.pollFirstEntry().getValue();
+          if (lowest.isPrime) {
+            result.setResult(lowest);
+            cancelPending();
+            return;
+          }
+          lowestUnresolved++;
+        }
+        
+        submitCandidates();
       }
     }
-  }
-  
-  private static PrimeResult testNumber(PriorityScheduler executor, 
-                                    int threadCount, int number) throws InterruptedException {
-    // TODO - improve this with an AKS implementation
-    PrimeProcessor primeProcessor = new DumbTester(new BigInteger(Integer.toString(number)));
-    return new PrimeResult(number, primeProcessor.isPrime(executor, threadCount));
-  }
-  
-  private static class PrimeResult {
-    public final int testNumber;
-    public final boolean isPrime;
     
-    public PrimeResult(int testNumber, boolean isPrime) {
-      this.testNumber = testNumber;
-      this.isPrime = isPrime;
+    private void cancelPending() {
+      List<ListenableFuture<PrimeResult>> toCancel;
+      synchronized (this) {
+        toCancel = new ArrayList<ListenableFuture<PrimeResult>>(pending.values());
+        pending.clear();
+      }
+      FutureUtils.cancelIncompleteFutures(toCancel, true);
     }
   }
 }
@@ -0,0 +1,72 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.util.Clock;
+
+/**
+ * <p>Compares the run time of {@link AksTester} against {@link DumbTester} across primes of 
+ * increasing size.  Primes are used since they are the worst case for both implementations 
+ * (neither can exit early).</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class PrimeBenchmark {
+  private static final int DEFAULT_MAX_DIGITS = 6;
+  private static final int DEFAULT_RUNS = 3;
+  
+  @SuppressWarnings("javadoc")
+  public static void main(final String args[]) throws InterruptedException {
+    int maxDigits = DEFAULT_MAX_DIGITS;
+    int runs = DEFAULT_RUNS;
+    try {
+      if (args.length > 0) {
+        maxDigits = Integer.parseInt(args[0]);
+      }
+      if (args.length > 1) {
+        runs = Integer.parseInt(args[1]);
+      }
+    } catch (NumberFormatException e) {
+      System.err.println("Usage: java -cp threadly_examples.jar " + 
+                           PrimeBenchmark.class.getName() + " [max digits] [runs per size]");
+      System.exit(1);
+    }
+    if (maxDigits > 18) {
+      System.err.println("AKS can only test values which fit in a long, max digits is 18");
+      System.exit(1);
+    }
+    
+    final int processingThreads = Runtime.getRuntime().availableProcessors() * 2;
+    final PriorityScheduler executor = new PriorityScheduler(processingThreads, true);
+    executor.prestartAllThreads();
+    
+    System.out.println("digits\tprime\tDumbTester (ms)\tAksTester (ms)");
+    try {
+      for (int digits = 2; digits <= maxDigits; digits++) {
+        BigInteger prime = BigInteger.TEN.pow(digits - 1).nextProbablePrime();
+        
+        long dumbTime = 0;
+        long aksTime = 0;
+        for (int i = 0; i < runs; i++) {
+          dumbTime += time(new DumbTester(prime), executor, processingThreads);
+          aksTime += time(new AksTester(prime.longValue()), executor, processingThreads);
+        }
+        
+        System.out.println(digits + "\t" + prime + "\t" + 
+                             (dumbTime / runs) + "\t" + (aksTime / runs));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  private static long time(PrimeProcessor processor, PriorityScheduler executor, 
+                           int threadCount) throws InterruptedException {
+    long start = Clock.accurateForwardProgressingMillis();
+    if (! processor.isPrime(executor, threadCount)) {
+      throw new IllegalStateException("Prime reported as composite: " + processor);
+    }
+    return Clock.accurateForwardProgressingMillis() - start;
+  }
+}
@@ -0,0 +1,235 @@
+package org.threadly.examples.prime;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.threadly.concurrent.ConfigurableThreadFactory;
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.ListenableFuture;
+
+/**
+ * <p>Selects how the testing of each number is coordinated.  In every backend the CPU bound 
+ * work is run on a {@link PriorityScheduler} of platform threads.  The backends differ in how the 
+ * per-number coordination (waiting on that work and combining the results) is done:</p> 
+ * <ul> 
+ *   <li>{@link #makeAsync(int)} - Coordination is done through future listeners, so no thread is 
+ *       held while a number is being tested.</li> 
+ *   <li>{@link #makeVirtualThreadCoordinators(int)} - Each number gets its own virtual thread 
+ *       which blocks until the result is available.  Virtual threads are only available on Java 
+ *       21 or newer, on older versions this falls back to a platform thread per number (see 
+ *       {@link #makePlatformThreadCoordinators(int)}).</li> 
+ *   <li>{@link #makePlatformThreadCoordinators(int)} - Each number gets its own platform thread 
+ *       which blocks until the result is available.  This is how testing was coordinated before 
+ *       results were available asynchronously, and is kept as a baseline for comparison.</li> 
+ * </ul>
+ * 
+ * @author jent - Mike Jensen
+ */
+public abstract class PrimeExecutionBackend {
+  /**
+   * Constructs a backend which coordinates without blocking any threads.
+   * 
+   * @param workerThreads Amount of threads to run processing work on
+   * @return A started backend
+   */
+  public static PrimeExecutionBackend makeAsync(int workerThreads) {
+    return new AsyncBackend(workerThreads);
+  }
+  
+  /**
+   * Constructs a backend which coordinates each number on its own virtual thread.  If virtual 
+   * threads are not supported by the running JVM then platform threads will be used instead, 
+   * {@link #getDescription()} will indicate which was selected.
+   * 
+   * @param workerThreads Amount of platform threads to run processing work on
+   * @return A started backend
+   */
+  public static PrimeExecutionBackend makeVirtualThreadCoordinators(int workerThreads) {
+    ExecutorService virtualExecutor = makeVirtualThreadExecutor();
+    if (virtualExecutor == null) {
+      return new BlockingCoordinatorBackend(workerThreads, makePlatformThreadExecutor(), 
+                                            "platform thread coordinators " + 
+                                              "(virtual threads unavailable)");
+    } else {
+      return new BlockingCoordinatorBackend(workerThreads, virtualExecutor, 
+                                            "virtual thread coordinators");
+    }
+  }
+  
+  /**
+   * Constructs a backend which coordinates each number on its own platform thread.
+   * 
+   * @param workerThreads Amount of threads to run processing work on
+   * @return A started backend
+   */
+  public static PrimeExecutionBackend makePlatformThreadCoordinators(int workerThreads) {
+    return new BlockingCoordinatorBackend(workerThreads, makePlatformThreadExecutor(), 
+                                          "platform thread coordinators");
+  }
+  
+  /**
+   * Constructs a backend from its name as provided on the command line.
+   * 
+   * @param name One of {@code async}, {@code virtual} or {@code platform}
+   * @param workerThreads Amount of threads to run processing work on
+   * @return A started backend
+   */
+  public static PrimeExecutionBackend fromName(String name, int workerThreads) {
+    if (name.equals("async")) {
+      return makeAsync(workerThreads);
+    } else if (name.equals("virtual")) {
+      return makeVirtualThreadCoordinators(workerThreads);
+    } else if (name.equals("platform")) {
+      return makePlatformThreadCoordinators(workerThreads);
+    } else {
+      throw new IllegalArgumentException("Unknown backend: " + name);
+    }
+  }
+  
+  // looked up reflectively so this still compiles and runs on versions without virtual threads
+  private static ExecutorService makeVirtualThreadExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+  
+  private static ExecutorService makePlatformThreadExecutor() {
+    return Executors.newCachedThreadPool(new ConfigurableThreadFactory("coordinator-", false, true, 
+                                                                       Thread.NORM_PRIORITY, 
+                                                                       null, null, null));
+  }
+  
+  /**
+   * Scheduler which processing work is executed on.
+   */
+  protected final PriorityScheduler workers;
+  /**
+   * Amount of threads in {@link #workers}.
+   */
+  protected final int workerThreads;
+  
+  /**
+   * Constructs a new backend, starting the threads for processing work.
+   * 
+   * @param workerThreads Amount of threads to run processing work on
+   */
+  protected PrimeExecutionBackend(int workerThreads) {
+    this.workerThreads = workerThreads;
+    workers = new PriorityScheduler(workerThreads, true);
+    workers.prestartAllThreads();
+  }
+  
+  /**
+   * Returns the scheduler which processing work is executed on.
+   * 
+   * @return Scheduler for CPU bound work
+   */
+  public PriorityScheduler getWorkers() {
+    return workers;
+  }
+  
+  /**
+   * Returns the amount of threads processing work is executed on.
+   * 
+   * @return Thread count of {@link #getWorkers()}
+   */
+  public int getWorkerThreadCount() {
+    return workerThreads;
+  }
+  
+  /**
+   * Starts testing the number the processor was constructed with.
+   * 
+   * @param processor Processor to test with
+   * @return Future which will complete with the result
+   */
+  public abstract ListenableFuture<PrimeResult> test(PrimeProcessor processor);
+  
+  /**
+   * Returns a short description of how numbers are coordinated.
+   * 
+   * @return Human readable description
+   */
+  public abstract String getDescription();
+  
+  /**
+   * Stops all threads used by this backend, interrupting any running work.
+   */
+  public void shutdownNow() {
+    workers.shutdownNow();
+  }
+  
+  /**
+   * Backend which only uses the worker scheduler.
+   */
+  private static class AsyncBackend extends PrimeExecutionBackend {
+    private AsyncBackend(int workerThreads) {
+      super(workerThreads);
+    }
+    
+    @Override
+    public ListenableFuture<PrimeResult> test(PrimeProcessor processor) {
+      return processor.isPrimeAsync(workers, workerThreads);
+    }
+    
+    @Override
+    public String getDescription() {
+      return "async listeners";
+    }
+  }
+  
+  /**
+   * Backend which holds a coordinator thread blocked for each number being tested.
+   */
+  private static class BlockingCoordinatorBackend extends PrimeExecutionBackend {
+    private final ExecutorService coordinators;
+    private final String description;
+    
+    private BlockingCoordinatorBackend(int workerThreads, ExecutorService coordinators, 
+                                       String description) {
+      super(workerThreads);
+      
+      this.coordinators = coordinators;
+      this.description = description;
+    }
+    
+    @Override
+    public ListenableFuture<PrimeResult> test(final PrimeProcessor processor) {
+      return AbstractPrimeProcessor.submit(coordinators, new Callable<PrimeResult>() {
+        @Override
+        public PrimeResult call() throws Exception {
+          ListenableFuture<PrimeResult> result = processor.isPrimeAsync(workers, workerThreads);
+          try {
+            return result.get();
+          } catch (InterruptedException e) {
+            result.cancel(true);
+            throw e;
+          } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+              throw (Exception)e.getCause();
+            }
+            throw e;
+          }
+        }
+      }, TaskPriority.High);
+    }
+    
+    @Override
+    public String getDescription() {
+      return description;
+    }
+    
+    @Override
+    public void shutdownNow() {
+      super.shutdownNow();
+      coordinators.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Prints the complete prime factorization of each number provided as an argument.  All 
+ * numbers are factored concurrently using a {@link Factorizer}.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class PrimeFactors {
+  @SuppressWarnings("javadoc")
+  public static void main(final String args[]) throws InterruptedException {
+    if (args.length == 0) {
+      System.err.println("No number to factor provided");
+      System.err.println("Usage: java -cp threadly_examples.jar " + 
+                           PrimeFactors.class.getName() + " [number to factor]...");
+      System.exit(1);
+    }
+    
+    final int processingThreads = Runtime.getRuntime().availableProcessors() * 2;
+    final PriorityScheduler executor = new PriorityScheduler(processingThreads, true);
+    executor.prestartAllThreads();
+    Factorizer factorizer = new Factorizer(executor, processingThreads);
+    
+    List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>(args.length);
+    for (int i = 0; i < args.length; i++) {
+      futures.add(factorNumber(factorizer, new BigInteger(args[i])));
+    }
+    
+    // verify all finished
+    try {
+      FutureUtils.blockTillAllCompleteOrFirstError(futures);
+    } catch (ExecutionException e) {
+      throw ExceptionUtils.makeRuntime(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  private static ListenableFuture<String> factorNumber(Factorizer factorizer, final BigInteger n) {
+    final long start = Clock.accurateForwardProgressingMillis();
+    return factorizer.factor(n).map(new Function<List<PrimePower>, String>() {
+      @Override
+      public String apply(List<PrimePower> factors) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(n).append(" = ");
+        for (int i = 0; i < factors.size(); i++) {
+          if (i > 0) {
+            sb.append(" * ");
+          }
+          sb.append(factors.get(i));
+        }
+        sb.append(" (").append(Clock.accurateForwardProgressingMillis() - start).append("ms)");
+        String result = sb.toString();
+        System.out.println(result);
+        return result;
+      }
+    });
+  }
+}
@@ -0,0 +1,40 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+
+/**
+ * <p>A single prime factor and how many times it divides a number, as provided by 
+ * {@link Factorizer#factor(BigInteger)}.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class PrimePower {
+  /**
+   * Prime which divides the number.
+   */
+  public final BigInteger prime;
+  /**
+   * Amount of times the prime divides the number, always at least {@code 1}.
+   */
+  public final int exponent;
+  
+  /**
+   * Constructs a new prime power.
+   * 
+   * @param prime Prime factor
+   * @param exponent Amount of times the prime divides the number
+   */
+  public PrimePower(BigInteger prime, int exponent) {
+    this.prime = prime;
+    this.exponent = exponent;
+  }
+  
+  @Override
+  public String toString() {
+    if (exponent == 1) {
+      return prime.toString();
+    } else {
+      return prime + "^" + exponent;
+    }
+  }
+}
@@ -3,6 +3,8 @@ package org.threadly.examples.prime;
 import java.math.BigInteger;
 import java.util.concurrent.Executor;
 
+import org.threadly.concurrent.future.ListenableFuture;
+
 /**
  * <p>Interface for an implementation which can check if a given value is prime.</p>
  */
@@ -18,9 +20,23 @@ public interface PrimeProcessor {
    */
   public boolean isPrime(Executor executor, int parallelLevel) throws InterruptedException;
   
+  /**
+   * Starts the calculation to see if a number is prime or not.  Unlike 
+   * {@link #isPrime(Executor, int)} this does not hold a thread while waiting for the parallel 
+   * work to complete, so it is safe to call from within the same executor the work is submitted 
+   * to.  Cancelling the returned future will stop any outstanding work.
+   * 
+   * @param executor executor to call work on to
+   * @param parallelLevel amount of executions to submit to the executor
+   * @return future which will complete with the result of the calculation
+   */
+  public ListenableFuture<PrimeResult> isPrimeAsync(Executor executor, int parallelLevel);
+  
   /**
    * Call to get the factor of a number after isPrime has been called.  If isPrime has not 
-   * been called yet, this will return null.  If the number is prime, this will always be null.
+   * been called yet, this will return null.  If the number is prime, this will always be null. 
+   * Implementations which can prove a number composite without finding a factor (for example 
+   * {@link MillerRabinTester}) may also return null for composite numbers.
    * 
    * @return factor of the number provided to the processor
    */
@@ -0,0 +1,94 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+
+/**
+ * <p>Selects the {@link PrimeProcessor} implementation best suited for the size of the number 
+ * being tested.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class PrimeProcessorFactory {
+  // below this trial division is about as fast as Miller-Rabin, and also finds the smallest factor
+  private static final long TRIAL_DIVISION_LIMIT = 1L << 32;
+  private static volatile PrimeTable primeTable = null;
+  private static volatile PrimeResultCache resultCache = null;
+  
+  /**
+   * Sets a {@link PrimeTable} to be provided to every processor constructed after this call. 
+   * Small values will be answered directly from the table, and trial division will only check 
+   * prime divisors within it.
+   * 
+   * @param table Table to use, or {@code null} to stop using a table
+   */
+  public static void setPrimeTable(PrimeTable table) {
+    primeTable = table;
+  }
+  
+  /**
+   * Sets a {@link PrimeResultCache} which every processor constructed after this call will check 
+   * before testing, and store its result in.
+   * 
+   * @param cache Cache to use, or {@code null} to stop caching results
+   */
+  public static void setResultCache(PrimeResultCache cache) {
+    resultCache = cache;
+  }
+  
+  /**
+   * Constructs a processor for the provided number.  Values which fit in a {@code long} will be 
+   * tested with primitive math, using trial division for small values (so their smallest factor 
+   * is found) and a deterministic Miller-Rabin test for the rest.  Larger values fall back to a 
+   * {@link BigInteger} based Miller-Rabin test.
+   * 
+   * @param n Number to be tested
+   * @return A processor ready to have 
+   *           {@link PrimeProcessor#isPrime(java.util.concurrent.Executor, int)} invoked
+   */
+  public static PrimeProcessor makeProcessor(BigInteger n) {
+    return withCache(n, makeUncachedProcessor(n));
+  }
+  
+  /**
+   * Constructs a processor for the provided number.  Small values are tested with trial 
+   * division, larger values with a Miller-Rabin test which is deterministic for any 
+   * {@code long}.
+   * 
+   * @param n Number to be tested
+   * @return A processor ready to have 
+   *           {@link PrimeProcessor#isPrime(java.util.concurrent.Executor, int)} invoked
+   */
+  public static PrimeProcessor makeProcessor(long n) {
+    return withCache(BigInteger.valueOf(n), makeLongProcessor(n));
+  }
+  
+  /**
+   * Constructs a processor which will not use the result cache, even if one has been set.
+   */
+  static PrimeProcessor makeUncachedProcessor(BigInteger n) {
+    if (n.bitLength() < Long.SIZE) {
+      return makeLongProcessor(n.longValue());
+    } else {
+      return new MillerRabinTester(n);
+    }
+  }
+  
+  private static PrimeProcessor makeLongProcessor(long n) {
+    PrimeTable table = primeTable;
+    if (n < TRIAL_DIVISION_LIMIT || (table != null && n <= table.getLimit())) {
+      return new LongTester(n, table);
+    } else {
+      // proving a value this large prime by trial division takes far longer than Miller-Rabin
+      return new MillerRabinTester(BigInteger.valueOf(n));
+    }
+  }
+  
+  private static PrimeProcessor withCache(BigInteger n, PrimeProcessor processor) {
+    PrimeResultCache cache = resultCache;
+    if (cache == null) {
+      return processor;
+    } else {
+      return new CachingPrimeProcessor(cache, n, processor);
+    }
+  }
+}
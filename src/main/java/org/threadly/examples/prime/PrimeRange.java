@@ -0,0 +1,63 @@
+package org.threadly.examples.prime;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongPredicate;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Prints every prime within a range, in ascending order.  The range is split into segments 
+ * which are sieved in parallel by {@link SegmentedSieve}, with each prime written out as soon as 
+ * every segment before it has completed.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class PrimeRange {
+  @SuppressWarnings("javadoc")
+  public static void main(final String args[]) throws InterruptedException, IOException {
+    if (args.length < 2) {
+      System.err.println("No range provided");
+      System.err.println("Usage: java -cp threadly_examples.jar " + 
+                           PrimeRange.class.getName() + " [range start] [range end]");
+      System.exit(1);
+    }
+    long start = Long.parseLong(args[0]);
+    long end = Long.parseLong(args[1]);
+    
+    final int processingThreads = Runtime.getRuntime().availableProcessors() * 2;
+    final PriorityScheduler executor = new PriorityScheduler(processingThreads, true);
+    executor.prestartAllThreads();
+    
+    final Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+    long startTime = Clock.accurateForwardProgressingMillis();
+    try {
+      long count = new SegmentedSieve(executor, processingThreads) 
+                       .forEachPrime(start, end, new LongPredicate() {
+        @Override
+        public boolean test(long prime) {
+          try {
+            out.write(Long.toString(prime));
+            out.write('\n');
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          return true;
+        }
+      }).get();
+      out.flush();
+      System.err.println("Found " + count + " primes in " + 
+                           (Clock.accurateForwardProgressingMillis() - startTime) + "ms");
+    } catch (ExecutionException e) {
+      throw ExceptionUtils.makeRuntime(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
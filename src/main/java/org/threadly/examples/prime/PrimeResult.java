@@ -0,0 +1,49 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+
+/**
+ * <p>Result of checking if a number is prime, as provided by 
+ * {@link PrimeProcessor#isPrimeAsync(java.util.concurrent.Executor, int)}.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class PrimeResult {
+  /**
+   * Number which was tested.
+   */
+  public final BigInteger number;
+  /**
+   * {@code true} if the number was found to be prime.
+   */
+  public final boolean isPrime;
+  /**
+   * Factor of the number, always {@code null} for primes, and may be {@code null} for composites 
+   * if the processor was able to prove the number composite without finding a factor.
+   */
+  public final BigInteger factor;
+  
+  /**
+   * Constructs a new result.
+   * 
+   * @param number Number which was tested
+   * @param isPrime {@code true} if the number is prime
+   * @param factor Factor of the number, or {@code null} if unknown or prime
+   */
+  public PrimeResult(BigInteger number, boolean isPrime, BigInteger factor) {
+    this.number = number;
+    this.isPrime = isPrime;
+    this.factor = factor;
+  }
+  
+  @Override
+  public String toString() {
+    if (isPrime) {
+      return number + " is prime!";
+    } else if (factor == null) {
+      return number + " is not prime";
+    } else {
+      return number + " is divisible by: " + factor;
+    }
+  }
+}
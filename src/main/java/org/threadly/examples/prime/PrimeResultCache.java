@@ -0,0 +1,633 @@
+package org.threadly.examples.prime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.threadly.concurrent.future.FutureCallback;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Bounded, concurrent, least recently used cache of primality results.  Values which fit 
+ * within a {@code long} are stored in primitive arrays so that caching them does not allocate, 
+ * larger values are kept in a {@link LinkedHashMap}.  The cache is split into segments which are 
+ * locked independently.  The capacity is split between the segments, and is applied separately 
+ * to {@code long} sized and larger values.</p>
+ * 
+ * <p>Concurrent requests for a value which is not yet cached are collapsed into a single 
+ * computation, which is cancelled once every request for it has been cancelled.  If a file is 
+ * provided every computed result is appended to it, and the file is read back when the cache is 
+ * constructed so results survive restarts.  If writing to the file fails it is closed, and 
+ * results are only cached in memory from then on.</p>
+ * 
+ * <p>Use {@link #makeProcessor(BigInteger)}, or set the cache with 
+ * {@link PrimeProcessorFactory#setResultCache(PrimeResultCache)}, to get processors which check 
+ * this cache.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class PrimeResultCache implements Closeable {
+  private static final int SEGMENT_COUNT = 16;
+  // value stored for long keys, any other value is the smallest known factor
+  private static final long PRIME_VALUE = 0;
+  private static final long UNKNOWN_FACTOR_VALUE = -1;
+  private static final long MISSING_VALUE = Long.MIN_VALUE;
+  private static final int FLAG_PRIME = 1;
+  private static final int FLAG_HAS_FACTOR = 2;
+  
+  private final Segment[] segments;
+  private final Object fileLock = new Object();
+  private final ConcurrentHashMap<BigInteger, SharedComputation> inFlight = 
+      new ConcurrentHashMap<BigInteger, SharedComputation>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder collapsed = new LongAdder();
+  // only accessed while holding fileLock, set to null if writing fails
+  private DataOutputStream fileOutput;
+  
+  /**
+   * Constructs a new cache which is only held in memory.
+   * 
+   * @param capacity Maximum amount of results to hold
+   */
+  public PrimeResultCache(int capacity) {
+    segments = makeSegments(capacity);
+    fileOutput = null;
+  }
+  
+  /**
+   * Constructs a new cache which appends results to the provided file.  Any results already in 
+   * the file are loaded (the most recent ones being kept if there are more than the capacity).
+   * 
+   * @param capacity Maximum amount of results to hold in memory
+   * @param file File to load and persist results to
+   * @throws IOException Thrown if the file can not be read or opened for writing
+   */
+  public PrimeResultCache(int capacity, File file) throws IOException {
+    segments = makeSegments(capacity);
+    
+    if (file.exists()) {
+      long validLength = load(file);
+      if (validLength < file.length()) {
+        // drop a partially written record from an unclean shutdown
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+          raf.setLength(validLength);
+        }
+      }
+    }
+    fileOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+  }
+  
+  private static Segment[] makeSegments(int capacity) {
+    Segment[] result = new Segment[SEGMENT_COUNT];
+    int segmentCapacity = Math.max(1, capacity / SEGMENT_COUNT);
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      result[i] = new Segment(segmentCapacity);
+    }
+    return result;
+  }
+  
+  private long load(File file) throws IOException {
+    long fileLength = file.length();
+    long validLength = 0;
+    try (DataInputStream in = 
+             new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      while (true) {
+        int flags = in.read();
+        if (flags < 0) {
+          break;
+        }
+        byte[] number = new byte[readLength(in, fileLength - validLength - 1)];
+        in.readFully(number);
+        long recordLength = 1 + Integer.BYTES + number.length;
+        BigInteger factor = null;
+        if ((flags & FLAG_HAS_FACTOR) != 0) {
+          byte[] factorBytes = new byte[readLength(in, fileLength - validLength - recordLength)];
+          in.readFully(factorBytes);
+          factor = new BigInteger(factorBytes);
+          recordLength += Integer.BYTES + factorBytes.length;
+        }
+        BigInteger n = new BigInteger(number);
+        store(new PrimeResult(n, (flags & FLAG_PRIME) != 0, factor));
+        validLength += recordLength;
+      }
+    } catch (EOFException e) {
+      // partial or torn record, everything before it is valid
+    }
+    // loading is not a use of the cache
+    evictions.reset();
+    return validLength;
+  }
+  
+  /**
+   * Reads the length of a value in a record.  A length which could not have been written (from a 
+   * torn or corrupt record) is treated the same as reaching the end of the file.
+   * 
+   * @param in Stream to read from
+   * @param remaining Bytes left in the file, including the length itself
+   * @return Length of the value which follows
+   * @throws IOException Thrown if the length is not valid, or could not be read
+   */
+  private static int readLength(DataInputStream in, long remaining) throws IOException {
+    int length = in.readInt();
+    if (length < 1 || length > remaining - Integer.BYTES) {
+      throw new EOFException("Invalid value length: " + length);
+    }
+    return length;
+  }
+  
+  private Segment segmentFor(BigInteger n) {
+    int hash = n.hashCode() * 0x9E3779B9;
+    return segments[(hash >>> 16) & (SEGMENT_COUNT - 1)];
+  }
+  
+  /**
+   * Constructs a processor which will check this cache before testing the value with the 
+   * processor {@link PrimeProcessorFactory} would select.
+   * 
+   * @param n Number to be tested
+   * @return A processor which uses this cache
+   */
+  public PrimeProcessor makeProcessor(BigInteger n) {
+    return new CachingPrimeProcessor(this, n, PrimeProcessorFactory.makeUncachedProcessor(n));
+  }
+  
+  /**
+   * Returns the cached result for a value, or {@code null} if it is not in the cache.  This does 
+   * count as a use of the result for determining which results to evict.
+   * 
+   * @param n Number to look up
+   * @return The cached result or {@code null}
+   */
+  public PrimeResult get(BigInteger n) {
+    PrimeResult result = segmentFor(n).get(n);
+    if (result == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return result;
+  }
+  
+  /**
+   * Returns the cached result for the processors number, or starts a computation with the 
+   * processor if it is not cached.  If a computation is already in progress for the same number 
+   * the caller will receive the result of that computation instead.  Each call returns a distinct 
+   * future, so cancelling one will not impact other callers.  Once every caller waiting on a 
+   * computation has cancelled, the computation itself is cancelled.
+   * 
+   * @param n Number to be tested
+   * @param processor Processor to test the number with on a cache miss
+   * @param executor Executor to provide to the processor
+   * @param parallelLevel Parallel level to provide to the processor
+   * @return Future which will complete with the result
+   */
+  public ListenableFuture<PrimeResult> getOrCompute(BigInteger n, PrimeProcessor processor, 
+                                                    Executor executor, int parallelLevel) {
+    PrimeResult cached = get(n);
+    if (cached != null) {
+      return FutureUtils.immediateResultFuture(cached);
+    }
+    
+    SharedComputation computation = new SharedComputation(n);
+    while (true) {
+      SharedComputation existing = inFlight.putIfAbsent(n, computation);
+      if (existing == null) {
+        break;
+      } else if (existing.addCaller()) {
+        collapsed.increment();
+        return existing.forCaller();
+      } else if (inFlight.replace(n, existing, computation)) {
+        // every caller of the existing computation cancelled, so it is being abandoned
+        break;
+      }
+    }
+    // may have completed between the cache check and registering as in flight
+    cached = segmentFor(n).get(n);
+    if (cached != null) {
+      inFlight.remove(n, computation);
+      computation.result.setResult(cached);
+      return computation.result;
+    }
+    
+    computation.start(processor, executor, parallelLevel);
+    return computation.forCaller();
+  }
+  
+  private void store(PrimeResult result) {
+    if (segmentFor(result.number).put(result)) {
+      evictions.increment();
+    }
+  }
+  
+  private void append(PrimeResult result) {
+    int flags = (result.isPrime ? FLAG_PRIME : 0) | (result.factor != null ? FLAG_HAS_FACTOR : 0);
+    byte[] number = result.number.toByteArray();
+    synchronized (fileLock) {
+      if (fileOutput == null) {
+        return;
+      }
+      try {
+        fileOutput.write(flags);
+        fileOutput.writeInt(number.length);
+        fileOutput.write(number);
+        if (result.factor != null) {
+          byte[] factor = result.factor.toByteArray();
+          fileOutput.writeInt(factor.length);
+          fileOutput.write(factor);
+        }
+      } catch (IOException e) {
+        // stop persisting, a later record could follow a partial one and be lost when loaded
+        try {
+          fileOutput.close();
+        } catch (IOException closeException) {
+          e.addSuppressed(closeException);
+        }
+        fileOutput = null;
+        ExceptionUtils.handleException(e);
+      }
+    }
+  }
+  
+  /**
+   * Returns how many lookups have found a cached result.
+   * 
+   * @return Count of cache hits
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+  
+  /**
+   * Returns how many lookups did not find a cached result.  Requests which were collapsed into an 
+   * in progress computation are included.
+   * 
+   * @return Count of cache misses
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+  
+  /**
+   * Returns how many results have been removed to make room for newer results.
+   * 
+   * @return Count of evicted results
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+  
+  /**
+   * Returns how many misses were satisfied by a computation which was already in progress.
+   * 
+   * @return Count of collapsed requests
+   */
+  public long getCollapsedCount() {
+    return collapsed.sum();
+  }
+  
+  @Override
+  public String toString() {
+    return "hits=" + getHitCount() + ", misses=" + getMissCount() + 
+             ", evictions=" + getEvictionCount() + ", collapsed=" + getCollapsedCount();
+  }
+  
+  /**
+   * Flushes any results not yet written to the file, and closes it.
+   * 
+   * @throws IOException Thrown if the file could not be written to
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (fileLock) {
+      if (fileOutput != null) {
+        try {
+          fileOutput.close();
+        } finally {
+          fileOutput = null;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Computation of a value which every concurrent request for it waits on.  Callers are counted 
+   * so that the processor's computation can be cancelled once none of them want the result.
+   */
+  private class SharedComputation {
+    private final BigInteger n;
+    private final SettableListenableFuture<PrimeResult> result;
+    // remaining fields only accessed while synchronized on this
+    private int callerCount;
+    private boolean abandoned;
+    private ListenableFuture<PrimeResult> delegate;
+    
+    private SharedComputation(BigInteger n) {
+      this.n = n;
+      result = new SettableListenableFuture<PrimeResult>(false);
+      callerCount = 1;
+      abandoned = false;
+      delegate = null;
+    }
+    
+    /**
+     * Counts an additional caller for the result.
+     * 
+     * @return {@code false} if every previous caller cancelled and this computation can not be used
+     */
+    private synchronized boolean addCaller() {
+      if (abandoned) {
+        return false;
+      }
+      callerCount++;
+      return true;
+    }
+    
+    private void start(PrimeProcessor processor, Executor executor, int parallelLevel) {
+      ListenableFuture<PrimeResult> future = processor.isPrimeAsync(executor, parallelLevel);
+      synchronized (this) {
+        delegate = future;
+      }
+      future.callback(new FutureCallback<PrimeResult>() {
+        @Override
+        public void handleResult(PrimeResult r) {
+          store(r);
+          append(r);
+          inFlight.remove(n, SharedComputation.this);
+          result.setResult(r);
+        }
+        
+        @Override
+        public void handleFailure(Throwable t) {
+          inFlight.remove(n, SharedComputation.this);
+          result.setFailure(t);
+        }
+      });
+    }
+    
+    /**
+     * Returns a future for a counted caller, which when cancelled releases its count.
+     */
+    private ListenableFuture<PrimeResult> forCaller() {
+      if (result.isDone()) {
+        return result;
+      }
+      final SettableListenableFuture<PrimeResult> callerResult = 
+          new SettableListenableFuture<PrimeResult>(false);
+      result.callback(new FutureCallback<PrimeResult>() {
+        @Override
+        public void handleResult(PrimeResult r) {
+          callerResult.setResult(r);
+        }
+        
+        @Override
+        public void handleFailure(Throwable t) {
+          callerResult.setFailure(t);
+        }
+      });
+      callerResult.listener(new Runnable() {
+        @Override
+        public void run() {
+          if (callerResult.isCancelled()) {
+            callerCancelled();
+          }
+        }
+      });
+      return callerResult;
+    }
+    
+    private void callerCancelled() {
+      ListenableFuture<PrimeResult> toCancel;
+      synchronized (this) {
+        if (--callerCount > 0 || abandoned) {
+          return;
+        }
+        abandoned = true;
+        toCancel = delegate;
+      }
+      inFlight.remove(n, this);
+      if (toCancel != null) {
+        toCancel.cancel(false);
+      }
+    }
+  }
+  
+  /**
+   * Independently locked part of the cache.  Holds a primitive LRU for {@code long} sized values, 
+   * and an access ordered {@link LinkedHashMap} for anything larger.
+   */
+  private static class Segment {
+    private final LongLru longEntries;
+    private final LinkedHashMap<BigInteger, PrimeResult> bigEntries;
+    private boolean bigEvicted;
+    
+    private Segment(final int capacity) {
+      longEntries = new LongLru(capacity);
+      bigEntries = new LinkedHashMap<BigInteger, PrimeResult>(16, .75f, true) {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BigInteger, PrimeResult> eldest) {
+          bigEvicted = size() > capacity;
+          return bigEvicted;
+        }
+      };
+      bigEvicted = false;
+    }
+    
+    private synchronized PrimeResult get(BigInteger n) {
+      if (n.bitLength() < Long.SIZE) {
+        long value = longEntries.get(n.longValue());
+        if (value == MISSING_VALUE) {
+          return null;
+        } else if (value == PRIME_VALUE) {
+          return new PrimeResult(n, true, null);
+        } else {
+          return new PrimeResult(n, false, 
+                                 value == UNKNOWN_FACTOR_VALUE ? null : BigInteger.valueOf(value));
+        }
+      } else {
+        return bigEntries.get(n);
+      }
+    }
+    
+    /**
+     * Stores the result, returning {@code true} if another result was evicted to make room.
+     */
+    private synchronized boolean put(PrimeResult result) {
+      if (result.number.bitLength() < Long.SIZE) {
+        long value;
+        if (result.isPrime) {
+          value = PRIME_VALUE;
+        } else if (result.factor == null) {
+          value = UNKNOWN_FACTOR_VALUE;
+        } else {
+          value = result.factor.longValue();
+        }
+        return longEntries.put(result.number.longValue(), value);
+      } else {
+        bigEntries.put(result.number, result);
+        boolean evicted = bigEvicted;
+        bigEvicted = false;
+        return evicted;
+      }
+    }
+  }
+  
+  /**
+   * Fixed capacity LRU map from {@code long} to {@code long}, which does not allocate after 
+   * construction.  Entries are kept in a doubly linked list (through index arrays) from most to 
+   * least recently used, and found through an open addressed table of entry indexes.  Not thread 
+   * safe.
+   */
+  private static class LongLru {
+    private static final int NONE = -1;
+    
+    private final long[] keys;
+    private final long[] values;
+    private final int[] previous;
+    private final int[] next;
+    // entry index + 1, so that 0 represents an empty slot
+    private final int[] table;
+    private final int tableMask;
+    private int size;
+    private int head;
+    private int tail;
+    
+    private LongLru(int capacity) {
+      keys = new long[capacity];
+      values = new long[capacity];
+      previous = new int[capacity];
+      next = new int[capacity];
+      table = new int[Integer.highestOneBit(Math.max(2, capacity) * 2) * 2];
+      tableMask = table.length - 1;
+      size = 0;
+      head = NONE;
+      tail = NONE;
+    }
+    
+    private int home(long key) {
+      long hash = key * 0x9E3779B97F4A7C15L;
+      return (int)(hash >>> 32) & tableMask;
+    }
+    
+    private int findSlot(long key) {
+      for (int slot = home(key); table[slot] != 0; slot = (slot + 1) & tableMask) {
+        if (keys[table[slot] - 1] == key) {
+          return slot;
+        }
+      }
+      return NONE;
+    }
+    
+    private long get(long key) {
+      int slot = findSlot(key);
+      if (slot == NONE) {
+        return MISSING_VALUE;
+      }
+      int entry = table[slot] - 1;
+      moveToHead(entry);
+      return values[entry];
+    }
+    
+    private boolean put(long key, long value) {
+      int slot = findSlot(key);
+      if (slot != NONE) {
+        int entry = table[slot] - 1;
+        values[entry] = value;
+        moveToHead(entry);
+        return false;
+      }
+      
+      boolean evicted;
+      int entry;
+      if (size < keys.length) {
+        entry = size++;
+        evicted = false;
+      } else {
+        entry = tail;
+        unlink(entry);
+        removeSlot(findSlot(keys[entry]));
+        evicted = true;
+      }
+      keys[entry] = key;
+      values[entry] = value;
+      linkHead(entry);
+      slot = home(key);
+      while (table[slot] != 0) {
+        slot = (slot + 1) & tableMask;
+      }
+      table[slot] = entry + 1;
+      return evicted;
+    }
+    
+    // backward shift deletion, so that no tombstones are needed
+    private void removeSlot(int slot) {
+      int gap = slot;
+      int current = slot;
+      while (true) {
+        current = (current + 1) & tableMask;
+        if (table[current] == 0) {
+          break;
+        }
+        int currentHome = home(keys[table[current] - 1]);
+        // move back if the gap is between this entries home and its current slot
+        if (((current - currentHome) & tableMask) >= ((current - gap) & tableMask)) {
+          table[gap] = table[current];
+          gap = current;
+        }
+      }
+      table[gap] = 0;
+    }
+    
+    private void moveToHead(int entry) {
+      if (entry != head) {
+        unlink(entry);
+        linkHead(entry);
+      }
+    }
+    
+    private void unlink(int entry) {
+      if (previous[entry] == NONE) {
+        head = next[entry];
+      } else {
+        next[previous[entry]] = next[entry];
+      }
+      if (next[entry] == NONE) {
+        tail = previous[entry];
+      } else {
+        previous[next[entry]] = previous[entry];
+      }
+    }
+    
+    private void linkHead(int entry) {
+      previous[entry] = NONE;
+      next[entry] = head;
+      if (head != NONE) {
+        previous[head] = entry;
+      }
+      head = entry;
+      if (tail == NONE) {
+        tail = entry;
+      }
+    }
+  }
+}
@@ -0,0 +1,277 @@
+package org.threadly.examples.prime;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * <p>Persistent table of primes, stored on disk as one bit per odd number and accessed through 
+ * memory mapped buffers.  Since the table lives outside of the heap it can be far larger than the 
+ * heap without adding any GC pressure, and opening an existing table only needs the pages which 
+ * are actually read to be loaded.</p>
+ * 
+ * <p>The table is built in parallel from {@link SegmentedSieve} segments, with each segment 
+ * written directly into the mapped file.  The header is written last, so a partially built file 
+ * will never be opened.</p>
+ * 
+ * <p>Once opened, a table can answer primality for any value up to its limit with a single bit 
+ * lookup, and can be used by {@link LongTester} so that only prime divisors are checked.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class PrimeTable implements Closeable {
+  private static final long MAGIC = 0x5052494d45544231L; // "PRIMETB1"
+  private static final int HEADER_SIZE = 64;
+  // 1GB regions, well within the limit of a single mapped buffer
+  private static final int REGION_WORDS_SHIFT = 27;
+  private static final long REGION_WORDS_MASK = (1L << REGION_WORDS_SHIFT) - 1;
+  private static final long REGION_WORDS = 1L << REGION_WORDS_SHIFT;
+  
+  @SuppressWarnings("javadoc")
+  public static void main(final String args[]) throws InterruptedException, IOException {
+    if (args.length < 2) {
+      System.err.println("No table file or limit provided");
+      System.err.println("Usage: java -cp threadly_examples.jar " + 
+                           PrimeTable.class.getName() + " [table file] [largest value]");
+      System.exit(1);
+    }
+    
+    final int processingThreads = Runtime.getRuntime().availableProcessors() * 2;
+    final PriorityScheduler executor = new PriorityScheduler(processingThreads, true);
+    executor.prestartAllThreads();
+    
+    long start = Clock.accurateForwardProgressingMillis();
+    try {
+      PrimeTable table = build(new File(args[0]), Long.parseLong(args[1]), executor).get();
+      table.close();
+      System.out.println("Built table up to " + table.getLimit() + " in " + 
+                           (Clock.accurateForwardProgressingMillis() - start) + "ms");
+    } catch (ExecutionException e) {
+      throw ExceptionUtils.makeRuntime(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
+  /**
+   * Opens a table which was previously built with 
+   * {@link #build(File, long, Executor)}.
+   * 
+   * @param file File the table was written to
+   * @return Table ready for lookups
+   * @throws IOException Thrown if the file can not be read or is not a complete table
+   */
+  public static PrimeTable open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getLong(0) != MAGIC) {
+        throw new IOException("Not a complete prime table: " + file);
+      }
+      long limit = header.getLong(Long.BYTES);
+      long wordCount = header.getLong(Long.BYTES * 2);
+      if (channel.size() < HEADER_SIZE + (wordCount * Long.BYTES)) {
+        throw new IOException("Prime table truncated: " + file);
+      }
+      
+      return new PrimeTable(raf, limit, wordCount, MapMode.READ_ONLY);
+    } catch (IOException | RuntimeException e) {
+      raf.close();
+      throw e;
+    }
+  }
+  
+  /**
+   * Builds a new table which covers every value up to the provided limit, replacing any existing 
+   * file.  Segments of the table are sieved in parallel on the provided executor.
+   * 
+   * @param file File to write the table to
+   * @param limit Largest value to be included in the table
+   * @param executor Executor to sieve segments on
+   * @return Future which completes with the opened table once it has been fully written
+   * @throws IOException Thrown if the file could not be created
+   */
+  public static ListenableFuture<PrimeTable> build(File file, final long limit, 
+                                                   Executor executor) throws IOException {
+    if (limit < 2 || limit > SegmentedSieve.MAX_VALUE) {
+      throw new IllegalArgumentException("Limit must be in range [2, " + 
+                                           SegmentedSieve.MAX_VALUE + "]: " + limit);
+    }
+    // table always covers whole segments, bit i represents 2i + 1
+    final long segmentCount = (limit / SegmentedSieve.SEGMENT_SPAN) + 1;
+    long wordCount = segmentCount * SegmentedSieve.SEGMENT_WORDS;
+    
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    final PrimeTable table;
+    try {
+      raf.setLength(0);
+      raf.setLength(HEADER_SIZE + (wordCount * Long.BYTES));
+      table = new PrimeTable(raf, limit, wordCount, MapMode.READ_WRITE);
+    } catch (IOException | RuntimeException e) {
+      raf.close();
+      throw e;
+    }
+    
+    SegmentedSieve sieve = new SegmentedSieve(executor, 1);
+    final int[] basePrimes = sieve.getBasePrimes(AbstractTrialDivisionTester.isqrt(limit));
+    List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>((int)segmentCount);
+    for (long i = 0; i < segmentCount; i++) {
+      final long segment = i;
+      futures.add(AbstractPrimeProcessor.submit(executor, new Callable<Void>() {
+        @Override
+        public Void call() {
+          table.writeSegment(basePrimes, segment);
+          return null;
+        }
+      }, TaskPriority.High));
+    }
+    
+    return FutureUtils.makeFailurePropagatingCompleteFuture(futures) 
+                      .map(new Function<Object, PrimeTable>() {
+      @Override
+      public PrimeTable apply(Object ignored) {
+        table.finishBuild();
+        return table;
+      }
+    });
+  }
+  
+  private final RandomAccessFile file;
+  private final long limit;
+  private final MappedByteBuffer header;
+  private final MappedByteBuffer[] regions;
+  
+  private PrimeTable(RandomAccessFile file, long limit, 
+                     long wordCount, MapMode mode) throws IOException {
+    this.file = file;
+    this.limit = limit;
+    FileChannel channel = file.getChannel();
+    header = channel.map(mode, 0, HEADER_SIZE);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    regions = new MappedByteBuffer[(int)((wordCount + REGION_WORDS - 1) / REGION_WORDS)];
+    for (int i = 0; i < regions.length; i++) {
+      long regionWords = Math.min(REGION_WORDS, wordCount - (i * REGION_WORDS));
+      regions[i] = channel.map(mode, HEADER_SIZE + (i * REGION_WORDS * Long.BYTES), 
+                               regionWords * Long.BYTES);
+      regions[i].order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    if (mode == MapMode.READ_WRITE) {
+      header.putLong(Long.BYTES, limit);
+      header.putLong(Long.BYTES * 2, wordCount);
+    }
+  }
+  
+  private long getWord(long wordIndex) {
+    return regions[(int)(wordIndex >>> REGION_WORDS_SHIFT)] 
+             .getLong((int)(wordIndex & REGION_WORDS_MASK) * Long.BYTES);
+  }
+  
+  private void writeSegment(int[] basePrimes, long segment) {
+    long segmentStart = 1 + (segment * SegmentedSieve.SEGMENT_SPAN);
+    long segmentEnd = Math.min(limit, segmentStart + SegmentedSieve.SEGMENT_SPAN - 2);
+    long[] composite = SegmentedSieve.sieveSegment(basePrimes, segmentStart, segmentEnd);
+    long firstWord = segment * SegmentedSieve.SEGMENT_WORDS;
+    long limitBit = (limit - 1) >>> 1;
+    for (int i = 0; i < composite.length; i++) {
+      long wordIndex = firstWord + i;
+      long primes = ~composite[i];
+      // clear anything past the limit, since it was not sieved
+      if (wordIndex > limitBit >>> 6) {
+        primes = 0;
+      } else if (wordIndex == limitBit >>> 6 && (limitBit & 63) != 63) {
+        primes &= (1L << ((limitBit & 63) + 1)) - 1;
+      }
+      // absolute puts to distinct words, so segments can be written concurrently
+      regions[(int)(wordIndex >>> REGION_WORDS_SHIFT)] 
+        .putLong((int)(wordIndex & REGION_WORDS_MASK) * Long.BYTES, primes);
+    }
+  }
+  
+  private void finishBuild() {
+    for (MappedByteBuffer region : regions) {
+      region.force();
+    }
+    // magic written last so that an incomplete table is never opened
+    header.putLong(0, MAGIC);
+    header.force();
+  }
+  
+  /**
+   * Returns the largest value this table contains.
+   * 
+   * @return Largest value which can be checked against the table
+   */
+  public long getLimit() {
+    return limit;
+  }
+  
+  /**
+   * Checks if a value is prime with a single bit lookup.
+   * 
+   * @param value Value to check, must be no larger than {@link #getLimit()}
+   * @return {@code true} if the value is prime
+   */
+  public boolean isPrime(long value) {
+    if (value > limit) {
+      throw new IllegalArgumentException("Value beyond table limit of " + limit + ": " + value);
+    } else if (value < 3) {
+      return value == 2;
+    } else if ((value & 1) == 0) {
+      return false;
+    }
+    
+    long bit = value >>> 1;
+    return (getWord(bit >>> 6) & (1L << bit)) != 0;
+  }
+  
+  /**
+   * Finds the smallest odd prime which is greater than or equal to the provided value.
+   * 
+   * @param value Value to start searching from
+   * @return The next odd prime, or {@code -1} if there is none up to {@link #getLimit()}
+   */
+  public long nextOddPrime(long value) {
+    long bit = Math.max(3, value) >>> 1;
+    long lastWord = ((limit - 1) >>> 1) >>> 6;
+    long wordIndex = bit >>> 6;
+    if (wordIndex > lastWord) {
+      return -1;
+    }
+    long primes = getWord(wordIndex) & (-1L << bit);
+    while (primes == 0) {
+      if (++wordIndex > lastWord) {
+        return -1;
+      }
+      primes = getWord(wordIndex);
+    }
+    
+    return (((wordIndex << 6) + Long.numberOfTrailingZeros(primes)) * 2) + 1;
+  }
+  
+  @Override
+  public void close() throws IOException {
+    // buffers remain valid until collected, but the file handle can be released now
+    file.close();
+  }
+}
@@ -1,11 +1,14 @@
 package org.threadly.examples.prime;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 
-import org.threadly.concurrent.PriorityScheduler;
 import org.threadly.concurrent.future.FutureUtils;
 import org.threadly.concurrent.future.ListenableFuture;
 import org.threadly.util.ExceptionUtils;
@@ -17,57 +20,80 @@ import org.threadly.util.ExceptionUtils;
  * @author jent - Mike Jensen
  */
 public class PrimeTester {
+  private static final int CACHE_CAPACITY = 1 << 20;
+  
   @SuppressWarnings("javadoc")
-  public static void main(final String args[]) throws InterruptedException {
-    if (args.length == 0) {
+  public static void main(final String args[]) throws InterruptedException, IOException {
+    if (args.length > 0 && args[0].equals("-batch")) {
+      BatchPrimeTester.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+    PrimeResultCache cache = null;
+    String backendName = "async";
+    int argIndex = 0;
+    while (argIndex + 1 < args.length) {
+      if (args[argIndex].equals("-table")) {
+        PrimeProcessorFactory.setPrimeTable(PrimeTable.open(new File(args[argIndex + 1])));
+      } else if (args[argIndex].equals("-cache")) {
+        cache = new PrimeResultCache(CACHE_CAPACITY, new File(args[argIndex + 1]));
+        PrimeProcessorFactory.setResultCache(cache);
+      } else if (args[argIndex].equals("-backend")) {
+        backendName = args[argIndex + 1];
+      } else {
+        break;
+      }
+      argIndex += 2;
+    }
+    if (args.length == argIndex) {
       System.err.println("No number to test provided");
       System.err.println("Usage: java -cp threadly_examples.jar " + 
-                           PrimeTester.class.getName() + " [number to test]...");
+                           PrimeTester.class.getName() + " [-table file] [-cache file] " + 
+                           "[-backend async|virtual|platform] [number to test]...");
+      System.err.println("\t-table: Use a table built with " + PrimeTable.class.getName());
+      System.err.println("\t-cache: Load and store results in a file so they are kept " + 
+                           "between runs");
+      System.err.println("\t-backend: How tests are coordinated, see " + 
+                           PrimeExecutionBackend.class.getName());
+      System.err.println("\t-batch: Test numbers from a file, see " + 
+                           BatchPrimeTester.class.getName());
       System.exit(1);
     }
     
-    final int processingThreads = Runtime.getRuntime().availableProcessors() * 2;
-    int threadPoolSize = processingThreads + args.length - 1;
-    final PriorityScheduler executor = new PriorityScheduler(threadPoolSize, true);
-    executor.prestartAllThreads();
+    // processing work is CPU bound, so workers only need to match the core count
+    final PrimeExecutionBackend backend = 
+        PrimeExecutionBackend.fromName(backendName, Runtime.getRuntime().availableProcessors());
     
     List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>(args.length);
     
-    for (int i = 0; i < args.length - 1; i++) {
-      final int f_i = i;
-      futures.add(executor.submit(new Runnable() {
-        @Override
-        public void run() {
-          try {
-            testNumber(executor, processingThreads, args[f_i]);
-          } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-          }
-        }
-      }));
+    for (int i = argIndex; i < args.length; i++) {
+      futures.add(testNumber(backend, args[i]));
     }
     
-    // last one we always wait for on the main thread
-    testNumber(executor, processingThreads, args[args.length - 1]);
-    
-    // verify all others finished
+    // verify all finished
     try {
       FutureUtils.blockTillAllCompleteOrFirstError(futures);
     } catch (ExecutionException e) {
       throw ExceptionUtils.makeRuntime(e.getCause());
+    } finally {
+      backend.shutdownNow();
+      if (cache != null) {
+        cache.close();
+        System.err.println("Result cache: " + cache);
+      }
     }
   }
   
-  private static void testNumber(PriorityScheduler executor, 
-                                 int threadCount, String number) throws InterruptedException {
-    // TODO - improve this with an AKS implementation
-    PrimeProcessor primeProcessor = new DumbTester(new BigInteger(number));
+  private static ListenableFuture<PrimeResult> testNumber(PrimeExecutionBackend backend, 
+                                                          String number) {
+    PrimeProcessor primeProcessor = PrimeProcessorFactory.makeProcessor(new BigInteger(number));
     
-    boolean isPrime = primeProcessor.isPrime(executor, threadCount);
-    if (isPrime) {
-      System.out.println(number + " is prime!");
-    } else {
-      System.out.println(number + " is divisible by: " + primeProcessor.getFactor());
-    }
+    // mapped so the returned future does not complete until the result has been printed
+    return backend.test(primeProcessor).map(new Function<PrimeResult, PrimeResult>() {
+      @Override
+      public PrimeResult apply(PrimeResult result) {
+        System.out.println(result);
+        return result;
+      }
+    });
   }
 }
@@ -0,0 +1,344 @@
+package org.threadly.examples.prime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+
+import org.threadly.concurrent.TaskPriority;
+import org.threadly.concurrent.future.FutureCallback;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+
+/**
+ * <p>Segmented Sieve of Eratosthenes for finding every prime within a range.  Rather than testing 
+ * each candidate on its own, the range is split into cache sized segments.  Each segment is a 
+ * {@code long[]} bitset (one bit per odd number) which is sieved by the base primes on the 
+ * executor.  Segments are computed in parallel, but results are delivered to the consumer in 
+ * ascending order, as soon as every lower segment has been delivered.</p>
+ * 
+ * <p>The base primes (up to the square root of the end of the range) are computed once and kept 
+ * for future runs, so a single instance should be reused when possible.  Ranges may extend up to 
+ * {@link #MAX_VALUE}, which keeps the base primes to a few tens of megabytes.</p>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class SegmentedSieve {
+  /**
+   * Largest value which can be included in a sieved range.
+   */
+  public static final long MAX_VALUE = 1L << 56;
+  // 32k per segment, which should fit within L1 cache
+  static final int SEGMENT_WORDS = 1 << 12;
+  static final int SEGMENT_BITS = SEGMENT_WORDS * Long.SIZE;
+  static final long SEGMENT_SPAN = SEGMENT_BITS * 2L;
+  
+  private final Executor executor;
+  private final int parallelLevel;
+  private int[] basePrimes;
+  private long basePrimeLimit;
+  
+  /**
+   * Constructs a new sieve which will use the provided executor for sieving segments.
+   * 
+   * @param executor Executor to sieve segments on
+   * @param parallelLevel Amount of segments to have in flight at any time
+   */
+  public SegmentedSieve(Executor executor, int parallelLevel) {
+    this.executor = executor;
+    this.parallelLevel = parallelLevel;
+    basePrimes = new int[0];
+    basePrimeLimit = 0;
+  }
+  
+  /**
+   * Delivers every prime in the range {@code [start, end]} to the provided consumer, in 
+   * ascending order.  The consumer is never invoked concurrently, and may return {@code false} to 
+   * stop the search early.  Cancelling the returned future will also stop the search.
+   * 
+   * @param start Lowest value to consider (inclusive)
+   * @param end Highest value to consider (inclusive)
+   * @param consumer Consumer to accept primes, returns {@code true} to continue the search
+   * @return Future which completes with the count of primes delivered once the search is done
+   */
+  public ListenableFuture<Long> forEachPrime(long start, long end, LongPredicate consumer) {
+    if (end > MAX_VALUE) {
+      throw new IllegalArgumentException("End must be <= " + MAX_VALUE + ": " + end);
+    }
+    start = Math.max(start, 0);
+    if (start > end) {
+      return FutureUtils.immediateResultFuture(0L);
+    }
+    
+    long count = 0;
+    if (start <= 2 && end >= 2) {
+      count++;
+      if (! consumer.test(2)) {
+        return FutureUtils.immediateResultFuture(count);
+      }
+    }
+    long firstOdd = Math.max(3, start | 1);
+    if (firstOdd > end) {
+      return FutureUtils.immediateResultFuture(count);
+    }
+    
+    return new SieveRun(getBasePrimes(AbstractTrialDivisionTester.isqrt(end)), 
+                        firstOdd, end, count, consumer).start();
+  }
+  
+  /**
+   * Finds the smallest prime which is greater than the provided value.
+   * 
+   * @param value Value to search above
+   * @return Future which will complete with the next prime
+   */
+  public ListenableFuture<Long> nextPrime(final long value) {
+    // a wave of segments is more than any prime gap in range, but loop just in case
+    final long end = Math.min(MAX_VALUE, value + (SEGMENT_SPAN * parallelLevel));
+    final long[] result = new long[1];
+    return forEachPrime(value + 1, end, new LongPredicate() {
+      @Override
+      public boolean test(long prime) {
+        result[0] = prime;
+        return false;
+      }
+    }).flatMap(new Function<Long, ListenableFuture<Long>>() {
+      @Override
+      public ListenableFuture<Long> apply(Long count) {
+        if (count > 0) {
+          return FutureUtils.immediateResultFuture(result[0]);
+        } else if (end == MAX_VALUE) {
+          throw new IllegalArgumentException("No prime found below " + MAX_VALUE);
+        } else {
+          return nextPrime(end);
+        }
+      }
+    });
+  }
+  
+  /**
+   * Returns the odd primes up to at least the provided limit, computing them with a simple sieve 
+   * if they are not already known.
+   */
+  synchronized int[] getBasePrimes(long limit) {
+    if (limit <= basePrimeLimit) {
+      return basePrimes;
+    }
+    
+    // bit i represents 2i + 1
+    int bits = (int)(limit / 2) + 1;
+    long[] composite = new long[(bits >>> 6) + 1];
+    composite[0] |= 1;  // 1 is not prime
+    for (long i = 1; (2 * i + 1) * (2 * i + 1) <= limit; i++) {
+      if ((composite[(int)(i >>> 6)] & (1L << i)) == 0) {
+        long p = 2 * i + 1;
+        for (long j = (p * p) >>> 1; j < bits; j += p) {
+          composite[(int)(j >>> 6)] |= 1L << j;
+        }
+      }
+    }
+    // mask off bits past the limit, then count so the primes can be packed into an array
+    composite[composite.length - 1] |= -1L << (bits & 63);
+    int primeCount = 0;
+    for (long word : composite) {
+      primeCount += Long.bitCount(~word);
+    }
+    int[] result = new int[primeCount];
+    int index = 0;
+    for (int word = 0; word < composite.length; word++) {
+      long primeBits = ~composite[word];
+      while (primeBits != 0) {
+        int bit = Long.numberOfTrailingZeros(primeBits);
+        primeBits &= primeBits - 1;
+        result[index++] = (((word << 6) + bit) * 2) + 1;
+      }
+    }
+    
+    basePrimes = result;
+    basePrimeLimit = limit;
+    return result;
+  }
+  
+  /**
+   * Marks every odd composite in a segment.  In the returned bitset bit {@code i} represents the 
+   * value {@code segmentStart + 2i}, with a set bit indicating the value is composite.
+   */
+  static long[] sieveSegment(int[] basePrimes, long segmentStart, long segmentEnd) {
+    long[] composite = new long[SEGMENT_WORDS];
+    for (int prime : basePrimes) {
+      long p = prime;
+      long square = p * p;
+      if (square > segmentEnd) {
+        break;
+      }
+      // first odd multiple of p within the segment, but never below p squared
+      long multiple;
+      if (square >= segmentStart) {
+        multiple = square;
+      } else {
+        multiple = ((segmentStart + p - 1) / p) * p;
+        if ((multiple & 1) == 0) {
+          multiple += p;
+        }
+      }
+      for (long i = (multiple - segmentStart) >>> 1; i < SEGMENT_BITS; i += p) {
+        composite[(int)(i >>> 6)] |= 1L << i;
+      }
+    }
+    if (segmentStart == 1) {
+      composite[0] |= 1;  // 1 is not prime
+    }
+    return composite;
+  }
+  
+  /**
+   * State for a single search over a range.  Segments are submitted as earlier ones complete, and 
+   * delivered in order by whichever thread completes the next expected segment.
+   */
+  private class SieveRun {
+    private final int[] runBasePrimes;
+    private final long firstOdd;
+    private final long end;
+    private final LongPredicate consumer;
+    private final long segmentCount;
+    private final SettableListenableFuture<Long> result;
+    private final Map<Long, long[]> readySegments;
+    private final List<ListenableFuture<long[]>> inFlight;
+    private long deliveredCount;
+    private long nextSubmitIndex;
+    private long nextDeliverIndex;
+    private boolean delivering;
+    
+    private SieveRun(int[] basePrimes, long firstOdd, long end, 
+                     long initialCount, LongPredicate consumer) {
+      this.runBasePrimes = basePrimes;
+      this.firstOdd = firstOdd;
+      this.end = end;
+      this.consumer = consumer;
+      segmentCount = ((end - firstOdd) / SEGMENT_SPAN) + 1;
+      result = new SettableListenableFuture<Long>(false);
+      readySegments = new HashMap<Long, long[]>();
+      inFlight = new ArrayList<ListenableFuture<long[]>>(parallelLevel * 2);
+      deliveredCount = initialCount;
+      nextSubmitIndex = 0;
+      nextDeliverIndex = 0;
+      delivering = false;
+    }
+    
+    private ListenableFuture<Long> start() {
+      result.listener(new Runnable() {
+        @Override
+        public void run() {
+          List<ListenableFuture<long[]>> toCancel;
+          synchronized (SieveRun.this) {
+            toCancel = new ArrayList<ListenableFuture<long[]>>(inFlight);
+            readySegments.clear();
+          }
+          FutureUtils.cancelIncompleteFutures(toCancel, false);
+        }
+      });
+      synchronized (this) {
+        submitSegments();
+      }
+      return result;
+    }
+    
+    // must hold lock
+    private void submitSegments() {
+      // bound in flight and ready (undelivered) segments so memory stays capped for slow consumers
+      while (! result.isDone() && nextSubmitIndex < segmentCount && 
+             inFlight.size() + readySegments.size() < parallelLevel * 2) {
+        final long index = nextSubmitIndex++;
+        final long segmentStart = firstOdd + (index * SEGMENT_SPAN);
+        final ListenableFuture<long[]> future = 
+            AbstractPrimeProcessor.submit(executor, new Callable<long[]>() {
+              @Override
+              public long[] call() {
+                return sieveSegment(runBasePrimes, segmentStart, 
+                                    Math.min(end, segmentStart + SEGMENT_SPAN - 2));
+              }
+            }, TaskPriority.High);
+        inFlight.add(future);
+        future.callback(new FutureCallback<long[]>() {
+          @Override
+          public void handleResult(long[] composite) {
+            segmentComplete(future, index, composite);
+          }
+          
+          @Override
+          public void handleFailure(Throwable t) {
+            result.setFailure(t);
+          }
+        });
+      }
+    }
+    
+    private void segmentComplete(ListenableFuture<long[]> future, long index, long[] composite) {
+      synchronized (this) {
+        inFlight.remove(future);
+        if (result.isDone()) {
+          return;
+        }
+        readySegments.put(index, composite);
+        if (delivering) {
+          // thread already delivering will pick this segment up
+          return;
+        }
+        delivering = true;
+      }
+      
+      while (true) {
+        long deliverIndex;
+        long[] segment;
+        synchronized (this) {
+          segment = readySegments.remove(nextDeliverIndex);
+          if (segment == null) {
+            delivering = false;
+            submitSegments();
+            return;
+          }
+          deliverIndex = nextDeliverIndex++;
+        }
+        
+        try {
+          if (! deliver(deliverIndex, segment) || deliverIndex == segmentCount - 1) {
+            result.setResult(deliveredCount);
+            return;
+          }
+        } catch (Throwable t) {
+          result.setFailure(t);
+          return;
+        }
+      }
+    }
+    
+    // only invoked by the single delivering thread
+    private boolean deliver(long index, long[] composite) {
+      long segmentStart = firstOdd + (index * SEGMENT_SPAN);
+      for (int word = 0; word < SEGMENT_WORDS; word++) {
+        long primeBits = ~composite[word];
+        while (primeBits != 0) {
+          int bit = Long.numberOfTrailingZeros(primeBits);
+          primeBits &= primeBits - 1;
+          long value = segmentStart + (((word * (long)Long.SIZE) + bit) * 2);
+          if (value > end) {
+            return true;
+          }
+          deliveredCount++;
+          if (! consumer.test(value)) {
+            return false;
+          }
+        }
+        if (result.isDone()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
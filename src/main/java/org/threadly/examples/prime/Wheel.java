@@ -0,0 +1,163 @@
+package org.threadly.examples.prime;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * <p>Wheel used to skip candidate divisors which are multiples of a few small primes.  For the 
+ * default wheel of {@code 2 * 3 * 5 * 7 = 210} only 48 of every 210 values are coprime to the 
+ * wheel, so iterating the spokes checks about 77% fewer divisors than stepping through every 
+ * value.  The primes which make up the wheel are never produced as candidates themselves, so 
+ * they must be checked separately.</p>
+ * 
+ * <p>Candidates are iterated by starting from {@link #firstCandidate(long)} and then adding the 
+ * value from {@link #gap(int)} for the current spoke:</p> 
+ * <pre>{@code 
+ * long candidate = wheel.firstCandidate(start); 
+ * int spoke = wheel.spokeIndex(candidate); 
+ * while (candidate <= end) { 
+ *   // check candidate 
+ *   candidate += wheel.gap(spoke); 
+ *   spoke = wheel.nextSpoke(spoke); 
+ * } 
+ * }</pre>
+ * 
+ * @author jent - Mike Jensen
+ */
+public class Wheel {
+  /**
+   * Default wheel built from the primes {@code 2, 3, 5, 7}.
+   */
+  public static final Wheel DEFAULT = new Wheel(2, 3, 5, 7);
+  private static final int MAX_CIRCUMFERENCE = 1 << 24;
+  
+  private final int[] primes;
+  private final int circumference;
+  private final int[] spokes;
+  private final int[] gaps;
+  // for each residue, the index of the smallest spoke >= that residue (or spokes.length to wrap)
+  private final int[] residueSpoke;
+  
+  /**
+   * Constructs a new wheel from the provided primes.  The primes must include {@code 2}, and 
+   * their product must be no larger than {@code 2^24}.
+   * 
+   * @param primes Distinct primes to build the wheel from
+   */
+  public Wheel(int ... primes) {
+    long product = 1;
+    boolean hasTwo = false;
+    for (int p : primes) {
+      if (p < 2 || ! BigInteger.valueOf(p).isProbablePrime(32)) {
+        throw new IllegalArgumentException("Not prime: " + p);
+      }
+      hasTwo |= p == 2;
+      product *= p;
+      if (product > MAX_CIRCUMFERENCE) {
+        throw new IllegalArgumentException("Wheel too large: " + Arrays.toString(primes));
+      }
+    }
+    if (! hasTwo) {
+      throw new IllegalArgumentException("Wheel must contain 2: " + Arrays.toString(primes));
+    }
+    this.primes = primes.clone();
+    Arrays.sort(this.primes);
+    circumference = (int)product;
+    
+    int spokeCount = 0;
+    int[] allSpokes = new int[circumference];
+    for (int r = 0; r < circumference; r++) {
+      if (isCoprime(r)) {
+        allSpokes[spokeCount++] = r;
+      }
+    }
+    spokes = Arrays.copyOf(allSpokes, spokeCount);
+    residueSpoke = new int[circumference];
+    int spoke = spokeCount;
+    for (int r = circumference - 1; r >= 0; r--) {
+      if (spoke > 0 && spokes[spoke - 1] >= r) {
+        spoke--;
+      }
+      residueSpoke[r] = spoke;
+    }
+    gaps = new int[spokeCount];
+    for (int i = 0; i < spokeCount; i++) {
+      int next = i + 1 == spokeCount ? spokes[0] + circumference : spokes[i + 1];
+      gaps[i] = next - spokes[i];
+    }
+  }
+  
+  private boolean isCoprime(int value) {
+    for (int p : primes) {
+      if (value % p == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Returns the largest prime used to construct this wheel.
+   * 
+   * @return Largest prime which candidates will never be a multiple of
+   */
+  public int getLargestPrime() {
+    return primes[primes.length - 1];
+  }
+  
+  /**
+   * Returns the amount of candidates within each turn of the wheel.
+   * 
+   * @return Count of spokes on the wheel
+   */
+  public int getSpokeCount() {
+    return spokes.length;
+  }
+  
+  /**
+   * Finds the smallest value greater than or equal to the provided value which is coprime to 
+   * every prime in the wheel.
+   * 
+   * @param value Non-negative value to start from
+   * @return First candidate at or after the provided value
+   */
+  public long firstCandidate(long value) {
+    int residue = (int)(value % circumference);
+    int spoke = residueSpoke[residue];
+    if (spoke == spokes.length) {
+      return value - residue + circumference + spokes[0];
+    } else {
+      return value - residue + spokes[spoke];
+    }
+  }
+  
+  /**
+   * Returns the spoke index for a value which was produced by this wheel.
+   * 
+   * @param candidate Value returned from {@link #firstCandidate(long)}
+   * @return Index to be provided to {@link #gap(int)}
+   */
+  public int spokeIndex(long candidate) {
+    return residueSpoke[(int)(candidate % circumference)];
+  }
+  
+  /**
+   * Returns the distance from the candidate on the provided spoke to the next candidate.
+   * 
+   * @param spoke Index of the current spoke
+   * @return Amount to add to get the next candidate
+   */
+  public int gap(int spoke) {
+    return gaps[spoke];
+  }
+  
+  /**
+   * Returns the index of the spoke following the provided one.
+   * 
+   * @param spoke Index of the current spoke
+   * @return Index of the next spoke
+   */
+  public int nextSpoke(int spoke) {
+    return spoke + 1 == gaps.length ? 0 : spoke + 1;
+  }
+}